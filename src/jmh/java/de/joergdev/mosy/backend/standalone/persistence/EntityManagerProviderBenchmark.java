@@ -0,0 +1,127 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import de.joergdev.mosy.backend.standalone.pool.PoolMaintenance;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Full {@link EntityManagerProviderImpl#getEntityManager()} / {@link EntityManagerProviderImpl#releaseEntityManager(EntityManager)}
+ * cycle against a temporary H2 database file, for different pool sizes and numbers of threads,
+ * with validation on every get (validation idle time 0) and with the default validation idle time.
+ * 
+ * @author Andreas Joerg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityManagerProviderBenchmark
+{
+  @Param({"1", "5", "16"})
+  public int maxPoolSize;
+
+  @Param({"0", "5000"})
+  public long validationIdleTime;
+
+  private Path dbDir;
+  private EntityManagerFactory emf;
+  private EntityManagerProviderImpl provider;
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws IOException
+  {
+    System.setProperty(EntityManagerPoolMethodsImpl.SYSTEM_PROPERTY_MAX_POOL_SIZE, String.valueOf(maxPoolSize));
+    System.setProperty(EntityManagerPoolMethodsImpl.SYSTEM_PROPERTY_VALIDATION_IDLE_TIME,
+        String.valueOf(validationIdleTime));
+
+    dbDir = Files.createTempDirectory("mosy-jmh");
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("hibernate.connection.url", "jdbc:h2:" + dbDir.resolve("mosy_db").toAbsolutePath());
+    properties.put("hibernate.show_sql", "false");
+
+    emf = Persistence.createEntityManagerFactory(PersistenceConfig.PERSISTENCE_UNIT_NAME, properties);
+
+    provider = new EntityManagerProviderImpl(emf, new SimpleMeterRegistry());
+    provider.warmUp();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws IOException
+  {
+    provider.close();
+    emf.close();
+    PoolMaintenance.getInstance().shutdown();
+
+    try (Stream<Path> files = Files.walk(dbDir))
+    {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+
+    System.clearProperty(EntityManagerPoolMethodsImpl.SYSTEM_PROPERTY_MAX_POOL_SIZE);
+    System.clearProperty(EntityManagerPoolMethodsImpl.SYSTEM_PROPERTY_VALIDATION_IDLE_TIME);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean getRelease1Thread()
+  {
+    return getRelease();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public boolean getRelease8Threads()
+  {
+    return getRelease();
+  }
+
+  @Benchmark
+  @Threads(32)
+  public boolean getRelease32Threads()
+  {
+    return getRelease();
+  }
+
+  private boolean getRelease()
+  {
+    EntityManager em = provider.getEntityManager();
+
+    try
+    {
+      return em.isOpen();
+    }
+    finally
+    {
+      provider.releaseEntityManager(em);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput and latency of {@link ObjectPool#get()} / {@link ObjectPool#giveBack(Object)}
+ * for different pool sizes and numbers of threads, with and without validation on get and give back.
+ * 
+ * @author Andreas Joerg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectPoolBenchmark
+{
+  /** CPU cost of a simulated validation, see {@link Blackhole#consumeCPU(long)} */
+  private static final long VALIDATION_TOKENS = 200;
+
+  /** CPU cost of simulated work while holding an object */
+  private static final long WORK_TOKENS = 100;
+
+  @Param({"1", "4", "8", "16", "32"})
+  public int poolSize;
+
+  @Param({"false", "true"})
+  public boolean validate;
+
+  private ObjectPool<Object> pool;
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    pool = new ObjectPool<>(true, new BenchmarkPoolMethods(poolSize, validate), poolSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    pool.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void getGiveBack1Thread()
+  {
+    getGiveBack();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void getGiveBack4Threads()
+  {
+    getGiveBack();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void getGiveBack16Threads()
+  {
+    getGiveBack();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public void getGiveBack64Threads()
+  {
+    getGiveBack();
+  }
+
+  private void getGiveBack()
+  {
+    Object obj = pool.get();
+
+    try
+    {
+      Blackhole.consumeCPU(WORK_TOKENS);
+    }
+    finally
+    {
+      pool.giveBack(obj);
+    }
+  }
+
+  private static class BenchmarkPoolMethods implements IPoolMethods<Object>
+  {
+    private final int maxSize;
+    private final boolean validate;
+
+    private BenchmarkPoolMethods(int maxSize, boolean validate)
+    {
+      this.maxSize = maxSize;
+      this.validate = validate;
+    }
+
+    @Override
+    public void cleanup(Object obj)
+    {}
+
+    @Override
+    public long getCheckInterval()
+    {
+      return 0;
+    }
+
+    @Override
+    public Object getNewObj()
+    {
+      return new Object();
+    }
+
+    @Override
+    public long getTTL()
+    {
+      return ObjectPool.TTL_UNLIMITED;
+    }
+
+    @Override
+    public int getMaxSize()
+    {
+      return maxSize;
+    }
+
+    @Override
+    public boolean validate(Object obj)
+    {
+      Blackhole.consumeCPU(VALIDATION_TOKENS);
+
+      return true;
+    }
+
+    @Override
+    public boolean validateOnGet()
+    {
+      return validate;
+    }
+
+    @Override
+    public boolean validateOnGiveBack()
+    {
+      return validate;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package de.joergdev.mosy.backend.standalone.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latencies of the requests of one traffic class, recorded by one worker thread (not thread safe) and merged for the
+ * report.
+ *
+ * All latencies are kept (in micros) so the percentiles are exact, also p99.9 of short runs.
+ *
+ * @author Andreas Joerg
+ */
+class LatencyStats
+{
+  private long[] latencies = new long[1024];
+  private int count;
+  private long errors;
+
+  /**
+   * @param nanos - latency of the request in ns
+   * @param error - request failed (I/O error or unexpected status)
+   */
+  void record(long nanos, boolean error)
+  {
+    if (count == latencies.length)
+    {
+      latencies = Arrays.copyOf(latencies, count * 2);
+    }
+
+    latencies[count++] = nanos / 1000;
+
+    if (error)
+    {
+      errors++;
+    }
+  }
+
+  void merge(LatencyStats other)
+  {
+    if (count + other.count > latencies.length)
+    {
+      latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, count + other.count));
+    }
+
+    System.arraycopy(other.latencies, 0, latencies, count, other.count);
+    count += other.count;
+    errors += other.errors;
+  }
+
+  int getCount()
+  {
+    return count;
+  }
+
+  long getErrors()
+  {
+    return errors;
+  }
+
+  /**
+   * @param durationNanos - duration of the measurement
+   * @return Map - requests, errors, throughput (requests/s) and latency in ms (mean, percentiles, max)
+   */
+  Map<String, Object> toReport(long durationNanos)
+  {
+    long[] sorted = Arrays.copyOf(latencies, count);
+    Arrays.sort(sorted);
+
+    long sum = 0;
+    for (long latency : sorted)
+    {
+      sum += latency;
+    }
+
+    Map<String, Object> latency = new LinkedHashMap<>();
+    latency.put("mean", count == 0 ? 0 : toMillis(sum / (double) count));
+    latency.put("p50", toMillis(percentile(sorted, 50)));
+    latency.put("p95", toMillis(percentile(sorted, 95)));
+    latency.put("p99", toMillis(percentile(sorted, 99)));
+    latency.put("p99.9", toMillis(percentile(sorted, 99.9)));
+    latency.put("max", toMillis(count == 0 ? 0 : sorted[count - 1]));
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("requests", count);
+    report.put("errors", errors);
+    report.put("throughput", Math.round(count * 1e11 / durationNanos) / 100.0);
+    report.put("latencyMillis", latency);
+
+    return report;
+  }
+
+  /** nearest rank */
+  private static long percentile(long[] sorted, double percentile)
+  {
+    if (sorted.length == 0)
+    {
+      return 0;
+    }
+
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+
+    return sorted[Math.max(0, rank - 1)];
+  }
+
+  private static double toMillis(double micros)
+  {
+    return Math.round(micros) / 1000.0;
+  }
+}
@@ -0,0 +1,418 @@
+package de.joergdev.mosy.backend.standalone.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.apache.log4j.Logger;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.joergdev.mosy.backend.standalone.ApplicationMain;
+import de.joergdev.mosy.backend.standalone.SystemBoot;
+import de.joergdev.mosy.backend.standalone.persistence.DbStorage;
+import de.joergdev.mosy.shared.Utils;
+
+/**
+ * End-to-end load test of the standalone server for comparison of releases (e.g. after changes of pool or hibernate
+ * settings).
+ *
+ * Boots the application on a random port with a temporary in-memory database (or uses the server at
+ * {@value #SYSTEM_PROPERTY_URL}), seeds it by the REST API and drives the request mix of the {@link Scenario} with
+ * a fixed number of threads (closed loop) for a warmup and a measurement phase. Throughput and latency percentiles
+ * (p50, p95, p99, p99.9) per traffic class are written as JSON report.
+ *
+ * Configured by system properties:
+ * <ul>
+ * <li>{@value #SYSTEM_PROPERTY_URL} - base URL of a running server, default: boot the application</li>
+ * <li>{@value #SYSTEM_PROPERTY_SCENARIO} - scenario file, default {@value Scenario#DEFAULT_SCENARIO} on the
+ * classpath</li>
+ * <li>{@value #SYSTEM_PROPERTY_CONCURRENCY} - number of threads (default {@value #DEFAULT_CONCURRENCY})</li>
+ * <li>{@value #SYSTEM_PROPERTY_WARMUP} - seconds of warmup, not measured (default {@value #DEFAULT_WARMUP})</li>
+ * <li>{@value #SYSTEM_PROPERTY_DURATION} - seconds of measurement (default {@value #DEFAULT_DURATION})</li>
+ * <li>{@value #SYSTEM_PROPERTY_REPORT} - report file (default {@value #DEFAULT_REPORT})</li>
+ * </ul>
+ *
+ * @author Andreas Joerg
+ */
+public class LoadTest
+{
+  private static final Logger LOG = Logger.getLogger(LoadTest.class);
+
+  public static final String SYSTEM_PROPERTY_URL = "loadtest.url";
+  public static final String SYSTEM_PROPERTY_SCENARIO = "loadtest.scenario";
+  public static final String SYSTEM_PROPERTY_CONCURRENCY = "loadtest.concurrency";
+  public static final String SYSTEM_PROPERTY_WARMUP = "loadtest.warmup";
+  public static final String SYSTEM_PROPERTY_DURATION = "loadtest.duration";
+  public static final String SYSTEM_PROPERTY_REPORT = "loadtest.report";
+  public static final String SYSTEM_PROPERTY_VARIABLE_PREFIX = "loadtest.var.";
+
+  private static final int DEFAULT_CONCURRENCY = 16;
+  private static final int DEFAULT_WARMUP = 10;
+  private static final int DEFAULT_DURATION = 60;
+  private static final String DEFAULT_REPORT = "target/loadtest-result.json";
+
+  private static final long BOOT_TIMEOUT_MILLIS = 600000;
+  private static final int CONNECT_TIMEOUT = 5000;
+  private static final int READ_TIMEOUT = 30000;
+
+  private static final String TOTAL = "total";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final String url;
+  private final Scenario scenario;
+  private final int concurrency;
+
+  /** values captured by the seed requests */
+  private final Map<String, String> variables = new ConcurrentHashMap<>();
+  private final AtomicLong seq = new AtomicLong();
+
+  LoadTest(String url, Scenario scenario, int concurrency)
+  {
+    this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    this.scenario = scenario;
+    this.concurrency = concurrency;
+  }
+
+  public static void main(String[] args)
+  {
+    ConfigurableApplicationContext ctx = null;
+    int exitCode = 0;
+
+    try
+    {
+      Scenario scenario = Scenario.load(System.getProperty(SYSTEM_PROPERTY_SCENARIO));
+      int concurrency = Integer.getInteger(SYSTEM_PROPERTY_CONCURRENCY, DEFAULT_CONCURRENCY);
+      int warmup = Integer.getInteger(SYSTEM_PROPERTY_WARMUP, DEFAULT_WARMUP);
+      int duration = Integer.getInteger(SYSTEM_PROPERTY_DURATION, DEFAULT_DURATION);
+
+      // keep a connection per thread alive, the default of 5 would measure connects
+      if (System.getProperty("http.maxConnections") == null)
+      {
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+      }
+
+      String url = System.getProperty(SYSTEM_PROPERTY_URL);
+      if (Utils.isEmpty(url))
+      {
+        ctx = boot();
+        url = "http://localhost:" + ((WebServerApplicationContext) ctx).getWebServer().getPort();
+      }
+
+      LoadTest loadTest = new LoadTest(url, scenario, concurrency);
+
+      LOG.info("Load test " + scenario.getName() + " against " + url + " (concurrency=" + concurrency + ", warmup="
+               + warmup + "s, duration=" + duration + "s)");
+
+      loadTest.seed();
+
+      loadTest.run(TimeUnit.SECONDS.toNanos(warmup));
+
+      long timeStart = System.nanoTime();
+      Map<String, LatencyStats> stats = loadTest.run(TimeUnit.SECONDS.toNanos(duration));
+      long elapsed = System.nanoTime() - timeStart;
+
+      Map<String, Object> report = new LinkedHashMap<>();
+      report.put("scenario", scenario.getName());
+      report.put("url", url);
+      report.put("concurrency", concurrency);
+      report.put("warmupSeconds", warmup);
+      report.put("durationSeconds", elapsed / 1e9);
+
+      Map<String, Object> classes = new TreeMap<>();
+      for (Entry<String, LatencyStats> entry : stats.entrySet())
+      {
+        if (!TOTAL.equals(entry.getKey()))
+        {
+          classes.put(entry.getKey(), entry.getValue().toReport(elapsed));
+        }
+      }
+
+      report.put(TOTAL, stats.get(TOTAL).toReport(elapsed));
+      report.put("classes", classes);
+
+      File reportFile = new File(System.getProperty(SYSTEM_PROPERTY_REPORT, DEFAULT_REPORT));
+      if (reportFile.getAbsoluteFile().getParentFile() != null)
+      {
+        reportFile.getAbsoluteFile().getParentFile().mkdirs();
+      }
+
+      loadTest.mapper.writerWithDefaultPrettyPrinter().writeValue(reportFile, report);
+
+      LOG.info("Load test finished, report written to " + reportFile.getAbsolutePath() + ":\n"
+               + loadTest.mapper.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+    }
+    catch (Exception ex)
+    {
+      LOG.error(ex.getMessage(), ex);
+
+      exitCode = -1;
+    }
+    finally
+    {
+      if (ctx != null)
+      {
+        SpringApplication.exit(ctx);
+      }
+    }
+
+    System.exit(exitCode);
+  }
+
+  /**
+   * Boots the application on a random port, with a temporary in-memory database if no database is configured.
+   */
+  private static ConfigurableApplicationContext boot()
+  {
+    if (Utils.isEmpty(Utils.getSystemProperty(DbStorage.SYSTEM_PROPERTY_DB_MODE))
+        && Utils.isEmpty(Utils.getSystemProperty(DbStorage.PROPERTY_DB_URL)))
+    {
+      System.setProperty(DbStorage.SYSTEM_PROPERTY_DB_MODE, "memory");
+    }
+
+    ConfigurableApplicationContext ctx = new SpringApplicationBuilder(ApplicationMain.class).properties("server.port=0")
+        .run();
+
+    if (!ctx.getBean(SystemBoot.class).awaitBoot(BOOT_TIMEOUT_MILLIS))
+    {
+      SpringApplication.exit(ctx);
+
+      throw new IllegalStateException("system boot failed");
+    }
+
+    return ctx;
+  }
+
+  /**
+   * Executes the seed requests of the scenario in order and stores the captured values as variables.
+   *
+   * @throws IOException
+   */
+  void seed()
+    throws IOException
+  {
+    for (Scenario.Request request : scenario.getSeed())
+    {
+      for (int i = 0; i < request.getCount(); i++)
+      {
+        Response response = execute(request, 0, true);
+
+        if (!request.isSuccess(response.status))
+        {
+          throw new IllegalStateException("seed request " + request.getName() + " failed with status "
+                                          + response.status + ": " + response.body);
+        }
+
+        if (!request.getCapture().isEmpty())
+        {
+          JsonNode body = mapper.readTree(response.body);
+
+          for (Entry<String, String> capture : request.getCapture().entrySet())
+          {
+            JsonNode value = body.at(capture.getValue());
+            if (value.isMissingNode())
+            {
+              throw new IllegalStateException("seed request " + request.getName() + ": " + capture.getValue()
+                                              + " not found in response " + response.body);
+            }
+
+            variables.put(capture.getKey(), value.isValueNode() ? value.asText() : value.toString());
+          }
+        }
+      }
+    }
+
+    LOG.info("Seeded " + scenario.getSeed().size() + " requests");
+  }
+
+  /**
+   * Executes the request mix with the configured number of threads.
+   *
+   * @param durationNanos - duration
+   * @return Map - latencies by traffic class and in total
+   * @throws InterruptedException
+   */
+  Map<String, LatencyStats> run(long durationNanos)
+    throws InterruptedException
+  {
+    long timeEnd = System.nanoTime() + durationNanos;
+
+    List<Map<String, LatencyStats>> statsByThread = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int i = 0; i < concurrency; i++)
+    {
+      Map<String, LatencyStats> stats = new HashMap<>();
+      statsByThread.add(stats);
+
+      int threadNo = i;
+      Thread thread = new Thread(() ->
+      {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (System.nanoTime() < timeEnd)
+        {
+          Scenario.Request request = scenario.pick(random.nextInt(scenario.getTotalWeight()));
+
+          long timeStart = System.nanoTime();
+          int status = execute(request, threadNo, false).status;
+          long latency = System.nanoTime() - timeStart;
+
+          stats.computeIfAbsent(request.getTrafficClass(), c -> new LatencyStats())
+              .record(latency, !request.isSuccess(status));
+        }
+      }, "mosy-loadtest-" + i);
+
+      threads.add(thread);
+      thread.start();
+    }
+
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+
+    Map<String, LatencyStats> result = new HashMap<>();
+    LatencyStats total = new LatencyStats();
+    result.put(TOTAL, total);
+
+    for (Map<String, LatencyStats> stats : statsByThread)
+    {
+      for (Entry<String, LatencyStats> entry : stats.entrySet())
+      {
+        result.computeIfAbsent(entry.getKey(), c -> new LatencyStats()).merge(entry.getValue());
+        total.merge(entry.getValue());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @param request - request of the scenario
+   * @param threadNo - number of the worker thread, variable ${thread}
+   * @param readBody - return the response body, otherwise it is only consumed
+   * @return Response - status -1 on I/O error
+   */
+  private Response execute(Scenario.Request request, int threadNo, boolean readBody)
+  {
+    long seqValue = seq.incrementAndGet();
+
+    Function<String, String> resolver = name ->
+    {
+      if ("seq".equals(name))
+      {
+        return String.valueOf(seqValue);
+      }
+
+      if ("thread".equals(name))
+      {
+        return String.valueOf(threadNo);
+      }
+
+      String value = variables.get(name);
+
+      return value != null ? value : System.getProperty(SYSTEM_PROPERTY_VARIABLE_PREFIX + name);
+    };
+
+    HttpURLConnection con = null;
+
+    try
+    {
+      con = (HttpURLConnection) new URL(url + Scenario.resolve(request.getPath(), resolver)).openConnection();
+      con.setRequestMethod(request.getMethod());
+      con.setConnectTimeout(CONNECT_TIMEOUT);
+      con.setReadTimeout(READ_TIMEOUT);
+
+      for (Entry<String, String> header : request.getHeaders().entrySet())
+      {
+        con.setRequestProperty(header.getKey(), Scenario.resolve(header.getValue(), resolver));
+      }
+
+      String body = Scenario.resolve(request.getBody(), resolver);
+      if (body != null)
+      {
+        con.setDoOutput(true);
+
+        try (OutputStream out = con.getOutputStream())
+        {
+          out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+
+      int status = con.getResponseCode();
+
+      // the response has to be read completely, so the connection is kept alive
+      InputStream in = status >= 400 ? con.getErrorStream() : con.getInputStream();
+      String responseBody = in == null ? null : read(in, readBody);
+
+      return new Response(status, responseBody);
+    }
+    catch (IOException ex)
+    {
+      if (readBody)
+      {
+        LOG.error(request.getName() + ": " + ex.getMessage(), ex);
+      }
+
+      if (con != null)
+      {
+        con.disconnect();
+      }
+
+      return new Response(-1, ex.getMessage());
+    }
+  }
+
+  private static String read(InputStream in, boolean keep)
+    throws IOException
+  {
+    try (InputStream input = in)
+    {
+      ByteArrayOutputStream out = keep ? new ByteArrayOutputStream() : null;
+      byte[] buffer = new byte[8192];
+
+      for (int len = input.read(buffer); len >= 0; len = input.read(buffer))
+      {
+        if (out != null)
+        {
+          out.write(buffer, 0, len);
+        }
+      }
+
+      return out == null ? null : new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static class Response
+  {
+    private final int status;
+    private final String body;
+
+    private Response(int status, String body)
+    {
+      this.status = status;
+      this.body = body;
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package de.joergdev.mosy.backend.standalone.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.joergdev.mosy.shared.Utils;
+
+/**
+ * Scenario of the load test, read from a JSON file:
+ *
+ * <pre>
+ * {
+ *   "name": "...",
+ *   "seed": [ request, ... ],      executed once in order before the load
+ *   "requests": [ request, ... ]   mix of the load, chosen randomly by weight
+ * }
+ *
+ * request:
+ * {
+ *   "name": "...",
+ *   "class": "mock",               traffic class in the report (mock, records, admin, ...), default admin
+ *   "weight": 80,                  share in the mix, default 1
+ *   "count": 10,                   seed only: number of executions, default 1
+ *   "method": "POST",
+ *   "path": "/...",
+ *   "headers": { "...": "..." },
+ *   "body": { ... } or "...",      JSON is sent as application/json
+ *   "expectStatus": 200,           default any 2xx
+ *   "capture": { "var": "/json/pointer" }   seed only: stores values of the response as variables
+ * }
+ * </pre>
+ *
+ * Path, headers and body may contain variables <code>${name}</code>: captured values, system properties
+ * "loadtest.var.{name}", <code>${seq}</code> (counter over all requests) and <code>${thread}</code> (number of the
+ * worker thread).
+ *
+ * @author Andreas Joerg
+ */
+class Scenario
+{
+  static final String DEFAULT_SCENARIO = "loadtest-scenario.json";
+
+  static final String TRAFFIC_CLASS_DEFAULT = "admin";
+
+  private static final Pattern VARIABLE = Pattern.compile("\\$\\{([^}]+)\\}");
+
+  private final String name;
+  private final List<Request> seed;
+  private final List<Request> requests;
+  private final int totalWeight;
+
+  private Scenario(String name, List<Request> seed, List<Request> requests)
+  {
+    this.name = name;
+    this.seed = seed;
+    this.requests = requests;
+    this.totalWeight = requests.stream().mapToInt(r -> r.weight).sum();
+
+    if (totalWeight <= 0)
+    {
+      throw new IllegalArgumentException("scenario " + name + " has no requests with weight");
+    }
+  }
+
+  /**
+   * @param file - path of scenario file, null / empty for the default scenario on the classpath
+   * @return Scenario
+   * @throws IOException
+   */
+  static Scenario load(String file)
+    throws IOException
+  {
+    ObjectMapper mapper = new ObjectMapper();
+
+    JsonNode root;
+    if (Utils.isEmpty(file))
+    {
+      try (InputStream in = Scenario.class.getClassLoader().getResourceAsStream(DEFAULT_SCENARIO))
+      {
+        if (in == null)
+        {
+          throw new IOException(DEFAULT_SCENARIO + " not found on classpath");
+        }
+
+        root = mapper.readTree(in);
+      }
+    }
+    else
+    {
+      try (InputStream in = Files.newInputStream(Paths.get(file)))
+      {
+        root = mapper.readTree(in);
+      }
+    }
+
+    return new Scenario(root.path("name").asText(Utils.isEmpty(file) ? DEFAULT_SCENARIO : file),
+        parseRequests(root.path("seed")), parseRequests(root.path("requests")));
+  }
+
+  private static List<Request> parseRequests(JsonNode nodes)
+  {
+    List<Request> result = new ArrayList<>();
+
+    for (JsonNode node : nodes)
+    {
+      result.add(new Request(node));
+    }
+
+    return Collections.unmodifiableList(result);
+  }
+
+  String getName()
+  {
+    return name;
+  }
+
+  List<Request> getSeed()
+  {
+    return seed;
+  }
+
+  List<Request> getRequests()
+  {
+    return requests;
+  }
+
+  /**
+   * @param random - value in [0, total weight)
+   * @return Request - request of the mix for the value
+   */
+  Request pick(int random)
+  {
+    int sum = 0;
+
+    for (Request request : requests)
+    {
+      sum += request.weight;
+
+      if (random < sum)
+      {
+        return request;
+      }
+    }
+
+    return requests.get(requests.size() - 1);
+  }
+
+  int getTotalWeight()
+  {
+    return totalWeight;
+  }
+
+  /**
+   * Replaces the variables in the text.
+   *
+   * @param text - String
+   * @param variables - value by variable name, null if unknown
+   * @return String
+   * @throws IllegalArgumentException - if a variable is unknown
+   */
+  static String resolve(String text, Function<String, String> variables)
+  {
+    if (text == null || text.indexOf('$') < 0)
+    {
+      return text;
+    }
+
+    Matcher matcher = VARIABLE.matcher(text);
+    StringBuffer result = new StringBuffer();
+
+    while (matcher.find())
+    {
+      String value = variables.apply(matcher.group(1));
+      if (value == null)
+      {
+        throw new IllegalArgumentException("unknown variable " + matcher.group(1) + " in '" + text + "'");
+      }
+
+      matcher.appendReplacement(result, Matcher.quoteReplacement(value));
+    }
+
+    matcher.appendTail(result);
+
+    return result.toString();
+  }
+
+  /** Request of the scenario */
+  static class Request
+  {
+    private final String name;
+    private final String trafficClass;
+    private final int weight;
+    private final int count;
+    private final String method;
+    private final String path;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private final String body;
+    private final int expectStatus;
+    private final Map<String, String> capture = new LinkedHashMap<>();
+
+    private Request(JsonNode node)
+    {
+      method = node.path("method").asText("GET").toUpperCase();
+      path = node.path("path").asText(null);
+      name = node.path("name").asText(method + " " + path);
+      trafficClass = node.path("class").asText(TRAFFIC_CLASS_DEFAULT);
+      weight = node.path("weight").asInt(1);
+      count = node.path("count").asInt(1);
+      expectStatus = node.path("expectStatus").asInt(0);
+
+      if (Utils.isEmpty(path) || weight < 0 || count < 0)
+      {
+        throw new IllegalArgumentException("invalid request " + node);
+      }
+
+      for (Iterator<Entry<String, JsonNode>> it = node.path("headers").fields(); it.hasNext();)
+      {
+        Entry<String, JsonNode> header = it.next();
+        headers.put(header.getKey(), header.getValue().asText());
+      }
+
+      JsonNode bodyNode = node.get("body");
+      if (bodyNode == null || bodyNode.isNull())
+      {
+        body = null;
+      }
+      else if (bodyNode.isTextual())
+      {
+        body = bodyNode.asText();
+      }
+      else
+      {
+        body = bodyNode.toString();
+        headers.putIfAbsent("Content-Type", "application/json");
+      }
+
+      for (Iterator<Entry<String, JsonNode>> it = node.path("capture").fields(); it.hasNext();)
+      {
+        Entry<String, JsonNode> var = it.next();
+        capture.put(var.getKey(), var.getValue().asText());
+      }
+    }
+
+    /**
+     * @param status - HTTP status, -1 on I/O error
+     * @return boolean - status is expected
+     */
+    boolean isSuccess(int status)
+    {
+      return expectStatus == 0 ? status >= 200 && status < 300 : status == expectStatus;
+    }
+
+    String getName()
+    {
+      return name;
+    }
+
+    String getTrafficClass()
+    {
+      return trafficClass;
+    }
+
+    int getCount()
+    {
+      return count;
+    }
+
+    String getMethod()
+    {
+      return method;
+    }
+
+    String getPath()
+    {
+      return path;
+    }
+
+    Map<String, String> getHeaders()
+    {
+      return headers;
+    }
+
+    String getBody()
+    {
+      return body;
+    }
+
+    Map<String, String> getCapture()
+    {
+      return capture;
+    }
+  }
+}
@@ -1,22 +1,23 @@
 package de.joergdev.mosy.backend.standalone;
 
-import javax.ws.rs.core.Response;
 import org.apache.log4j.Logger;
+import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
-import de.joergdev.mosy.api.response.EmptyResponse;
-import de.joergdev.mosy.api.response.ResponseMessageLevel;
-import de.joergdev.mosy.backend.api.APIUtils;
-import de.joergdev.mosy.backend.bl.system.BootIntern;
-import de.joergdev.mosy.backend.persistence.EntityManagerProviderService;
-import de.joergdev.mosy.backend.standalone.persistence.EntityManagerProviderImpl;
+import org.springframework.context.ConfigurableApplicationContext;
+import de.joergdev.mosy.shared.Utils;
 
 @SpringBootApplication
 public class ApplicationMain extends SpringBootServletInitializer
 {
   private static final Logger LOG = Logger.getLogger(ApplicationMain.class);
 
+  /** exit after boot, e.g. for a training run creating a class data sharing archive */
+  public static final String SYSTEM_PROPERTY_EXIT_AFTER_BOOT = "MOSY_EXIT_AFTER_BOOT";
+
+  private static final long BOOT_TIMEOUT_MILLIS = 600000;
+
   public static void main(String[] args)
   {
     try
@@ -24,15 +25,22 @@ public class ApplicationMain extends SpringBootServletInitializer
       long timeStart = System.currentTimeMillis();
       LOG.info("Booting Application " + ApplicationMain.class);
 
-      new ApplicationMain().configure(new SpringApplicationBuilder(ApplicationMain.class)).run(args);
-
-      // set EntityManagerProvider
-      EntityManagerProviderService.getInstance().setEntityManagerProvider(new EntityManagerProviderImpl());
+      ConfigurableApplicationContext ctx = new ApplicationMain()
+          .configure(new SpringApplicationBuilder(ApplicationMain.class)).run(args);
 
-      doSystemBoot();
+      // system boot is running in background since start of the context, see SystemBoot
+      if (!ctx.getBean(SystemBoot.class).awaitBoot(BOOT_TIMEOUT_MILLIS))
+      {
+        throw new IllegalStateException("system boot failed");
+      }
 
       LOG.info("Booted application " + ApplicationMain.class + " in "
                + (System.currentTimeMillis() - timeStart) + " ms");
+
+      if (Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_EXIT_AFTER_BOOT)))
+      {
+        System.exit(SpringApplication.exit(ctx));
+      }
     }
     catch (Exception ex)
     {
@@ -41,19 +49,4 @@ public class ApplicationMain extends SpringBootServletInitializer
       System.exit(-1);
     }
   }
-
-  private static void doSystemBoot()
-  {
-    Response response = APIUtils.executeBL(null, new EmptyResponse(), new BootIntern());
-
-    EmptyResponse emptyResponse = (EmptyResponse) response.getEntity();
-
-    if (!emptyResponse.isStateOK())
-    {
-      emptyResponse.getMessagesForLevel(ResponseMessageLevel.FATAL, ResponseMessageLevel.ERROR)
-          .forEach(m -> LOG.error(m.getFullMessage()));
-
-      throw new IllegalStateException("system boot failed");
-    }
-  }
-}
\ No newline at end of file
+}
@@ -1,37 +1,63 @@
-package de.joergdev.mosy.backend.standalone;
-
-import org.glassfish.jersey.server.ResourceConfig;
-import org.springframework.stereotype.Component;
-import de.joergdev.mosy.backend.api.impl.Globalconfig;
-import de.joergdev.mosy.backend.api.impl.Interfaces;
-import de.joergdev.mosy.backend.api.impl.MockData;
-import de.joergdev.mosy.backend.api.impl.MockProfiles;
-import de.joergdev.mosy.backend.api.impl.MockServices;
-import de.joergdev.mosy.backend.api.impl.RecordConfig;
-import de.joergdev.mosy.backend.api.impl.RecordSessions;
-import de.joergdev.mosy.backend.api.impl.Records;
-import de.joergdev.mosy.backend.api.impl.Tenants;
-
-@Component
-public class JerseyConfig extends ResourceConfig
-{
-  //  private static final String API_IMPL_PACKAGE = "de.joergdev.mosy.backend.api.impl";
-
-  public JerseyConfig()
-  {
-    register(Globalconfig.class);
-    register(Interfaces.class);
-    register(MockData.class);
-    register(MockProfiles.class);
-    register(MockServices.class);
-    register(RecordConfig.class);
-    register(Records.class);
-    register(RecordSessions.class);
-    register(de.joergdev.mosy.backend.api.impl.System.class);
-    register(Tenants.class);
-
-    // the jersey scan via packages(..) is actually broken in connection with spring boot jar
-    // so we have to register the API classes directly (see above)
-    //    packages(API_IMPL_PACKAGE);
-  }
-}
+package de.joergdev.mosy.backend.standalone;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.springframework.stereotype.Component;
+import de.joergdev.mosy.backend.api.impl.Globalconfig;
+import de.joergdev.mosy.backend.api.impl.Interfaces;
+import de.joergdev.mosy.backend.api.impl.MockData;
+import de.joergdev.mosy.backend.api.impl.MockProfiles;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import de.joergdev.mosy.backend.api.impl.RecordConfig;
+import de.joergdev.mosy.backend.api.impl.RecordSessions;
+import de.joergdev.mosy.backend.api.impl.Records;
+import de.joergdev.mosy.backend.api.impl.Tenants;
+import de.joergdev.mosy.backend.standalone.cache.ModelChangeFilter;
+import de.joergdev.mosy.backend.standalone.cache.ResponseCacheFilter;
+import de.joergdev.mosy.backend.standalone.persistence.PoolPartitionFilter;
+import de.joergdev.mosy.backend.standalone.persistence.ReadOnlyRequestFilter;
+import de.joergdev.mosy.backend.standalone.persistence.RecordWriteBehindFilter;
+import de.joergdev.mosy.backend.standalone.transfer.DataTransfer;
+
+@Component
+public class JerseyConfig extends ResourceConfig
+{
+  //  private static final String API_IMPL_PACKAGE = "de.joergdev.mosy.backend.api.impl";
+
+  public JerseyConfig(ModelChangeFilter modelChangeFilter, ResponseCacheFilter responseCacheFilter,
+                      PoolPartitionFilter poolPartitionFilter, ReadOnlyRequestFilter readOnlyRequestFilter,
+                      RecordWriteBehindFilter recordWriteBehindFilter, DataTransfer dataTransfer)
+  {
+    register(Globalconfig.class);
+    register(Interfaces.class);
+    register(MockData.class);
+    register(MockProfiles.class);
+    register(MockServices.class);
+    register(RecordConfig.class);
+    register(Records.class);
+    register(RecordSessions.class);
+    register(de.joergdev.mosy.backend.api.impl.System.class);
+    register(Tenants.class);
+
+    // streaming export / import (if enabled)
+    register(dataTransfer);
+
+    // invalidates caches after changes via API
+    register(modelChangeFilter);
+
+    // answers mock service calls from cache (if enabled)
+    register(responseCacheFilter);
+
+    // selects the partition of the EntityManager pool (if partitioned)
+    register(poolPartitionFilter);
+
+    // routes read-only requests to the read-only EntityManager pool (if enabled)
+    register(readOnlyRequestFilter);
+
+    // marks mock service calls, only their recordings are written behind (if enabled)
+    register(recordWriteBehindFilter);
+
+    // the jersey scan via packages(..) is actually broken in connection with spring boot jar
+    // so we have to register the API classes directly (see above)
+    //    packages(API_IMPL_PACKAGE);
+  }
+}
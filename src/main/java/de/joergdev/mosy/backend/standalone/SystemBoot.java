@@ -0,0 +1,148 @@
+package de.joergdev.mosy.backend.standalone;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.ws.rs.core.Response;
+import org.apache.log4j.Logger;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import de.joergdev.mosy.api.response.EmptyResponse;
+import de.joergdev.mosy.api.response.ResponseMessageLevel;
+import de.joergdev.mosy.backend.api.APIUtils;
+import de.joergdev.mosy.backend.bl.system.BootIntern;
+import de.joergdev.mosy.backend.persistence.EntityManagerProviderService;
+import de.joergdev.mosy.backend.standalone.persistence.EntityManagerProviderImpl;
+import de.joergdev.mosy.backend.standalone.persistence.SchemaVersion;
+
+/**
+ * System boot of MoSy: EntityManager pool warm-up and BootIntern.
+ * 
+ * Started in background with the spring lifecycle before the web server, so the boot runs parallel to
+ * the start of the web server. Requests are held back until the boot is finished, see {@link SystemBootFilter}.
+ * 
+ * @author Andreas Joerg
+ */
+@Component
+public class SystemBoot implements SmartLifecycle
+{
+  private static final Logger LOG = Logger.getLogger(SystemBoot.class);
+
+  /** before the web server (WebServerStartStopLifecycle) */
+  private static final int PHASE = Integer.MAX_VALUE - 2;
+
+  private final EntityManagerProviderImpl entityManagerProvider;
+  private final SchemaVersion schemaVersion;
+
+  private final CompletableFuture<Void> booted = new CompletableFuture<>();
+  private volatile boolean running;
+
+  public SystemBoot(EntityManagerProviderImpl entityManagerProvider, SchemaVersion schemaVersion)
+  {
+    this.entityManagerProvider = entityManagerProvider;
+    this.schemaVersion = schemaVersion;
+  }
+
+  @Override
+  public void start()
+  {
+    running = true;
+
+    Thread thread = new Thread(this::boot, "mosy-system-boot");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void boot()
+  {
+    try
+    {
+      long timeStart = System.currentTimeMillis();
+
+      // set EntityManagerProvider (uses the EntityManagerFactory shared by spring)
+      EntityManagerProviderService.getInstance().setEntityManagerProvider(entityManagerProvider);
+
+      // create pooled EntityManagers before first request, waits for the EntityManagerFactory
+      entityManagerProvider.warmUp();
+
+      schemaVersion.storeVersion();
+
+      doSystemBoot();
+
+      LOG.info("System boot finished in " + (System.currentTimeMillis() - timeStart) + " ms");
+
+      booted.complete(null);
+    }
+    catch (Exception ex)
+    {
+      LOG.error(ex.getMessage(), ex);
+
+      booted.completeExceptionally(ex);
+    }
+  }
+
+  private static void doSystemBoot()
+  {
+    Response response = APIUtils.executeBL(null, new EmptyResponse(), new BootIntern());
+
+    EmptyResponse emptyResponse = (EmptyResponse) response.getEntity();
+
+    if (!emptyResponse.isStateOK())
+    {
+      emptyResponse.getMessagesForLevel(ResponseMessageLevel.FATAL, ResponseMessageLevel.ERROR)
+          .forEach(m -> LOG.error(m.getFullMessage()));
+
+      throw new IllegalStateException("system boot failed");
+    }
+  }
+
+  /**
+   * Waits until the system boot is finished.
+   * 
+   * @param timeoutMillis - max time to wait
+   * @return boolean - true if boot finished successfully, false on timeout or failed boot
+   */
+  public boolean awaitBoot(long timeoutMillis)
+  {
+    try
+    {
+      booted.get(timeoutMillis, TimeUnit.MILLISECONDS);
+
+      return true;
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+
+      return false;
+    }
+    catch (TimeoutException | ExecutionException ex)
+    {
+      return false;
+    }
+  }
+
+  public boolean isBooted()
+  {
+    return booted.isDone() && !booted.isCompletedExceptionally();
+  }
+
+  @Override
+  public void stop()
+  {
+    running = false;
+  }
+
+  @Override
+  public boolean isRunning()
+  {
+    return running;
+  }
+
+  @Override
+  public int getPhase()
+  {
+    return PHASE;
+  }
+}
@@ -0,0 +1,66 @@
+package de.joergdev.mosy.backend.standalone;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Servlet filter holding back requests until the system boot is finished, see {@link SystemBoot}.
+ * If the boot does not finish in time or failed, the request is answered with 503 (service unavailable).
+ * Requests of the management endpoints (actuator, e.g. health) are not held back.
+ * 
+ * Runs before the other filters of MoSy, so a request held back does not hold resources (e.g. an EntityManager).
+ * 
+ * @author Andreas Joerg
+ */
+@Component
+@Order(SystemBootFilter.ORDER)
+public class SystemBootFilter implements Filter
+{
+  /** after the filters of spring boot with highest precedence (e.g. character encoding) */
+  public static final int ORDER = Ordered.HIGHEST_PRECEDENCE + 10;
+
+  private static final long BOOT_WAIT_MILLIS = 60000;
+
+  private final SystemBoot systemBoot;
+  private final String managementBasePath;
+
+  public SystemBootFilter(SystemBoot systemBoot,
+                          @Value("${management.endpoints.web.base-path:/actuator}") String managementBasePath)
+  {
+    this.systemBoot = systemBoot;
+    this.managementBasePath = managementBasePath;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+    throws IOException, ServletException
+  {
+    if (!systemBoot.isBooted() && !isManagementRequest((HttpServletRequest) request)
+        && !systemBoot.awaitBoot(BOOT_WAIT_MILLIS))
+    {
+      ((HttpServletResponse) response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+          "system boot not finished");
+
+      return;
+    }
+
+    chain.doFilter(request, response);
+  }
+
+  private boolean isManagementRequest(HttpServletRequest request)
+  {
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+
+    return path.equals(managementBasePath) || path.startsWith(managementBasePath + "/");
+  }
+}
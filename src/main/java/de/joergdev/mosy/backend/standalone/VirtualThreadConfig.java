@@ -0,0 +1,72 @@
+package de.joergdev.mosy.backend.standalone;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Virtual thread mode (requires java 21+), enabled by system property / environment variable
+ * {@value #SYSTEM_PROPERTY_VIRTUAL_THREADS}=true.
+ * 
+ * Tomcat then executes each request, and so the Jersey resources registered in {@link JerseyConfig},
+ * on a new virtual thread instead of its platform thread pool.
+ * The executor is created via reflection, so the application still compiles and runs on java 8 without this mode.
+ * 
+ * @author Andreas Joerg
+ */
+@Configuration
+@ConditionalOnProperty(name = VirtualThreadConfig.SYSTEM_PROPERTY_VIRTUAL_THREADS, havingValue = "true")
+public class VirtualThreadConfig
+{
+  public static final String SYSTEM_PROPERTY_VIRTUAL_THREADS = "MOSY_VIRTUAL_THREADS";
+
+  private static final Logger LOG = Logger.getLogger(VirtualThreadConfig.class);
+
+  @Bean
+  public VirtualThreadProtocolHandlerCustomizer virtualThreadProtocolHandlerCustomizer()
+  {
+    return new VirtualThreadProtocolHandlerCustomizer();
+  }
+
+  /**
+   * Sets an executor creating a virtual thread per task for the tomcat protocol handler.
+   * The executor is not published as bean to not replace the task executor auto configured by spring boot.
+   */
+  public static class VirtualThreadProtocolHandlerCustomizer
+      implements TomcatProtocolHandlerCustomizer<ProtocolHandler>, DisposableBean
+  {
+    private final ExecutorService executor = createVirtualThreadExecutor();
+
+    @Override
+    public void customize(ProtocolHandler protocolHandler)
+    {
+      protocolHandler.setExecutor(executor);
+
+      LOG.info("Requests are executed on virtual threads");
+    }
+
+    @Override
+    public void destroy()
+    {
+      executor.shutdown();
+    }
+
+    private static ExecutorService createVirtualThreadExecutor()
+    {
+      try
+      {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch (ReflectiveOperationException ex)
+      {
+        throw new IllegalStateException(SYSTEM_PROPERTY_VIRTUAL_THREADS + "=true requires java 21 or higher", ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+import java.util.List;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Spring configuration for the in-memory caches of the model.
+ * 
+ * @author Andreas Joerg
+ */
+@Configuration
+public class CacheConfig
+{
+  @Bean
+  public SecondLevelCacheEviction secondLevelCacheEviction(EntityManagerFactory entityManagerFactory)
+  {
+    return new SecondLevelCacheEviction(entityManagerFactory);
+  }
+
+  @Bean
+  public ResponseCache responseCache(EntityManagerFactory entityManagerFactory, MeterRegistry meterRegistry)
+  {
+    return new ResponseCache(entityManagerFactory, meterRegistry);
+  }
+
+  /**
+   * Broadcast of model changes to other instances using the same database (multi-instance mode).
+   */
+  @Bean(initMethod = "start", destroyMethod = "close")
+  public ModelChangeBroadcast modelChangeBroadcast(DataSource dataSource, ObjectProvider<ModelChangeListener> listeners,
+                                                   @Value("${MOSY_CLUSTER:false}") boolean enabled,
+                                                   @Value("${MOSY_CLUSTER_POLL_INTERVAL:1000}") long pollInterval,
+                                                   MeterRegistry meterRegistry)
+  {
+    return new ModelChangeBroadcast(dataSource, listeners, enabled, pollInterval, meterRegistry);
+  }
+
+  /**
+   * Registered in JerseyConfig.
+   */
+  @Bean
+  public ResponseCacheFilter responseCacheFilter(ResponseCache responseCache)
+  {
+    return new ResponseCacheFilter(responseCache);
+  }
+
+  /**
+   * Notifies all {@link ModelChangeListener} beans about changes via REST API, registered in JerseyConfig.
+   */
+  @Bean
+  public ModelChangeFilter modelChangeFilter(List<ModelChangeListener> listeners)
+  {
+    return new ModelChangeFilter(listeners);
+  }
+}
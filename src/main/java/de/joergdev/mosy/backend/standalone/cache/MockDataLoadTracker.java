@@ -0,0 +1,96 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import de.joergdev.mosy.backend.persistence.model.MockData;
+
+/**
+ * Tracks the MockData rows loaded by a mock service call, see {@link ResponseCache#beginCall()}.
+ *
+ * Loads are reported by a hibernate listener, also for entities assembled from the second level cache. Tracking is
+ * per thread (the resource method of a mock service call runs on the thread of the request filter). At most two ids
+ * are kept, a call loading more than one MockData is not resolved from a single row anyway.
+ *
+ * @author Andreas Joerg
+ */
+class MockDataLoadTracker implements PostLoadEventListener
+{
+  private static final long serialVersionUID = 1L;
+
+  private final transient EntityManagerFactory emf;
+
+  private final transient ThreadLocal<Set<Serializable>> loadedIds = new ThreadLocal<>();
+
+  /** listener is registered on first use (EntityManagerFactory is bootstrapped in background) */
+  private volatile boolean registered;
+  /** instead of synchronized it does not pin virtual threads */
+  private final transient Lock registerLock = new ReentrantLock();
+
+  MockDataLoadTracker(EntityManagerFactory emf)
+  {
+    this.emf = emf;
+  }
+
+  void begin()
+  {
+    register();
+
+    loadedIds.set(new HashSet<>());
+  }
+
+  /**
+   * @return Serializable - id of the single MockData loaded since {@link #begin()}, null if none or more than one
+   */
+  Serializable end()
+  {
+    Set<Serializable> ids = loadedIds.get();
+    loadedIds.remove();
+
+    return ids != null && ids.size() == 1 ? ids.iterator().next() : null;
+  }
+
+  @Override
+  public void onPostLoad(PostLoadEvent event)
+  {
+    Set<Serializable> ids = loadedIds.get();
+
+    if (ids != null && ids.size() < 2 && event.getEntity() instanceof MockData)
+    {
+      ids.add(event.getId());
+    }
+  }
+
+  private void register()
+  {
+    if (registered)
+    {
+      return;
+    }
+
+    registerLock.lock();
+
+    try
+    {
+      if (!registered)
+      {
+        emf.unwrap(SessionFactoryImplementor.class).getServiceRegistry().getService(EventListenerRegistry.class)
+            .appendListeners(EventType.POST_LOAD, this);
+
+        registered = true;
+      }
+    }
+    finally
+    {
+      registerLock.unlock();
+    }
+  }
+}
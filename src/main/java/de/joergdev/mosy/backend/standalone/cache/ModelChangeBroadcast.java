@@ -0,0 +1,275 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Broadcast of model changes between multiple instances sharing one database (multi-instance mode).
+ *
+ * Changes via REST API of this instance are written to table {@value #TABLE}, the table is polled for changes
+ * of the other instances, which are passed to the local {@link ModelChangeListener}s, so the caches of all instances
+ * are invalidated.
+ *
+ * IDs are assigned on insert but rows become visible on commit, so a row may appear after a row with a higher ID.
+ * Therefore the poll reads all rows of an overlap window ({@value #OVERLAP} ms since a row was seen) again and skips
+ * the rows already seen.
+ *
+ * The SQL is written for H2 (as the rest of the storage, see DbStorage).
+ *
+ * @author Andreas Joerg
+ */
+public class ModelChangeBroadcast implements ModelChangeListener
+{
+  private static final Logger LOG = Logger.getLogger(ModelChangeBroadcast.class);
+
+  static final String TABLE = "MOSY_MODEL_CHANGE";
+
+  /** changes older than this are deleted */
+  private static final long MAX_AGE = 600000;
+
+  /** ms a row is read again after it was seen, rows committed later after a row with a higher ID are missed */
+  private static final long OVERLAP = 60000;
+
+  private final DataSource dataSource;
+  private final ObjectProvider<ModelChangeListener> listeners;
+  private final boolean enabled;
+  private final long pollInterval;
+
+  /** identifies the changes of this instance */
+  private final String node = UUID.randomUUID().toString();
+
+  private final Counter sent;
+  private final Counter received;
+
+  private ScheduledExecutorService executor;
+  /** rows up to this ID are not read again */
+  private long floorId;
+  /** rows read in the overlap window, key: ID, value: time seen (accessed by the poll thread only) */
+  private final Map<Long, Long> seenIds = new HashMap<>();
+  private long lastCleanup;
+
+  /**
+   * @param dataSource - DataSource of the shared database
+   * @param listeners - local listeners, changes of other instances are passed to them
+   * @param enabled - broadcast enabled
+   * @param pollInterval - interval in ms for polling changes of other instances
+   * @param meterRegistry - MeterRegistry
+   */
+  public ModelChangeBroadcast(DataSource dataSource, ObjectProvider<ModelChangeListener> listeners, boolean enabled,
+                              long pollInterval, MeterRegistry meterRegistry)
+  {
+    this.dataSource = dataSource;
+    this.listeners = listeners;
+    this.enabled = enabled;
+    this.pollInterval = pollInterval;
+
+    sent = Counter.builder("mosy.model.change.broadcast").tag("direction", "sent").register(meterRegistry);
+    received = Counter.builder("mosy.model.change.broadcast").tag("direction", "received").register(meterRegistry);
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * Creates the table and starts polling, changes before the start are ignored.
+   */
+  public void start()
+  {
+    if (!enabled)
+    {
+      return;
+    }
+
+    try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement())
+    {
+      stmt.execute("CREATE TABLE IF NOT EXISTS " + TABLE
+                   + " (ID BIGINT AUTO_INCREMENT PRIMARY KEY, NODE VARCHAR(36) NOT NULL,"
+                   + " RESOURCE VARCHAR(255) NOT NULL, CREATED TIMESTAMP NOT NULL)");
+
+      try (ResultSet rs = stmt.executeQuery("SELECT MAX(ID) FROM " + TABLE))
+      {
+        floorId = rs.next() ? rs.getLong(1) : 0;
+      }
+
+      commit(con);
+    }
+    catch (SQLException ex)
+    {
+      throw new IllegalStateException("creation of table " + TABLE + " failed", ex);
+    }
+
+    executor = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+      Thread thread = new Thread(r, "mosy-model-change-broadcast");
+      thread.setDaemon(true);
+
+      return thread;
+    });
+
+    executor.scheduleWithFixedDelay(() ->
+    {
+      try
+      {
+        poll();
+      }
+      catch (RuntimeException ex)
+      {
+        LOG.error("Polling model changes failed: " + ex.getMessage(), ex);
+      }
+    }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+
+    LOG.info("Model change broadcast enabled (node=" + node + ", pollInterval=" + pollInterval + ")");
+  }
+
+  public void close()
+  {
+    if (executor != null)
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void modelChanged(Class<?> resourceClass)
+  {
+    // mock service calls do not change the model and would flood the table
+    if (!enabled || MockServices.class.isAssignableFrom(resourceClass))
+    {
+      return;
+    }
+
+    try (Connection con = dataSource.getConnection();
+         PreparedStatement insert = con
+             .prepareStatement("INSERT INTO " + TABLE + " (NODE, RESOURCE, CREATED) VALUES (?, ?, ?)"))
+    {
+      insert.setString(1, node);
+      insert.setString(2, resourceClass.getName());
+      insert.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+      insert.executeUpdate();
+
+      commit(con);
+
+      sent.increment();
+    }
+    catch (SQLException ex)
+    {
+      // other instances keep their caches until the next change
+      LOG.error("Broadcast of model change " + resourceClass.getName() + " failed: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Passes the changes of the other instances since the last poll to the local listeners.
+   */
+  void poll()
+  {
+    long now = System.currentTimeMillis();
+
+    try (Connection con = dataSource.getConnection();
+         PreparedStatement select = con.prepareStatement("SELECT ID, RESOURCE FROM " + TABLE
+                                                         + " WHERE ID > ? AND NODE <> ? ORDER BY ID"))
+    {
+      select.setLong(1, floorId);
+      select.setString(2, node);
+
+      try (ResultSet rs = select.executeQuery())
+      {
+        while (rs.next())
+        {
+          if (seenIds.putIfAbsent(rs.getLong(1), now) == null)
+          {
+            notifyListeners(rs.getString(2));
+          }
+        }
+      }
+
+      // rows seen before the overlap window are not read again
+      for (Iterator<Entry<Long, Long>> it = seenIds.entrySet().iterator(); it.hasNext();)
+      {
+        Entry<Long, Long> seen = it.next();
+
+        if (now - seen.getValue() > OVERLAP)
+        {
+          floorId = Math.max(floorId, seen.getKey());
+          it.remove();
+        }
+      }
+
+      if (now - lastCleanup > MAX_AGE)
+      {
+        try (PreparedStatement delete = con.prepareStatement("DELETE FROM " + TABLE + " WHERE CREATED < ?"))
+        {
+          delete.setTimestamp(1, new Timestamp(now - MAX_AGE));
+          delete.executeUpdate();
+        }
+
+        lastCleanup = now;
+      }
+
+      commit(con);
+    }
+    catch (SQLException ex)
+    {
+      throw new IllegalStateException("polling table " + TABLE + " failed", ex);
+    }
+  }
+
+  private void notifyListeners(String resourceClassName)
+  {
+    Class<?> resourceClass;
+    try
+    {
+      resourceClass = Class.forName(resourceClassName);
+    }
+    catch (ClassNotFoundException ex)
+    {
+      // instance with other version
+      LOG.warn("Unknown model change " + resourceClassName);
+
+      return;
+    }
+
+    received.increment();
+
+    listeners.orderedStream().filter(listener -> listener != this).forEach(listener ->
+    {
+      try
+      {
+        listener.modelChanged(resourceClass);
+      }
+      catch (RuntimeException ex)
+      {
+        LOG.error(ex.getMessage(), ex);
+      }
+    });
+  }
+
+  private static void commit(Connection con)
+    throws SQLException
+  {
+    if (!con.getAutoCommit())
+    {
+      con.commit();
+    }
+  }
+}
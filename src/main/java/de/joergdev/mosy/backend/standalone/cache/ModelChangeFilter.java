@@ -0,0 +1,62 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+import java.util.List;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Response;
+import org.apache.log4j.Logger;
+
+/**
+ * Notifies the {@link ModelChangeListener}s after successful write requests (POST, PUT, DELETE, ...)
+ * to the API classes, so caches of the model can be invalidated.
+ * 
+ * @author Andreas Joerg
+ */
+public class ModelChangeFilter implements ContainerResponseFilter
+{
+  private static final Logger LOG = Logger.getLogger(ModelChangeFilter.class);
+
+  private final List<ModelChangeListener> listeners;
+
+  public ModelChangeFilter(List<ModelChangeListener> listeners)
+  {
+    this.listeners = listeners;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+  {
+    if (!isWriteRequest(requestContext.getMethod())
+        || responseContext.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL)
+    {
+      return;
+    }
+
+    List<Object> matchedResources = requestContext.getUriInfo().getMatchedResources();
+    if (matchedResources.isEmpty())
+    {
+      return;
+    }
+
+    Class<?> resourceClass = matchedResources.get(0).getClass();
+
+    for (ModelChangeListener listener : listeners)
+    {
+      try
+      {
+        listener.modelChanged(resourceClass);
+      }
+      catch (RuntimeException ex)
+      {
+        LOG.error(ex.getMessage(), ex);
+      }
+    }
+  }
+
+  private static boolean isWriteRequest(String method)
+  {
+    return !HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method) && !HttpMethod.OPTIONS.equals(method);
+  }
+}
@@ -0,0 +1,16 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+/**
+ * Listener for changes of the model made via REST API, see {@link ModelChangeFilter}.
+ * 
+ * @author Andreas Joerg
+ */
+public interface ModelChangeListener
+{
+  /**
+   * Called after a successful write request.
+   * 
+   * @param resourceClass - API class that handled the request, e.g. de.joergdev.mosy.backend.api.impl.MockData
+   */
+  void modelChanged(Class<?> resourceClass);
+}
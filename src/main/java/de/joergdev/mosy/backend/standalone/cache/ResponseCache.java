@@ -0,0 +1,328 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.persistence.EntityManagerFactory;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import de.joergdev.mosy.backend.api.impl.Records;
+import de.joergdev.mosy.shared.Utils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * LRU cache of serialized responses of mock service calls, see {@link ResponseCacheFilter}.
+ * 
+ * Bounded by number of entries and total size of the responses. The cache is cleared on every change of the model
+ * via REST API, responses of calls that began before a clear are discarded. As a cached response is returned without
+ * executing the BL, mock calls answered from the cache are not recorded and not counted, so the cache is disabled by
+ * default (system property {@value #SYSTEM_PROPERTY_ENABLED}).
+ * 
+ * Only responses resolved from a single MockData row are cached: a call that loaded no MockData (e.g. routed) or more
+ * than one, or that took longer than {@value #SYSTEM_PROPERTY_MAX_CALL_MILLIS} (e.g. delayed or routed), is not
+ * cached, see {@link #beginCall()} / {@link #endCall(long)}.
+ * 
+ * @author Andreas Joerg
+ */
+public class ResponseCache implements ModelChangeListener
+{
+  public static final String SYSTEM_PROPERTY_ENABLED = "MOSY_RESPONSE_CACHE";
+  public static final String SYSTEM_PROPERTY_MAX_ENTRIES = "MOSY_RESPONSE_CACHE_MAX_ENTRIES";
+  public static final String SYSTEM_PROPERTY_MAX_BYTES = "MOSY_RESPONSE_CACHE_MAX_BYTES";
+  public static final String SYSTEM_PROPERTY_MAX_ENTRY_BYTES = "MOSY_RESPONSE_CACHE_MAX_ENTRY_BYTES";
+  public static final String SYSTEM_PROPERTY_MAX_CALL_MILLIS = "MOSY_RESPONSE_CACHE_MAX_CALL_MILLIS";
+
+  private static final int DEFAULT_MAX_ENTRIES = 1000;
+  private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  private static final int DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024;
+  private static final long DEFAULT_MAX_CALL_MILLIS = 100;
+
+  private final boolean enabled;
+  private final int maxEntries;
+  private final long maxBytes;
+  private final int maxEntryBytes;
+  private final long maxCallNanos;
+
+  private final MockDataLoadTracker mockDataLoadTracker;
+
+  /** access order = LRU */
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  /** access order is changed by get, so reads are locked as well */
+  private final Lock lock = new ReentrantLock();
+  private long bytes;
+  /** incremented by clear, guarded by lock */
+  private volatile long generation;
+
+  private final Counter hits;
+  private final Counter misses;
+
+  public ResponseCache(EntityManagerFactory emf, MeterRegistry meterRegistry)
+  {
+    enabled = Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_ENABLED));
+    maxEntries = (int) getLongProperty(SYSTEM_PROPERTY_MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+    maxBytes = getLongProperty(SYSTEM_PROPERTY_MAX_BYTES, DEFAULT_MAX_BYTES);
+    maxEntryBytes = (int) getLongProperty(SYSTEM_PROPERTY_MAX_ENTRY_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+    maxCallNanos = getLongProperty(SYSTEM_PROPERTY_MAX_CALL_MILLIS, DEFAULT_MAX_CALL_MILLIS) * 1_000_000;
+
+    mockDataLoadTracker = new MockDataLoadTracker(emf);
+
+    hits = Counter.builder("mosy.response.cache.requests").tag("result", "hit").register(meterRegistry);
+    misses = Counter.builder("mosy.response.cache.requests").tag("result", "miss").register(meterRegistry);
+    Gauge.builder("mosy.response.cache.size", this, ResponseCache::size).description("Cached responses")
+        .register(meterRegistry);
+    Gauge.builder("mosy.response.cache.bytes", this, ResponseCache::bytes).description("Size of cached responses")
+        .register(meterRegistry);
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  public int getMaxEntryBytes()
+  {
+    return maxEntryBytes;
+  }
+
+  /**
+   * @return long - generation of the cache, to be passed to {@link #put(Key, Entry, long)} for a response computed
+   *         after this call
+   */
+  public long getGeneration()
+  {
+    return generation;
+  }
+
+  /**
+   * Begins tracking of the MockData loaded by the mock service call on the current thread.
+   */
+  public void beginCall()
+  {
+    mockDataLoadTracker.begin();
+  }
+
+  /**
+   * Ends tracking of the mock service call on the current thread.
+   * 
+   * @param startNanos - {@link System#nanoTime()} at begin of the call
+   * @return boolean - response is cacheable: resolved from a single MockData row, not delayed
+   */
+  public boolean endCall(long startNanos)
+  {
+    Serializable mockDataId = mockDataLoadTracker.end();
+
+    return mockDataId != null && System.nanoTime() - startNanos <= maxCallNanos;
+  }
+
+  /**
+   * @param key - Key
+   * @return Entry - cached response, null if not cached
+   */
+  public Entry get(Key key)
+  {
+    Entry entry;
+
+    lock.lock();
+    try
+    {
+      entry = entries.get(key);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    (entry == null ? misses : hits).increment();
+
+    return entry;
+  }
+
+  /**
+   * @param key - Key
+   * @param entry - response
+   * @param loadGeneration - {@link #getGeneration()} before the response was computed, the response is discarded if
+   *          the cache was cleared in the meantime (may be stale)
+   */
+  public void put(Key key, Entry entry, long loadGeneration)
+  {
+    if (entry.body.length > maxEntryBytes)
+    {
+      return;
+    }
+
+    lock.lock();
+    try
+    {
+      if (generation != loadGeneration)
+      {
+        return;
+      }
+
+      Entry previous = entries.put(key, entry);
+      if (previous != null)
+      {
+        bytes -= previous.body.length;
+      }
+
+      bytes += entry.body.length;
+
+      // remove least recently used
+      Iterator<Entry> iterator = entries.values().iterator();
+      while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext())
+      {
+        bytes -= iterator.next().body.length;
+        iterator.remove();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  public void clear()
+  {
+    lock.lock();
+    try
+    {
+      generation++;
+      entries.clear();
+      bytes = 0;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Any change of the model (except recordings) may change the responses.
+   */
+  @Override
+  public void modelChanged(Class<?> resourceClass)
+  {
+    if (!MockServices.class.isAssignableFrom(resourceClass) && !Records.class.isAssignableFrom(resourceClass))
+    {
+      clear();
+    }
+  }
+
+  private int size()
+  {
+    lock.lock();
+    try
+    {
+      return entries.size();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private long bytes()
+  {
+    lock.lock();
+    try
+    {
+      return bytes;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private static long getLongProperty(String name, long defaultValue)
+  {
+    String sysProp = Utils.getSystemProperty(name);
+
+    return Utils.isEmpty(sysProp) ? defaultValue : Long.parseLong(sysProp);
+  }
+
+  /**
+   * Request identifying a response: method, uri, relevant headers and digest of the body.
+   */
+  public static class Key
+  {
+    private final String method;
+    private final String uri;
+    private final Map<String, List<String>> headers;
+    private final byte[] bodyDigest;
+    private final int hash;
+
+    public Key(String method, String uri, Map<String, List<String>> headers, byte[] bodyDigest)
+    {
+      this.method = method;
+      this.uri = uri;
+      this.headers = headers;
+      this.bodyDigest = bodyDigest;
+      this.hash = Objects.hash(method, uri, headers, Arrays.hashCode(bodyDigest));
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj)
+      {
+        return true;
+      }
+
+      if (!(obj instanceof Key))
+      {
+        return false;
+      }
+
+      Key other = (Key) obj;
+
+      return hash == other.hash && method.equals(other.method) && uri.equals(other.uri)
+             && headers.equals(other.headers) && Arrays.equals(bodyDigest, other.bodyDigest);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+  }
+
+  /**
+   * Serialized response.
+   */
+  public static class Entry
+  {
+    private final int status;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+
+    public Entry(int status, Map<String, List<String>> headers, byte[] body)
+    {
+      this.status = status;
+      this.headers = Collections.unmodifiableMap(headers);
+      this.body = body;
+    }
+
+    public int getStatus()
+    {
+      return status;
+    }
+
+    public Map<String, List<String>> getHeaders()
+    {
+      return headers;
+    }
+
+    public byte[] getBody()
+    {
+      return body;
+    }
+  }
+}
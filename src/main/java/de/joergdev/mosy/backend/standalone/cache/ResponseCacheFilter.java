@@ -0,0 +1,339 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+
+/**
+ * Answers mock service calls from the {@link ResponseCache}.
+ * 
+ * The request filter runs after matching of the resource: on a hit for a mock service call the request is aborted
+ * with the cached response, on a miss the key and the generation of the cache are kept as request properties and the
+ * MockData loaded by the call are tracked. The response (status, headers and the serialized entity, captured by the
+ * writer interceptor) is cached if the call was successful and resolved from a single MockData row, see
+ * {@link ResponseCache#endCall(long)}.
+ * 
+ * @author Andreas Joerg
+ */
+public class ResponseCacheFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor
+{
+  private static final String PROPERTY_KEY = ResponseCacheFilter.class.getName() + ".key";
+  private static final String PROPERTY_STATUS = ResponseCacheFilter.class.getName() + ".status";
+  private static final String PROPERTY_GENERATION = ResponseCacheFilter.class.getName() + ".generation";
+  private static final String PROPERTY_START = ResponseCacheFilter.class.getName() + ".start";
+
+  /** request headers not relevant for the response */
+  private static final Set<String> IGNORED_REQUEST_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive",
+      "content-length", "date", "user-agent", "accept-encoding", "cache-control", "pragma", "host", "x-request-id",
+      "traceparent", "tracestate"));
+
+  /** response headers computed per response */
+  private static final Set<String> IGNORED_RESPONSE_HEADERS = new HashSet<>(
+      Arrays.asList("content-length", "date", "set-cookie", "transfer-encoding", "connection"));
+
+  private final ResponseCache responseCache;
+
+  public ResponseCacheFilter(ResponseCache responseCache)
+  {
+    this.responseCache = responseCache;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext)
+    throws IOException
+  {
+    if (!responseCache.isEnabled() || !isMockServiceCall(requestContext))
+    {
+      return;
+    }
+
+    byte[] body = null;
+    if (requestContext.hasEntity())
+    {
+      body = readEntity(requestContext.getEntityStream());
+      requestContext.setEntityStream(new ByteArrayInputStream(body));
+    }
+
+    ResponseCache.Key key = new ResponseCache.Key(requestContext.getMethod(),
+        requestContext.getUriInfo().getRequestUri().toString(), getRelevantHeaders(requestContext.getHeaders()),
+        digest(body));
+
+    ResponseCache.Entry entry = responseCache.get(key);
+
+    if (entry != null)
+    {
+      Response.ResponseBuilder response = Response.status(entry.getStatus());
+      entry.getHeaders().forEach((name, values) -> values.forEach(v -> response.header(name, v)));
+
+      if (entry.getBody().length > 0)
+      {
+        response.entity(entry.getBody());
+      }
+
+      requestContext.abortWith(response.build());
+    }
+    else
+    {
+      // before the BL reads the model
+      requestContext.setProperty(PROPERTY_GENERATION, responseCache.getGeneration());
+      requestContext.setProperty(PROPERTY_KEY, key);
+      requestContext.setProperty(PROPERTY_START, System.nanoTime());
+
+      responseCache.beginCall();
+    }
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+  {
+    ResponseCache.Key key = (ResponseCache.Key) requestContext.getProperty(PROPERTY_KEY);
+
+    if (key == null)
+    {
+      return;
+    }
+
+    boolean cacheable = responseCache.endCall((Long) requestContext.getProperty(PROPERTY_START));
+
+    if (!cacheable || responseContext.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL
+        || responseContext.getHeaders().containsKey(HttpHeaders.SET_COOKIE))
+    {
+      requestContext.removeProperty(PROPERTY_KEY);
+
+      return;
+    }
+
+    if (!responseContext.hasEntity())
+    {
+      responseCache.put(key,
+          new ResponseCache.Entry(responseContext.getStatus(), getCacheableHeaders(responseContext.getStringHeaders()),
+              new byte[0]),
+          (Long) requestContext.getProperty(PROPERTY_GENERATION));
+
+      requestContext.removeProperty(PROPERTY_KEY);
+    }
+    else
+    {
+      // entity is cached after serialization, see aroundWriteTo
+      requestContext.setProperty(PROPERTY_STATUS, responseContext.getStatus());
+    }
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context)
+    throws IOException
+  {
+    ResponseCache.Key key = (ResponseCache.Key) context.getProperty(PROPERTY_KEY);
+    Integer status = (Integer) context.getProperty(PROPERTY_STATUS);
+    Long generation = (Long) context.getProperty(PROPERTY_GENERATION);
+
+    if (key == null || status == null || generation == null)
+    {
+      context.proceed();
+
+      return;
+    }
+
+    OutputStream original = context.getOutputStream();
+    CapturingOutputStream capturing = new CapturingOutputStream(original, responseCache.getMaxEntryBytes());
+    context.setOutputStream(capturing);
+
+    try
+    {
+      context.proceed();
+    }
+    finally
+    {
+      context.setOutputStream(original);
+    }
+
+    if (!capturing.isOverflow())
+    {
+      Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      context.getHeaders().forEach((name, values) ->
+      {
+        if (!IGNORED_RESPONSE_HEADERS.contains(name.toLowerCase(Locale.ROOT)))
+        {
+          List<String> stringValues = new ArrayList<>();
+          values.forEach(v -> stringValues.add(String.valueOf(v)));
+          headers.put(name, stringValues);
+        }
+      });
+
+      if (context.getMediaType() != null && !headers.containsKey(HttpHeaders.CONTENT_TYPE))
+      {
+        headers.put(HttpHeaders.CONTENT_TYPE, Arrays.asList(context.getMediaType().toString()));
+      }
+
+      responseCache.put(key, new ResponseCache.Entry(status, headers, capturing.toByteArray()), generation);
+    }
+  }
+
+  private static boolean isMockServiceCall(ContainerRequestContext requestContext)
+  {
+    List<Object> matchedResources = requestContext.getUriInfo().getMatchedResources();
+
+    return !matchedResources.isEmpty() && matchedResources.get(0) instanceof MockServices;
+  }
+
+  private static Map<String, List<String>> getRelevantHeaders(MultivaluedMap<String, String> requestHeaders)
+  {
+    Map<String, List<String>> headers = new TreeMap<>();
+
+    requestHeaders.forEach((name, values) ->
+    {
+      String lowerName = name.toLowerCase(Locale.ROOT);
+
+      if (!IGNORED_REQUEST_HEADERS.contains(lowerName))
+      {
+        headers.put(lowerName, new ArrayList<>(values));
+      }
+    });
+
+    return headers;
+  }
+
+  private static Map<String, List<String>> getCacheableHeaders(MultivaluedMap<String, String> responseHeaders)
+  {
+    Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    responseHeaders.forEach((name, values) ->
+    {
+      if (!IGNORED_RESPONSE_HEADERS.contains(name.toLowerCase(Locale.ROOT)))
+      {
+        headers.put(name, new ArrayList<>(values));
+      }
+    });
+
+    return headers;
+  }
+
+  private static byte[] readEntity(InputStream in)
+    throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+
+    int read;
+    while ((read = in.read(buffer)) != -1)
+    {
+      out.write(buffer, 0, read);
+    }
+
+    return out.toByteArray();
+  }
+
+  private static byte[] digest(byte[] body)
+  {
+    if (body == null)
+    {
+      return new byte[0];
+    }
+
+    try
+    {
+      return MessageDigest.getInstance("SHA-256").digest(body);
+    }
+    catch (NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Writes to the original stream and keeps a copy up to max bytes.
+   */
+  private static class CapturingOutputStream extends OutputStream
+  {
+    private final OutputStream delegate;
+    private final int maxBytes;
+    private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private boolean overflow;
+
+    private CapturingOutputStream(OutputStream delegate, int maxBytes)
+    {
+      this.delegate = delegate;
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void write(int b)
+      throws IOException
+    {
+      delegate.write(b);
+      capture(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+      throws IOException
+    {
+      delegate.write(b, off, len);
+      capture(b, off, len);
+    }
+
+    private void capture(byte[] b, int off, int len)
+    {
+      if (overflow)
+      {
+        return;
+      }
+
+      if (copy.size() + len > maxBytes)
+      {
+        overflow = true;
+        copy.reset();
+
+        return;
+      }
+
+      copy.write(b, off, len);
+    }
+
+    @Override
+    public void flush()
+      throws IOException
+    {
+      delegate.flush();
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      delegate.close();
+    }
+
+    private boolean isOverflow()
+    {
+      return overflow;
+    }
+
+    private byte[] toByteArray()
+    {
+      return copy.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import de.joergdev.mosy.backend.api.impl.Globalconfig;
+import de.joergdev.mosy.backend.api.impl.Interfaces;
+import de.joergdev.mosy.backend.api.impl.MockProfiles;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import de.joergdev.mosy.backend.api.impl.RecordSessions;
+import de.joergdev.mosy.backend.api.impl.Records;
+import de.joergdev.mosy.backend.api.impl.Tenants;
+import de.joergdev.mosy.backend.persistence.model.DbConfig;
+import de.joergdev.mosy.backend.persistence.model.GlobalConfig;
+import de.joergdev.mosy.backend.persistence.model.Interface;
+import de.joergdev.mosy.backend.persistence.model.InterfaceMethod;
+import de.joergdev.mosy.backend.persistence.model.MockData;
+import de.joergdev.mosy.backend.persistence.model.MockDataMockProfile;
+import de.joergdev.mosy.backend.persistence.model.MockDataPathParam;
+import de.joergdev.mosy.backend.persistence.model.MockDataUrlArgument;
+import de.joergdev.mosy.backend.persistence.model.MockProfile;
+import de.joergdev.mosy.backend.persistence.model.RecordConfig;
+import de.joergdev.mosy.backend.persistence.model.Tenant;
+import de.joergdev.mosy.backend.standalone.transfer.DataTransfer;
+
+/**
+ * Evicts the second level cache regions of the entities changed via REST API.
+ * 
+ * Changes by hibernate (also bulk updates) invalidate the cache anyway, the eviction covers changes
+ * hibernate does not know of (e.g. native SQL). Writes of other API classes evict the whole cache.
+ * 
+ * @author Andreas Joerg
+ */
+public class SecondLevelCacheEviction implements ModelChangeListener
+{
+  /** key: API class, value: cached entities that may be changed by the API */
+  private static final Map<Class<?>, List<Class<?>>> CACHED_ENTITIES_BY_API = new HashMap<>();
+
+  static
+  {
+    CACHED_ENTITIES_BY_API.put(Globalconfig.class, Arrays.asList(GlobalConfig.class, DbConfig.class));
+    CACHED_ENTITIES_BY_API.put(Interfaces.class, Arrays.asList(Interface.class, InterfaceMethod.class, MockData.class,
+        MockDataPathParam.class, MockDataUrlArgument.class, MockDataMockProfile.class, RecordConfig.class));
+    CACHED_ENTITIES_BY_API.put(de.joergdev.mosy.backend.api.impl.MockData.class, Arrays.asList(MockData.class,
+        MockDataPathParam.class, MockDataUrlArgument.class, MockDataMockProfile.class));
+    CACHED_ENTITIES_BY_API.put(MockProfiles.class,
+        Arrays.asList(MockProfile.class, MockData.class, MockDataMockProfile.class));
+    CACHED_ENTITIES_BY_API.put(de.joergdev.mosy.backend.api.impl.RecordConfig.class,
+        Arrays.asList(RecordConfig.class));
+    CACHED_ENTITIES_BY_API.put(Tenants.class, Arrays.asList(Tenant.class));
+    CACHED_ENTITIES_BY_API.put(DataTransfer.class,
+        Arrays.asList(MockData.class, MockDataPathParam.class, MockDataUrlArgument.class, MockDataMockProfile.class));
+
+    // no cached entities
+    CACHED_ENTITIES_BY_API.put(MockServices.class, Collections.emptyList());
+    CACHED_ENTITIES_BY_API.put(Records.class, Collections.emptyList());
+    CACHED_ENTITIES_BY_API.put(RecordSessions.class, Collections.emptyList());
+  }
+
+  private final EntityManagerFactory emf;
+
+  public SecondLevelCacheEviction(EntityManagerFactory emf)
+  {
+    this.emf = emf;
+  }
+
+  @Override
+  public void modelChanged(Class<?> resourceClass)
+  {
+    Cache cache = emf.getCache();
+
+    List<Class<?>> entityClasses = CACHED_ENTITIES_BY_API.get(resourceClass);
+
+    if (entityClasses == null)
+    {
+      cache.evictAll();
+    }
+    else
+    {
+      entityClasses.forEach(cache::evict);
+    }
+  }
+}
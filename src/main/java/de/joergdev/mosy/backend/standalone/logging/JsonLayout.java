@@ -0,0 +1,99 @@
+package de.joergdev.mosy.backend.standalone.logging;
+
+import java.time.Instant;
+import org.apache.log4j.Layout;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Log4j layout writing each event as one line of JSON, see log4j-json.xml.
+ * 
+ * Fields: timestamp (ISO-8601, UTC), level, thread, logger, message, exception (if any).
+ * 
+ * @author Andreas Joerg
+ */
+public class JsonLayout extends Layout
+{
+  @Override
+  public String format(LoggingEvent event)
+  {
+    StringBuilder json = new StringBuilder(256);
+
+    json.append("{\"timestamp\":\"").append(Instant.ofEpochMilli(event.getTimeStamp())).append('"');
+    appendField(json, "level", event.getLevel().toString());
+    appendField(json, "thread", event.getThreadName());
+    appendField(json, "logger", event.getLoggerName());
+    appendField(json, "message", event.getRenderedMessage());
+
+    String[] throwableLines = event.getThrowableStrRep();
+    if (throwableLines != null)
+    {
+      appendField(json, "exception", String.join("\n", throwableLines));
+    }
+
+    return json.append('}').append(LINE_SEP).toString();
+  }
+
+  private static void appendField(StringBuilder json, String name, String value)
+  {
+    json.append(",\"").append(name).append("\":");
+
+    if (value == null)
+    {
+      json.append("null");
+
+      return;
+    }
+
+    json.append('"');
+
+    for (int i = 0; i < value.length(); i++)
+    {
+      char c = value.charAt(i);
+
+      switch (c)
+      {
+        case '"':
+          json.append("\\\"");
+          break;
+        case '\\':
+          json.append("\\\\");
+          break;
+        case '\n':
+          json.append("\\n");
+          break;
+        case '\r':
+          json.append("\\r");
+          break;
+        case '\t':
+          json.append("\\t");
+          break;
+        default:
+          if (c < 0x20)
+          {
+            json.append(String.format("\\u%04x", (int) c));
+          }
+          else
+          {
+            json.append(c);
+          }
+      }
+    }
+
+    json.append('"');
+  }
+
+  /**
+   * Exception is part of the JSON event.
+   */
+  @Override
+  public boolean ignoresThrowable()
+  {
+    return false;
+  }
+
+  @Override
+  public void activateOptions()
+  {
+    //
+  }
+}
@@ -0,0 +1,85 @@
+package de.joergdev.mosy.backend.standalone.logging;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Management endpoint for the log levels of the log4j categories (MoSy), switchable at runtime.
+ * <ul>
+ * <li>GET /actuator/log4j - configured levels</li>
+ * <li>POST /actuator/log4j/{category} with {"level": "DEBUG"} - set level, null to inherit from parent,
+ * 400 for an unknown level</li>
+ * </ul>
+ * Levels of spring / hibernate (e.g. org.hibernate.SQL) are switched via /actuator/loggers. Not exposed by default,
+ * see application.properties.
+ * 
+ * @author Andreas Joerg
+ */
+@Component
+@Endpoint(id = "log4j")
+public class Log4jLevelEndpoint
+{
+  @ReadOperation
+  public Map<String, String> levels()
+  {
+    Map<String, String> levels = new TreeMap<>();
+    levels.put(LogManager.ROOT_LOGGER_NAME, String.valueOf(LogManager.getRootLogger().getLevel()));
+
+    @SuppressWarnings("unchecked")
+    Enumeration<Logger> loggers = LogManager.getCurrentLoggers();
+
+    for (Logger logger : Collections.list(loggers))
+    {
+      if (logger.getLevel() != null)
+      {
+        levels.put(logger.getName(), logger.getLevel().toString());
+      }
+    }
+
+    return levels;
+  }
+
+  @ReadOperation
+  public Map<String, String> level(@Selector String category)
+  {
+    Logger logger = getLogger(category);
+
+    return Collections.singletonMap("effectiveLevel", logger.getEffectiveLevel().toString());
+  }
+
+  @WriteOperation
+  public void setLevel(@Selector String category, @Nullable String level)
+  {
+    Level newLevel = null;
+
+    if (level != null)
+    {
+      // toLevel(String) would fall back to DEBUG
+      newLevel = Level.toLevel(level, null);
+
+      if (newLevel == null)
+      {
+        throw new InvalidEndpointRequestException("Unknown level: " + level, "Unknown level");
+      }
+    }
+
+    getLogger(category).setLevel(newLevel);
+  }
+
+  private static Logger getLogger(String category)
+  {
+    return LogManager.ROOT_LOGGER_NAME.equals(category) ? LogManager.getRootLogger() : LogManager.getLogger(category);
+  }
+}
@@ -0,0 +1,223 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.apache.log4j.Logger;
+import de.joergdev.mosy.shared.Utils;
+
+/**
+ * Storage of the H2 database, selected by system property {@value #SYSTEM_PROPERTY_DB_MODE}.
+ * <ul>
+ * <li>file (default): database in ./db</li>
+ * <li>memory: in-memory database, lost on shutdown if no snapshot is configured</li>
+ * <li>server: database set by JDBC URL {@value #PROPERTY_DB_URL} (system property or application.properties),
+ * e.g. a H2 TCP server shared by multiple instances</li>
+ * </ul>
+ * Connections are provided by the DataSource created by {@link HikariDataSourceFactory}.
+ * If a snapshot file is configured (system property {@value #SYSTEM_PROPERTY_DB_SNAPSHOT}) the in-memory database
+ * is initialized from the snapshot at startup, and on shutdown the database (any mode) is exported to the snapshot.
+ * With {@value #SYSTEM_PROPERTY_DB_COMPACT_ON_SHUTDOWN}=true the database file is compacted on shutdown
+ * (e.g. after deletion of records, see {@link RecordRetention}).
+ * A shared database (mode server) is neither exported nor shut down by this instance.
+ * 
+ * Only H2 is supported: dialect and driver in persistence.xml, snapshot, compaction and the tables of the
+ * standalone backend (see SchemaVersion, ModelChangeBroadcast) use H2, a JDBC URL of another database is rejected.
+ * 
+ * @author Andreas Joerg
+ */
+public class DbStorage
+{
+  private static final Logger LOG = Logger.getLogger(DbStorage.class);
+
+  public static final String SYSTEM_PROPERTY_DB_MODE = "MOSY_DB_MODE";
+  public static final String SYSTEM_PROPERTY_DB_SNAPSHOT = "MOSY_DB_SNAPSHOT";
+  public static final String SYSTEM_PROPERTY_DB_COMPACT_ON_SHUTDOWN = "MOSY_DB_COMPACT_ON_SHUTDOWN";
+
+  public static final String PROPERTY_DB_URL = "MOSY_DB_URL";
+  public static final String PROPERTY_DB_USER = "MOSY_DB_USER";
+  public static final String PROPERTY_DB_PASSWORD = "MOSY_DB_PASSWORD";
+
+  private static final String H2_URL_PREFIX = "jdbc:h2:";
+  private static final String FILE_URL = "jdbc:h2:./db/mosy_db;AUTO_SERVER=TRUE";
+  private static final String MEMORY_URL = "jdbc:h2:mem:mosy_db;DB_CLOSE_DELAY=-1";
+
+  /** as in persistence.xml */
+  private static final String DEFAULT_USER = "sa";
+  private static final String DEFAULT_PASSWORD = "";
+
+  public enum Mode
+  {
+    FILE, MEMORY, SERVER
+  }
+
+  private final Mode mode;
+  private final String url;
+  private final String user;
+  private final String password;
+  private final Path snapshot;
+  private final boolean compactOnShutdown;
+
+  public DbStorage()
+  {
+    this(null, null, null);
+  }
+
+  /**
+   * @param url - JDBC URL of a shared database (mode server), null / empty for file / in-memory database
+   * @param user - user for the shared database, null / empty for default
+   * @param password - password for the shared database, null / empty for default
+   */
+  public DbStorage(String url, String user, String password)
+  {
+    if (Utils.isEmpty(url))
+    {
+      String sysPropMode = Utils.getSystemProperty(SYSTEM_PROPERTY_DB_MODE);
+      mode = Utils.isEmpty(sysPropMode) ? Mode.FILE : Mode.valueOf(sysPropMode.toUpperCase());
+      this.url = mode == Mode.MEMORY ? MEMORY_URL : FILE_URL;
+    }
+    else
+    {
+      if (!url.startsWith(H2_URL_PREFIX))
+      {
+        throw new IllegalArgumentException(PROPERTY_DB_URL + " " + url + " is not a H2 database, only H2 is supported");
+      }
+
+      mode = Mode.SERVER;
+      this.url = url;
+    }
+
+    this.user = Utils.isEmpty(user) ? DEFAULT_USER : user;
+    this.password = Utils.isEmpty(password) ? DEFAULT_PASSWORD : password;
+
+    String sysPropSnapshot = Utils.getSystemProperty(SYSTEM_PROPERTY_DB_SNAPSHOT);
+    snapshot = Utils.isEmpty(sysPropSnapshot) ? null : Paths.get(sysPropSnapshot).toAbsolutePath();
+
+    compactOnShutdown = Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_DB_COMPACT_ON_SHUTDOWN));
+  }
+
+  public Mode getMode()
+  {
+    return mode;
+  }
+
+  public String getJdbcUrl()
+  {
+    return url;
+  }
+
+  public String getUser()
+  {
+    return user;
+  }
+
+  public String getPassword()
+  {
+    return password;
+  }
+
+  /**
+   * Imports the snapshot into the in-memory database, called by spring before the EntityManagerFactory is created.
+   */
+  public void importSnapshot()
+  {
+    LOG.info("Database mode: " + mode + (mode == Mode.SERVER ? ", url: " + url : "")
+             + (snapshot == null ? "" : ", snapshot: " + snapshot));
+
+    if (mode != Mode.MEMORY || snapshot == null || !Files.exists(snapshot))
+    {
+      return;
+    }
+
+    long timeStart = System.currentTimeMillis();
+
+    execute("RUNSCRIPT FROM '" + escape(snapshot) + "'");
+
+    LOG.info("Imported snapshot " + snapshot + " in " + (System.currentTimeMillis() - timeStart) + " ms");
+  }
+
+  /**
+   * Exports the database to the snapshot and closes the in-memory database / compacts the database file,
+   * called by spring after the EntityManagerFactory is closed.
+   */
+  public void shutdown()
+  {
+    if (mode == Mode.SERVER)
+    {
+      return;
+    }
+
+    try
+    {
+      if (snapshot != null)
+      {
+        exportSnapshot();
+      }
+    }
+    finally
+    {
+      if (mode == Mode.MEMORY)
+      {
+        execute("SHUTDOWN");
+      }
+      else if (compactOnShutdown)
+      {
+        long timeStart = System.currentTimeMillis();
+
+        execute("SHUTDOWN COMPACT");
+
+        LOG.info("Compacted database in " + (System.currentTimeMillis() - timeStart) + " ms");
+      }
+    }
+  }
+
+  private void exportSnapshot()
+  {
+    long timeStart = System.currentTimeMillis();
+
+    try
+    {
+      if (snapshot.getParent() != null)
+      {
+        Files.createDirectories(snapshot.getParent());
+      }
+
+      // write to temp file first, so an existing snapshot is not destroyed by a failing export
+      Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+
+      execute("SCRIPT TO '" + escape(tmp) + "'");
+
+      Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException ex)
+    {
+      throw new IllegalStateException("export of snapshot " + snapshot + " failed", ex);
+    }
+
+    LOG.info("Exported snapshot " + snapshot + " in " + (System.currentTimeMillis() - timeStart) + " ms");
+  }
+
+  private void execute(String sql)
+  {
+    try (Connection con = DriverManager.getConnection(url, user, password);
+         Statement stmt = con.createStatement())
+    {
+      stmt.execute(sql);
+    }
+    catch (SQLException ex)
+    {
+      throw new IllegalStateException("execution of '" + sql + "' failed", ex);
+    }
+  }
+
+  private static String escape(Path path)
+  {
+    return path.toString().replace("'", "''");
+  }
+}
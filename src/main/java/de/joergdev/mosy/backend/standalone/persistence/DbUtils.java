@@ -1,31 +1,152 @@
-package de.joergdev.mosy.backend.standalone.persistence;
-
-import javax.persistence.EntityManager;
-
-public class DbUtils
-{
-  public static boolean validateEntityManager(EntityManager em)
-  {
-    if (em != null && em.isOpen())
-    {
-      try
-      {
-        Number number = (Number) em.createNativeQuery("SELECT 1 FROM INFORMATION_SCHEMA.COLLATIONS Limit 1")
-            .getSingleResult();
-        if (number != null & number.intValue() == 1)
-        {
-          // required for deleting cached objects not causing problems in later transactions
-          em.clear();
-
-          return true;
-        }
-      }
-      catch (Exception ex)
-      {
-        // do nothing
-      }
-    }
-
-    return false;
-  }
-}
\ No newline at end of file
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import org.hibernate.Session;
+import de.joergdev.mosy.shared.Utils;
+
+public class DbUtils
+{
+  private static final int CONNECTION_VALID_TIMEOUT_SECONDS = 5;
+
+  /**
+   * Validates the EntityManager by checking its JDBC connection via {@link java.sql.Connection#isValid(int)}.
+   * 
+   * @param em - EntityManager
+   * @return boolean
+   */
+  public static boolean validateEntityManager(EntityManager em)
+  {
+    return validateEntityManager(em, null);
+  }
+
+  /**
+   * Validates the EntityManager.
+   * 
+   * @param em - EntityManager
+   * @param validationQuery - native query returning 1, if empty the JDBC connection is checked via
+   *          {@link java.sql.Connection#isValid(int)}
+   * @return boolean
+   */
+  public static boolean validateEntityManager(EntityManager em, String validationQuery)
+  {
+    if (em != null && em.isOpen())
+    {
+      try
+      {
+        if (Utils.isEmpty(validationQuery))
+        {
+          return em.unwrap(Session.class)
+              .doReturningWork(con -> con.isValid(CONNECTION_VALID_TIMEOUT_SECONDS));
+        }
+
+        Number number = (Number) em.createNativeQuery(validationQuery).getSingleResult();
+
+        return number != null && number.intValue() == 1;
+      }
+      catch (Exception ex)
+      {
+        // do nothing
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Resets the EntityManager for further use: rolls back an open transaction and clears the persistence context.
+   * 
+   * @param em - EntityManager
+   * @return boolean - false if EntityManager is closed or reset failed
+   */
+  public static boolean resetEntityManager(EntityManager em)
+  {
+    if (em != null && em.isOpen())
+    {
+      try
+      {
+        EntityTransaction tx = em.getTransaction();
+        if (tx != null && tx.isActive())
+        {
+          tx.rollback();
+        }
+
+        // required for deleting cached objects not causing problems in later transactions
+        em.clear();
+
+        return true;
+      }
+      catch (Exception ex)
+      {
+        // do nothing
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Reads an attribute of an entity, e.g. by {@link javax.persistence.metamodel.Attribute#getJavaMember()}.
+   * 
+   * @param entity - entity
+   * @param member - field or getter (property access)
+   * @return Object
+   */
+  public static Object getAttributeValue(Object entity, Member member)
+  {
+    try
+    {
+      if (member instanceof Field)
+      {
+        Field field = (Field) member;
+        field.setAccessible(true);
+
+        return field.get(entity);
+      }
+
+      Method method = (Method) member;
+      method.setAccessible(true);
+
+      return method.invoke(entity);
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      throw new IllegalStateException("cannot read " + member.getName() + " of " + entity.getClass().getName(), ex);
+    }
+  }
+
+  /**
+   * Writes an attribute of an entity, e.g. by {@link javax.persistence.metamodel.Attribute#getJavaMember()}.
+   * 
+   * @param entity - entity
+   * @param member - field or getter (property access)
+   * @param value - new value
+   */
+  public static void setAttributeValue(Object entity, Member member, Object value)
+  {
+    try
+    {
+      if (member instanceof Field)
+      {
+        Field field = (Field) member;
+        field.setAccessible(true);
+        field.set(entity, value);
+
+        return;
+      }
+
+      Method getter = (Method) member;
+      String property = getter.getName().replaceFirst("^(get|is)", "");
+      Method setter = getter.getDeclaringClass().getDeclaredMethod("set" + property, getter.getReturnType());
+      setter.setAccessible(true);
+      setter.invoke(entity, value);
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      throw new IllegalStateException("cannot write " + member.getName() + " of " + entity.getClass().getName(), ex);
+    }
+  }
+}
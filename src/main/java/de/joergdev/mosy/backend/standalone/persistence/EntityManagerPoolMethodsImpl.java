@@ -1,115 +1,297 @@
-package de.joergdev.mosy.backend.standalone.persistence;
-
-import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.EntityTransaction;
-import javax.persistence.Persistence;
-import de.joergdev.mosy.backend.standalone.pool.IPoolMethods;
-import de.joergdev.mosy.backend.standalone.pool.ObjectPool;
-import de.joergdev.mosy.shared.Utils;
-
-public class EntityManagerPoolMethodsImpl implements IPoolMethods<EntityManager>
-{
-  public static final String SYSTEM_PROPERTY_MAX_POOL_SIZE = "MOSY_DB_MAX_POOL_SIZE";
-
-  private static final int DEFAULT_MAX_POOL_SIZE = 5;
-
-  @Override
-  public void cleanup(EntityManager em)
-  {
-    try
-    {
-      if (em != null)
-      {
-        EntityManagerFactory emf = em.getEntityManagerFactory();
-
-        try
-        {
-          EntityTransaction tx = em.getTransaction();
-          if (tx != null && tx.isActive())
-          {
-            tx.rollback();
-          }
-        }
-        catch (Exception exDontCare)
-        {
-          // do nothing
-        }
-
-        try
-        {
-          if (em.isOpen())
-          {
-            em.close();
-          }
-        }
-        catch (Exception exDontCare)
-        {
-          // do nothing
-        }
-
-        try
-        {
-          if (emf != null && emf.isOpen())
-          {
-            emf.close();
-          }
-        }
-        catch (Exception exDontCare)
-        {
-          // do nothing
-        }
-      }
-    }
-    catch (Exception exDontCare)
-    {
-      // do nothing
-    }
-  }
-
-  @Override
-  public long getCheckInterval()
-  {
-    return 0;
-  }
-
-  @Override
-  public EntityManager getNewObj()
-  {
-    EntityManagerFactory emf = Persistence.createEntityManagerFactory("db");
-
-    return emf.createEntityManager();
-  }
-
-  @Override
-  public long getTTL()
-  {
-    return ObjectPool.TTL_UNLIMITED;
-  }
-
-  @Override
-  public int getMaxSize()
-  {
-    String sysProp = Utils.getSystemProperty(SYSTEM_PROPERTY_MAX_POOL_SIZE);
-
-    return Utils.isEmpty(sysProp) ? DEFAULT_MAX_POOL_SIZE : Utils.asInteger(sysProp);
-  }
-
-  @Override
-  public boolean validate(EntityManager em)
-  {
-    return DbUtils.validateEntityManager(em);
-  }
-
-  @Override
-  public boolean validateOnGet()
-  {
-    return false;
-  }
-
-  @Override
-  public boolean validateOnGiveBack()
-  {
-    return true;
-  }
-}
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import de.joergdev.mosy.backend.standalone.pool.IPoolMethods;
+import de.joergdev.mosy.backend.standalone.pool.ObjectPool;
+import de.joergdev.mosy.shared.Utils;
+
+public class EntityManagerPoolMethodsImpl implements IPoolMethods<EntityManager>
+{
+  public static final String SYSTEM_PROPERTY_MAX_POOL_SIZE = "MOSY_DB_MAX_POOL_SIZE";
+  public static final String SYSTEM_PROPERTY_POOL_BORROW_TIMEOUT = "MOSY_DB_POOL_BORROW_TIMEOUT";
+  public static final String SYSTEM_PROPERTY_VALIDATION_IDLE_TIME = "MOSY_DB_VALIDATION_IDLE_TIME";
+  public static final String SYSTEM_PROPERTY_VALIDATION_QUERY = "MOSY_DB_VALIDATION_QUERY";
+  public static final String SYSTEM_PROPERTY_VALIDATE_WHILE_IDLE = "MOSY_DB_VALIDATE_WHILE_IDLE";
+  public static final String SYSTEM_PROPERTY_POOL_TTL = "MOSY_DB_POOL_TTL";
+  public static final String SYSTEM_PROPERTY_POOL_MAX_LIFETIME = "MOSY_DB_POOL_MAX_LIFETIME";
+  public static final String SYSTEM_PROPERTY_POOL_CHECK_INTERVAL = "MOSY_DB_POOL_CHECK_INTERVAL";
+  public static final String SYSTEM_PROPERTY_POOL_MIN_IDLE = "MOSY_DB_POOL_MIN_IDLE";
+  public static final String SYSTEM_PROPERTY_POOL_ADAPTIVE = "MOSY_DB_POOL_ADAPTIVE";
+  public static final String SYSTEM_PROPERTY_POOL_MIN_SIZE = "MOSY_DB_POOL_MIN_SIZE";
+  public static final String SYSTEM_PROPERTY_POOL_ADAPTIVE_INTERVAL = "MOSY_DB_POOL_ADAPTIVE_INTERVAL";
+  public static final String SYSTEM_PROPERTY_POOL_ADAPTIVE_WAIT_THRESHOLD = "MOSY_DB_POOL_ADAPTIVE_WAIT_THRESHOLD";
+
+  private static final int DEFAULT_MAX_POOL_SIZE = 5;
+  private static final int DEFAULT_MIN_IDLE = 1;
+  private static final long DEFAULT_VALIDATION_IDLE_TIME = 5000;
+  private static final long DEFAULT_CHECK_INTERVAL = 30000;
+  private static final int DEFAULT_MIN_SIZE = 1;
+  private static final long DEFAULT_ADAPTIVE_INTERVAL = 5000;
+  private static final long DEFAULT_ADAPTIVE_WAIT_THRESHOLD = 2;
+
+  /** shared by all EntityManagers in pool, lifecycle is managed by spring */
+  private final EntityManagerFactory emf;
+
+  /** may be null, write-behind of recordings */
+  private final RecordWriteBehind recordWriteBehind;
+
+  /** may be null, index of the mock configuration */
+  private final MockDataIndex mockDataIndex;
+
+  // configuration, read once as the getters are called on the hot path of the pool
+  private final int maxSize;
+  private final int minIdle;
+  private final long checkInterval;
+  private final long ttl;
+  private final long maxLifetime;
+  private final long borrowTimeout;
+  private final long validationIdleTime;
+  private final String validationQuery;
+  private final boolean validateWhileIdle;
+  private final boolean adaptive;
+  private final int minSize;
+  private final long adaptiveInterval;
+  private final long adaptiveWaitThreshold;
+
+  public EntityManagerPoolMethodsImpl(EntityManagerFactory emf)
+  {
+    this(emf, null);
+  }
+
+  public EntityManagerPoolMethodsImpl(EntityManagerFactory emf, RecordWriteBehind recordWriteBehind)
+  {
+    this(emf, recordWriteBehind, null);
+  }
+
+  public EntityManagerPoolMethodsImpl(EntityManagerFactory emf, RecordWriteBehind recordWriteBehind,
+                                      MockDataIndex mockDataIndex)
+  {
+    this.emf = emf;
+    this.recordWriteBehind = recordWriteBehind;
+    this.mockDataIndex = mockDataIndex;
+
+    maxSize = getMaxPoolSize();
+    minIdle = (int) Math.min(getLongProperty(SYSTEM_PROPERTY_POOL_MIN_IDLE, DEFAULT_MIN_IDLE), maxSize);
+    checkInterval = getLongProperty(SYSTEM_PROPERTY_POOL_CHECK_INTERVAL, DEFAULT_CHECK_INTERVAL);
+    ttl = getLongProperty(SYSTEM_PROPERTY_POOL_TTL, ObjectPool.TTL_UNLIMITED);
+    maxLifetime = getLongProperty(SYSTEM_PROPERTY_POOL_MAX_LIFETIME, ObjectPool.LIFETIME_UNLIMITED);
+    borrowTimeout = getLongProperty(SYSTEM_PROPERTY_POOL_BORROW_TIMEOUT, ObjectPool.TIMEOUT_UNLIMITED);
+    validationIdleTime = getLongProperty(SYSTEM_PROPERTY_VALIDATION_IDLE_TIME, DEFAULT_VALIDATION_IDLE_TIME);
+    validationQuery = Utils.getSystemProperty(SYSTEM_PROPERTY_VALIDATION_QUERY);
+    validateWhileIdle = Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_VALIDATE_WHILE_IDLE));
+
+    adaptive = Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_POOL_ADAPTIVE));
+    minSize = (int) Math.min(getLongProperty(SYSTEM_PROPERTY_POOL_MIN_SIZE, DEFAULT_MIN_SIZE), maxSize);
+    adaptiveInterval = getLongProperty(SYSTEM_PROPERTY_POOL_ADAPTIVE_INTERVAL, DEFAULT_ADAPTIVE_INTERVAL);
+    adaptiveWaitThreshold = getLongProperty(SYSTEM_PROPERTY_POOL_ADAPTIVE_WAIT_THRESHOLD,
+        DEFAULT_ADAPTIVE_WAIT_THRESHOLD);
+  }
+
+  @Override
+  public void cleanup(EntityManager em)
+  {
+    try
+    {
+      if (em != null)
+      {
+        try
+        {
+          EntityTransaction tx = em.getTransaction();
+          if (tx != null && tx.isActive())
+          {
+            tx.rollback();
+          }
+        }
+        catch (Exception exDontCare)
+        {
+          // do nothing
+        }
+
+        try
+        {
+          if (em.isOpen())
+          {
+            em.close();
+          }
+        }
+        catch (Exception exDontCare)
+        {
+          // do nothing
+        }
+      }
+    }
+    catch (Exception exDontCare)
+    {
+      // do nothing
+    }
+  }
+
+  @Override
+  public long getCheckInterval()
+  {
+    return checkInterval;
+  }
+
+  @Override
+  public EntityManager getNewObj()
+  {
+    EntityManager em = emf.createEntityManager();
+
+    if (recordWriteBehind != null && recordWriteBehind.isEnabled())
+    {
+      em = WriteBehindEntityManager.wrap(em, recordWriteBehind);
+    }
+
+    return wrapMockDataIndex(em);
+  }
+
+  /**
+   * @param em - EntityManager
+   * @return EntityManager - with queries of the mock configuration served by the index, if enabled
+   */
+  protected EntityManager wrapMockDataIndex(EntityManager em)
+  {
+    return mockDataIndex != null && mockDataIndex.isEnabled() ? MockDataIndexEntityManager.wrap(em, mockDataIndex) : em;
+  }
+
+  protected EntityManagerFactory getEmf()
+  {
+    return emf;
+  }
+
+  /**
+   * @return RecordWriteBehind - may be null
+   */
+  protected RecordWriteBehind getRecordWriteBehind()
+  {
+    return recordWriteBehind;
+  }
+
+  @Override
+  public long getTTL()
+  {
+    return ttl;
+  }
+
+  @Override
+  public long getMaxLifetime()
+  {
+    return maxLifetime;
+  }
+
+  @Override
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * @return int - max pool size by system property {@value #SYSTEM_PROPERTY_MAX_POOL_SIZE}
+   */
+  static int getMaxPoolSize()
+  {
+    String sysProp = Utils.getSystemProperty(SYSTEM_PROPERTY_MAX_POOL_SIZE);
+
+    return Utils.isEmpty(sysProp) ? DEFAULT_MAX_POOL_SIZE : Utils.asInteger(sysProp);
+  }
+
+  /**
+   * Min idle EntityManagers, capped to max pool size.
+   */
+  @Override
+  public int getMinIdle()
+  {
+    return minIdle;
+  }
+
+  @Override
+  public long getBorrowTimeout()
+  {
+    return borrowTimeout;
+  }
+
+  @Override
+  public boolean validate(EntityManager em)
+  {
+    return DbUtils.validateEntityManager(em, validationQuery);
+  }
+
+  /**
+   * Validation on get, only if EntityManager was inactive longer than the validation idle time.
+   */
+  @Override
+  public boolean validateOnGet()
+  {
+    return true;
+  }
+
+  @Override
+  public boolean validateOnGiveBack()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean validateWhileIdle()
+  {
+    return validateWhileIdle;
+  }
+
+  @Override
+  public long getValidationIdleTime()
+  {
+    return validationIdleTime;
+  }
+
+  /**
+   * @return boolean - max pool size is adapted to the load between {@link #getMinSize()} and {@link #getMaxSize()},
+   *         see
+   *         {@link de.joergdev.mosy.backend.standalone.pool.AdaptivePoolSizing}
+   */
+  boolean isAdaptive()
+  {
+    return adaptive;
+  }
+
+  /**
+   * @return int - lower bound of the pool size if adaptive
+   */
+  int getMinSize()
+  {
+    return minSize;
+  }
+
+  /**
+   * @return long - interval of the adaptive sizing in ms
+   */
+  long getAdaptiveInterval()
+  {
+    return adaptiveInterval;
+  }
+
+  /**
+   * @return long - average wait time in ms of borrowers above that the pool grows
+   */
+  long getAdaptiveWaitThreshold()
+  {
+    return adaptiveWaitThreshold;
+  }
+
+  /**
+   * Clears the persistence context on every give back.
+   */
+  @Override
+  public boolean reset(EntityManager em)
+  {
+    return DbUtils.resetEntityManager(em);
+  }
+
+  private static long getLongProperty(String name, long defaultValue)
+  {
+    String sysProp = Utils.getSystemProperty(name);
+
+    return Utils.isEmpty(sysProp) ? defaultValue : Long.parseLong(sysProp);
+  }
+}
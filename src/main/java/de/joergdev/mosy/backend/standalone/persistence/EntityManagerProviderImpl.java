@@ -1,80 +1,579 @@
-package de.joergdev.mosy.backend.standalone.persistence;
-
-import javax.persistence.EntityManager;
-import javax.persistence.EntityTransaction;
-import org.apache.log4j.Logger;
-import de.joergdev.mosy.backend.persistence.EntityManagerProvider;
-import de.joergdev.mosy.backend.standalone.pool.ObjectPool;
-
-public class EntityManagerProviderImpl implements EntityManagerProvider
-{
-  private static final Logger LOG = Logger.getLogger(EntityManagerProviderImpl.class);
-
-  private ObjectPool<EntityManager> emPool = null;
-
-  @Override
-  public EntityManager getEntityManager()
-  {
-    try
-    {
-      initEntityManagerPool();
-
-      return emPool.get();
-    }
-    catch (RuntimeException ex)
-    {
-      LOG.error(ex.getMessage(), ex);
-
-      throw ex;
-    }
-    catch (Exception ex)
-    {
-      LOG.error(ex.getMessage(), ex);
-
-      throw new IllegalStateException(ex);
-    }
-  }
-
-  private synchronized void initEntityManagerPool()
-  {
-    if (emPool != null)
-    {
-      return;
-    }
-
-    try
-    {
-      emPool = new ObjectPool<>(true, new EntityManagerPoolMethodsImpl(), 1);
-    }
-    catch (Exception ex)
-    {
-      throw new IllegalStateException(ex);
-    }
-  }
-
-  @Override
-  public void releaseEntityManager(EntityManager em)
-  {
-    emPool.giveBack(em);
-  }
-
-  @Override
-  public void rollbackEntityManager(EntityManager em)
-  {
-    if (em != null)
-    {
-      EntityTransaction tx = em.getTransaction();
-      if (tx != null)
-      {
-        tx.rollback();
-      }
-    }
-
-  }
-
-  @Override
-  public boolean isContainerManaged()
-  {
-    return false;
-  }
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import org.apache.log4j.Logger;
+import de.joergdev.mosy.backend.persistence.EntityManagerProvider;
+import de.joergdev.mosy.backend.standalone.pool.AdaptivePoolSizing;
+import de.joergdev.mosy.backend.standalone.pool.MicrometerPoolMetrics;
+import de.joergdev.mosy.backend.standalone.pool.ObjectPool;
+import de.joergdev.mosy.backend.standalone.pool.PoolBulkhead;
+import de.joergdev.mosy.shared.Utils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * EntityManagerProvider handing out pooled EntityManagers.
+ * 
+ * If binding is enabled (system property {@value #SYSTEM_PROPERTY_BIND_ENTITY_MANAGER}, default true) the
+ * EntityManager is bound to the current thread: within a request scope ({@link #beginRequestScope()} /
+ * {@link #endRequestScope()}, see {@link EntityManagerRequestFilter}) it is kept for the whole request and given back
+ * once at the end, so all callers of {@link #getEntityManager()} in the request, consecutive or nested, share it
+ * without going to the pool. Each caller gets its own proxy ({@link SharedEntityManager}): a nested caller joins an
+ * active transaction of an outer caller instead of beginning its own, a transaction left active by a caller is rolled
+ * back when it releases the EntityManager. The persistence context is cleared when the EntityManager is handed out
+ * while no other caller holds it.
+ * 
+ * With partitions configured (system property {@value #SYSTEM_PROPERTY_PARTITIONS}) the pool is divided into bulkhead
+ * partitions by traffic class (mock service calls, records, admin API) or tenant, see {@link PoolBulkhead}
+ * and {@link PoolPartitionFilter}. EntityManagers requested outside of a request use the admin partition.
+ * Partitions of tenants are created for known tenants only and at most up to a max count (system property
+ * {@value #SYSTEM_PROPERTY_PARTITION_MAX_TENANTS}), otherwise the traffic class partition is used.
+ * 
+ * With the read-only pool enabled (system property
+ * {@value ReadOnlyEntityManagerPoolMethodsImpl#SYSTEM_PROPERTY_READ_ONLY_POOL}) requests that only read
+ * get EntityManagers of a separate pool, see {@link ReadOnlyEntityManagerPoolMethodsImpl} and
+ * {@link ReadOnlyRequestFilter}. The read-only pool is not partitioned, read-only requests are not limited by the
+ * partitions (counted as metric mosy.pool.partition.bypass per traffic class).
+ * 
+ * If adaptive (system property {@value EntityManagerPoolMethodsImpl#SYSTEM_PROPERTY_POOL_ADAPTIVE}) the max size of
+ * the pool is adapted to the load, see {@link AdaptivePoolSizing}.
+ * 
+ * With the MockData index enabled (system property {@value MockDataIndex#SYSTEM_PROPERTY_ENABLED}) queries of the mock
+ * configuration are served from memory, see {@link MockDataIndex}.
+ */
+public class EntityManagerProviderImpl implements EntityManagerProvider
+{
+  private static final Logger LOG = Logger.getLogger(EntityManagerProviderImpl.class);
+
+  public static final String POOL_NAME = "entityManager";
+  public static final String POOL_NAME_READ_ONLY = "entityManagerReadOnly";
+
+  public static final String SYSTEM_PROPERTY_BIND_ENTITY_MANAGER = "MOSY_DB_BIND_ENTITY_MANAGER";
+  /** quotas of the partitions, format "name:reserved[:limit],...", e.g. "mock:3,records:1:2,admin:1" */
+  public static final String SYSTEM_PROPERTY_PARTITIONS = "MOSY_DB_POOL_PARTITIONS";
+  /** quota of partitions not configured (e.g. tenants), format "reserved[:limit]", default "0" */
+  public static final String SYSTEM_PROPERTY_PARTITION_DEFAULT_QUOTA = "MOSY_DB_POOL_PARTITION_DEFAULT_QUOTA";
+  /** request header with the tenant, if set the pool is partitioned by tenant */
+  public static final String SYSTEM_PROPERTY_PARTITION_TENANT_HEADER = "MOSY_DB_POOL_PARTITION_TENANT_HEADER";
+  /** max count of tenant partitions not configured, default 32 */
+  public static final String SYSTEM_PROPERTY_PARTITION_MAX_TENANTS = "MOSY_DB_POOL_PARTITION_MAX_TENANTS";
+
+  /** mock service calls use the read-only pool */
+  public static final String SYSTEM_PROPERTY_READ_ONLY_MOCK_CALLS = "MOSY_DB_READ_ONLY_MOCK_CALLS";
+
+  public static final String PARTITION_MOCK = "mock";
+  public static final String PARTITION_RECORDS = "records";
+  public static final String PARTITION_ADMIN = "admin";
+  public static final String PARTITION_TENANT_PREFIX = "tenant-";
+
+  private final EntityManagerPoolMethodsImpl poolMethods;
+  /** null if read-only pool is disabled */
+  private final ReadOnlyEntityManagerPoolMethodsImpl readOnlyPoolMethods;
+  private final boolean readOnlyMockCalls;
+  private final MeterRegistry meterRegistry;
+  private volatile ObjectPool<EntityManager> emPool = null;
+  /** null if read-only pool is disabled */
+  private volatile ObjectPool<EntityManager> emPoolReadOnly = null;
+  /** null if not partitioned */
+  private volatile PoolBulkhead<EntityManager> emBulkhead = null;
+  /** null if not adaptive */
+  private AdaptivePoolSizing emPoolSizing = null;
+  /** Lock for pool creation / close, instead of synchronized it does not pin virtual threads */
+  private final Lock poolLock = new ReentrantLock();
+
+  private final boolean bindEntityManager;
+  private final ThreadLocal<BoundEntityManager> boundEntityManager = new ThreadLocal<>();
+
+  private final Map<String, PoolBulkhead.Quota> partitionQuotas;
+  private final PoolBulkhead.Quota partitionDefaultQuota;
+  private final String partitionTenantHeader;
+  private final int partitionMaxTenants;
+  private final ThreadLocal<String> partition = new ThreadLocal<>();
+  private final ThreadLocal<String> partitionFallback = new ThreadLocal<>();
+  /** borrows of the read-only pool by traffic class, if partitioned */
+  private final Map<String, Counter> readOnlyBorrows = new ConcurrentHashMap<>();
+
+  public EntityManagerProviderImpl(EntityManagerFactory emf, MeterRegistry meterRegistry)
+  {
+    this(emf, meterRegistry, null);
+  }
+
+  /**
+   * @param emf - EntityManagerFactory
+   * @param meterRegistry - MeterRegistry for pool metrics
+   * @param recordWriteBehind - write-behind of recordings, may be null
+   */
+  public EntityManagerProviderImpl(EntityManagerFactory emf, MeterRegistry meterRegistry,
+                                   RecordWriteBehind recordWriteBehind)
+  {
+    this(emf, meterRegistry, recordWriteBehind, null);
+  }
+
+  /**
+   * @param emf - EntityManagerFactory
+   * @param meterRegistry - MeterRegistry for pool metrics
+   * @param recordWriteBehind - write-behind of recordings, may be null
+   * @param mockDataIndex - index of the mock configuration, may be null
+   */
+  public EntityManagerProviderImpl(EntityManagerFactory emf, MeterRegistry meterRegistry,
+                                   RecordWriteBehind recordWriteBehind, MockDataIndex mockDataIndex)
+  {
+    this.poolMethods = new EntityManagerPoolMethodsImpl(emf, recordWriteBehind, mockDataIndex);
+    this.readOnlyPoolMethods = ReadOnlyEntityManagerPoolMethodsImpl.isEnabled()
+        ? new ReadOnlyEntityManagerPoolMethodsImpl(emf, recordWriteBehind, mockDataIndex)
+        : null;
+    this.readOnlyMockCalls = Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_READ_ONLY_MOCK_CALLS));
+    this.meterRegistry = meterRegistry;
+
+    String sysPropBind = Utils.getSystemProperty(SYSTEM_PROPERTY_BIND_ENTITY_MANAGER);
+    this.bindEntityManager = Utils.isEmpty(sysPropBind) || Boolean.parseBoolean(sysPropBind);
+
+    String sysPropPartitions = Utils.getSystemProperty(SYSTEM_PROPERTY_PARTITIONS);
+    this.partitionQuotas = Utils.isEmpty(sysPropPartitions)
+        ? Collections.emptyMap()
+        : PoolBulkhead.parseQuotas(sysPropPartitions);
+
+    String sysPropDefaultQuota = Utils.getSystemProperty(SYSTEM_PROPERTY_PARTITION_DEFAULT_QUOTA);
+    this.partitionDefaultQuota = PoolBulkhead
+        .parseQuotas("default:" + (Utils.isEmpty(sysPropDefaultQuota) ? "0" : sysPropDefaultQuota)).get("default");
+
+    String sysPropTenantHeader = Utils.getSystemProperty(SYSTEM_PROPERTY_PARTITION_TENANT_HEADER);
+    this.partitionTenantHeader = Utils.isEmpty(sysPropTenantHeader) ? null : sysPropTenantHeader;
+
+    String sysPropMaxTenants = Utils.getSystemProperty(SYSTEM_PROPERTY_PARTITION_MAX_TENANTS);
+    this.partitionMaxTenants = Utils.isEmpty(sysPropMaxTenants) ? 32 : Integer.parseInt(sysPropMaxTenants);
+  }
+
+  public boolean isPartitioned()
+  {
+    return !partitionQuotas.isEmpty() || partitionTenantHeader != null;
+  }
+
+  /**
+   * @return String - request header with the tenant, null if not partitioned by tenant
+   */
+  public String getPartitionTenantHeader()
+  {
+    return partitionTenantHeader;
+  }
+
+  public boolean isReadOnlyPoolEnabled()
+  {
+    return readOnlyPoolMethods != null;
+  }
+
+  public boolean isReadOnlyMockCalls()
+  {
+    return readOnlyMockCalls;
+  }
+
+  /**
+   * Marks the current thread as read-only until the end of the request scope: EntityManagers are taken from the
+   * read-only pool (if enabled) and JDBC connections are read-only, see {@link ReadOnlyRequestFilter}.
+   * 
+   * @param readOnly - true if the request only reads
+   */
+  public void setReadOnly(boolean readOnly)
+  {
+    ReadOnlyDataSource.setCurrentReadOnly(readOnly);
+  }
+
+  /**
+   * Sets the partition of the pool for EntityManagers requested by the current thread until the end of the request
+   * scope, see {@link PoolPartitionFilter}.
+   * 
+   * @param partitionName - name of partition
+   * @param fallbackPartitionName - name of partition used if the max count of partitions is reached
+   */
+  public void setPartition(String partitionName, String fallbackPartitionName)
+  {
+    partition.set(partitionName);
+    partitionFallback.set(fallbackPartitionName);
+  }
+
+  @Override
+  public EntityManager getEntityManager()
+  {
+    try
+    {
+      if (!bindEntityManager)
+      {
+        return borrow();
+      }
+
+      BoundEntityManager bound = boundEntityManager.get();
+
+      // nothing bound yet -> bind until released
+      if (bound == null)
+      {
+        bound = new BoundEntityManager(false);
+        boundEntityManager.set(bound);
+      }
+
+      if (bound.em == null)
+      {
+        boolean borrowed = false;
+
+        try
+        {
+          bound.em = borrow();
+          borrowed = true;
+        }
+        finally
+        {
+          if (!borrowed && !bound.requestScope)
+          {
+            boundEntityManager.remove();
+          }
+        }
+      }
+      // not held by another caller -> without the transaction / entities of the previous caller
+      else if (bound.holders == 0)
+      {
+        if (isTransactionActive(bound.em))
+        {
+          bound.em.getTransaction().rollback();
+        }
+
+        bound.em.clear();
+      }
+
+      bound.holders++;
+
+      return SharedEntityManager.wrap(bound.em, bound);
+    }
+    catch (RuntimeException ex)
+    {
+      LOG.error(ex.getMessage(), ex);
+
+      throw ex;
+    }
+    catch (Exception ex)
+    {
+      LOG.error(ex.getMessage(), ex);
+
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Eager warm-up on application startup: creates the pool and min idle EntityManagers
+   * (at least one), so the first requests do not have to wait for their creation.
+   */
+  public void warmUp()
+  {
+    ObjectPool<EntityManager> pool = getEntityManagerPool();
+
+    long timeStart = System.currentTimeMillis();
+
+    pool.prefill(Math.max(1, poolMethods.getMinIdle()));
+
+    if (emPoolReadOnly != null)
+    {
+      emPoolReadOnly.prefill(Math.max(1, readOnlyPoolMethods.getMinIdle()));
+    }
+
+    LOG.info("EntityManager pool warmed up with " + pool.getPoolSize() + " EntityManagers in "
+             + (System.currentTimeMillis() - timeStart) + " ms");
+  }
+
+  private EntityManager borrow()
+  {
+    ObjectPool<EntityManager> pool = getEntityManagerPool();
+
+    if (emPoolReadOnly != null && ReadOnlyDataSource.isCurrentReadOnly())
+    {
+      if (emBulkhead != null)
+      {
+        countReadOnlyBorrow();
+      }
+
+      return emPoolReadOnly.get();
+    }
+
+    PoolBulkhead<EntityManager> bulkhead = emBulkhead;
+
+    if (bulkhead == null)
+    {
+      return pool.get();
+    }
+
+    String partitionName = partition.get();
+    String fallbackPartitionName = partitionFallback.get();
+
+    return bulkhead.get(partitionName == null ? PARTITION_ADMIN : partitionName,
+        fallbackPartitionName == null ? PARTITION_ADMIN : fallbackPartitionName, poolMethods.getBorrowTimeout());
+  }
+
+  /**
+   * The read-only pool is not partitioned (its connections do not count for the partitions of the EntityManager pool),
+   * borrows bypassing the partitions are counted per traffic class.
+   */
+  private void countReadOnlyBorrow()
+  {
+    String trafficClass = partitionFallback.get();
+
+    readOnlyBorrows.computeIfAbsent(trafficClass == null ? PARTITION_ADMIN : trafficClass,
+        tc -> Counter.builder(MicrometerPoolMetrics.METRIC_PREFIX + "partition.bypass")
+            .description("Borrows of the read-only pool, not limited by the partitions")
+            .tags(MicrometerPoolMetrics.TAG_POOL, POOL_NAME_READ_ONLY, "partition", tc).register(meterRegistry))
+        .increment();
+  }
+
+  private void giveBack(EntityManager em)
+  {
+    ObjectPool<EntityManager> poolReadOnly = emPoolReadOnly;
+    PoolBulkhead<EntityManager> bulkhead = emBulkhead;
+
+    if (poolReadOnly != null && poolReadOnly.contains(em))
+    {
+      poolReadOnly.giveBack(em);
+    }
+    else if (bulkhead == null)
+    {
+      emPool.giveBack(em);
+    }
+    else
+    {
+      bulkhead.giveBack(em);
+    }
+  }
+
+  private ObjectPool<EntityManager> getEntityManagerPool()
+  {
+    ObjectPool<EntityManager> pool = emPool;
+
+    // lazy init, lock only on first call
+    if (pool == null)
+    {
+      pool = initEntityManagerPool();
+    }
+
+    return pool;
+  }
+
+  private ObjectPool<EntityManager> initEntityManagerPool()
+  {
+    poolLock.lock();
+
+    try
+    {
+      if (emPool != null)
+      {
+        return emPool;
+      }
+
+      ObjectPool<EntityManager> pool = new ObjectPool<>(true, poolMethods);
+      pool.setMetrics(new MicrometerPoolMetrics(meterRegistry, POOL_NAME, pool));
+
+      if (isPartitioned())
+      {
+        // traffic classes are the fallback of the tenants, created upfront so they do not count for max tenants
+        Map<String, PoolBulkhead.Quota> quotas = new HashMap<>(partitionQuotas);
+        for (String trafficClass : new String[] {PARTITION_MOCK, PARTITION_RECORDS, PARTITION_ADMIN})
+        {
+          quotas.putIfAbsent(trafficClass, partitionDefaultQuota);
+        }
+
+        emBulkhead = new PoolBulkhead<>(pool, POOL_NAME, quotas, partitionDefaultQuota,
+            partitionTenantHeader == null ? quotas.size() : quotas.size() + partitionMaxTenants, meterRegistry);
+
+        LOG.info("EntityManager pool partitioned: " + quotas + ", default " + partitionDefaultQuota
+                 + (partitionTenantHeader == null
+                     ? ""
+                     : ", by tenant header " + partitionTenantHeader + " (max " + partitionMaxTenants + " tenants)")
+                 + ", overflow " + emBulkhead.getOverflowSize());
+      }
+
+      if (poolMethods.isAdaptive())
+      {
+        // reserved slots of the partitions have to fit into the pool, partitions created later raise the floor
+        int floor = Math.max(poolMethods.getMinSize(), emBulkhead == null ? 0 : emBulkhead.getReservedTotal());
+
+        emPoolSizing = new AdaptivePoolSizing(pool, POOL_NAME, Math.min(floor, poolMethods.getMaxSize()),
+            poolMethods.getMaxSize(), poolMethods.getAdaptiveInterval(), poolMethods.getAdaptiveWaitThreshold(),
+            meterRegistry);
+
+        if (emBulkhead != null)
+        {
+          emPoolSizing.setBulkhead(emBulkhead);
+        }
+
+        emPoolSizing.start();
+      }
+
+      if (readOnlyPoolMethods != null)
+      {
+        ObjectPool<EntityManager> poolReadOnly = new ObjectPool<>(true, readOnlyPoolMethods);
+        poolReadOnly.setMetrics(new MicrometerPoolMetrics(meterRegistry, POOL_NAME_READ_ONLY, poolReadOnly));
+
+        emPoolReadOnly = poolReadOnly;
+      }
+
+      emPool = pool;
+
+      return pool;
+    }
+    catch (Exception ex)
+    {
+      throw new IllegalStateException(ex);
+    }
+    finally
+    {
+      poolLock.unlock();
+    }
+  }
+
+  @Override
+  public void releaseEntityManager(EntityManager em)
+  {
+    SharedEntityManager shared = SharedEntityManager.of(em);
+
+    if (shared == null)
+    {
+      giveBack(em);
+
+      return;
+    }
+
+    BoundEntityManager bound = (BoundEntityManager) shared.getBinding();
+
+    if (!shared.release() || --bound.holders > 0)
+    {
+      return;
+    }
+
+    // outside of request scope -> give back when released by the last caller, otherwise at end of request
+    if (!bound.requestScope)
+    {
+      if (boundEntityManager.get() == bound)
+      {
+        boundEntityManager.remove();
+      }
+
+      giveBack(bound.em);
+    }
+  }
+
+  /**
+   * Begins a request scope for the current thread: all EntityManagers requested in this thread until
+   * {@link #endRequestScope()} share one pooled EntityManager, taken from the pool on first request.
+   */
+  public void beginRequestScope()
+  {
+    if (bindEntityManager && boundEntityManager.get() == null)
+    {
+      boundEntityManager.set(new BoundEntityManager(true));
+    }
+  }
+
+  /**
+   * Ends the request scope of the current thread and gives back the EntityManager bound to the request.
+   */
+  public void endRequestScope()
+  {
+    partition.remove();
+    partitionFallback.remove();
+    ReadOnlyDataSource.setCurrentReadOnly(false);
+    RecordWriteBehind.setMockCall(false);
+
+    BoundEntityManager bound = boundEntityManager.get();
+
+    if (bound == null || !bound.requestScope)
+    {
+      return;
+    }
+
+    boundEntityManager.remove();
+
+    if (bound.em != null)
+    {
+      if (bound.holders > 0)
+      {
+        LOG.warn("EntityManager not released at end of request");
+      }
+
+      giveBack(bound.em);
+    }
+  }
+
+  private static boolean isTransactionActive(EntityManager em)
+  {
+    EntityTransaction tx = em.getTransaction();
+
+    return tx != null && tx.isActive();
+  }
+
+  @Override
+  public void rollbackEntityManager(EntityManager em)
+  {
+    if (em != null)
+    {
+      EntityTransaction tx = em.getTransaction();
+      if (tx != null)
+      {
+        tx.rollback();
+      }
+    }
+
+  }
+
+  @Override
+  public boolean isContainerManaged()
+  {
+    return false;
+  }
+
+  /** EntityManager bound to a thread */
+  private static class BoundEntityManager
+  {
+    private final boolean requestScope;
+    private EntityManager em;
+    /** count of callers the EntityManager is handed out to and not yet released */
+    private int holders;
+
+    private BoundEntityManager(boolean requestScope)
+    {
+      this.requestScope = requestScope;
+    }
+  }
+
+  /**
+   * Closes the pool and all EntityManagers currently not in use.
+   * Called by spring on shutdown before the shared EntityManagerFactory is closed.
+   */
+  public void close()
+  {
+    poolLock.lock();
+
+    try
+    {
+      if (emPoolSizing != null)
+      {
+        emPoolSizing.close();
+      }
+
+      if (emPoolReadOnly != null)
+      {
+        emPoolReadOnly.close();
+      }
+
+      if (emPool != null)
+      {
+        emPool.close();
+      }
+    }
+    finally
+    {
+      poolLock.unlock();
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import de.joergdev.mosy.backend.standalone.SystemBootFilter;
+
+/**
+ * Servlet filter opening a request scope for EntityManagers, so all BL steps of a request share one
+ * pooled EntityManager, see {@link EntityManagerProviderImpl#beginRequestScope()}.
+ * 
+ * Runs after {@link SystemBootFilter}, requests held back until the system boot is finished have no request scope.
+ * 
+ * @author Andreas Joerg
+ */
+@Component
+@Order(SystemBootFilter.ORDER + 1)
+public class EntityManagerRequestFilter implements Filter
+{
+  private final EntityManagerProviderImpl entityManagerProvider;
+
+  public EntityManagerRequestFilter(EntityManagerProviderImpl entityManagerProvider)
+  {
+    this.entityManagerProvider = entityManagerProvider;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+    throws IOException, ServletException
+  {
+    entityManagerProvider.beginRequestScope();
+
+    try
+    {
+      chain.doFilter(request, response);
+    }
+    finally
+    {
+      entityManagerProvider.endRequestScope();
+    }
+  }
+}
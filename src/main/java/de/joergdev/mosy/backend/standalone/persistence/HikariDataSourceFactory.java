@@ -0,0 +1,114 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import de.joergdev.mosy.backend.standalone.transfer.DataTransfer;
+import de.joergdev.mosy.shared.Utils;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Creates the HikariCP connection pool for the persistence unit "db".
+ * 
+ * The max pool size follows the max size of the EntityManager pool
+ * ({@value EntityManagerPoolMethodsImpl#SYSTEM_PROPERTY_MAX_POOL_SIZE}) plus the read-only pool plus one connection
+ * per enabled feature using connections outside of the EntityManager pools (see {@link #getBackgroundConnections}).
+ * Metrics are available as hikaricp.connections.*.
+ * 
+ * @author Andreas Joerg
+ */
+public class HikariDataSourceFactory
+{
+  public static final String SYSTEM_PROPERTY_LEAK_DETECTION_THRESHOLD = "MOSY_DB_LEAK_DETECTION_THRESHOLD";
+  public static final String SYSTEM_PROPERTY_STATEMENT_CACHE_SIZE = "MOSY_DB_STATEMENT_CACHE_SIZE";
+
+  public static final String POOL_NAME = "mosy-db";
+
+  private static final long DEFAULT_LEAK_DETECTION_THRESHOLD = 60000;
+  private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+  private HikariDataSourceFactory()
+  {
+    //
+  }
+
+  /**
+   * @param dbStorage - DbStorage
+   * @param cluster - multi-instance mode (model change broadcast) enabled
+   * @param meterRegistry - MeterRegistry
+   * @return HikariDataSource
+   */
+  public static HikariDataSource create(DbStorage dbStorage, boolean cluster, MeterRegistry meterRegistry)
+  {
+    HikariConfig config = new HikariConfig();
+    config.setPoolName(POOL_NAME);
+    config.setJdbcUrl(dbStorage.getJdbcUrl());
+    config.setUsername(dbStorage.getUser());
+    config.setPassword(dbStorage.getPassword());
+
+    // one connection per pooled EntityManager (read-write and read-only) and for the background tasks
+    int readOnlyConnections = ReadOnlyEntityManagerPoolMethodsImpl.isEnabled()
+        ? ReadOnlyEntityManagerPoolMethodsImpl.getMaxPoolSizeReadOnly()
+        : 0;
+    config.setMaximumPoolSize(EntityManagerPoolMethodsImpl.getMaxPoolSize() + readOnlyConnections
+                              + getBackgroundConnections(cluster));
+
+    // warning with stacktrace if a connection is not returned within threshold, 0 = disabled
+    config.setLeakDetectionThreshold(getLongProperty(SYSTEM_PROPERTY_LEAK_DETECTION_THRESHOLD,
+        DEFAULT_LEAK_DETECTION_THRESHOLD));
+
+    // cache of prepared statements per connection (H2 setting QUERY_CACHE_SIZE)
+    config.addDataSourceProperty("QUERY_CACHE_SIZE",
+        getLongProperty(SYSTEM_PROPERTY_STATEMENT_CACHE_SIZE, DEFAULT_STATEMENT_CACHE_SIZE));
+
+    config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+
+    return new HikariDataSource(config);
+  }
+
+  /**
+   * Connections used outside of the EntityManager pools, one per feature: schema version (always), record
+   * write-behind, records retention, export / import, model change broadcast, known tenants of the pool partitions.
+   * 
+   * @param cluster - multi-instance mode (model change broadcast) enabled
+   * @return int - count of connections
+   */
+  static int getBackgroundConnections(boolean cluster)
+  {
+    int connections = 1;
+
+    if (Boolean.parseBoolean(Utils.getSystemProperty(RecordWriteBehind.SYSTEM_PROPERTY_ENABLED)))
+    {
+      connections++;
+    }
+
+    if (RecordRetention.isConfigured())
+    {
+      connections++;
+    }
+
+    if (!Utils.isEmpty(Utils.getSystemProperty(DataTransfer.SYSTEM_PROPERTY_TOKEN)))
+    {
+      connections++;
+    }
+
+    if (cluster)
+    {
+      connections++;
+    }
+
+    if (!Utils.isEmpty(Utils.getSystemProperty(EntityManagerProviderImpl.SYSTEM_PROPERTY_PARTITION_TENANT_HEADER)))
+    {
+      connections++;
+    }
+
+    return connections;
+  }
+
+  private static long getLongProperty(String name, long defaultValue)
+  {
+    String sysProp = Utils.getSystemProperty(name);
+
+    return Utils.isEmpty(sysProp) ? defaultValue : Long.parseLong(sysProp);
+  }
+}
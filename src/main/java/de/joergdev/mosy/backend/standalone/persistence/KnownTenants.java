@@ -0,0 +1,135 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaQuery;
+import org.apache.log4j.Logger;
+import de.joergdev.mosy.backend.api.impl.Tenants;
+import de.joergdev.mosy.backend.persistence.model.Tenant;
+import de.joergdev.mosy.backend.standalone.cache.ModelChangeListener;
+
+/**
+ * Ids of the tenants in the database, so only existing tenants get a partition of the EntityManager pool
+ * (see {@link PoolPartitionFilter}), not any value of the request header.
+ *
+ * The ids are loaded on first use and reloaded after changes of tenants via REST API (of this or another instance,
+ * see {@link ModelChangeListener}).
+ *
+ * @author Andreas Joerg
+ */
+public class KnownTenants implements ModelChangeListener
+{
+  private static final Logger LOG = Logger.getLogger(KnownTenants.class);
+
+  private final EntityManagerFactory emf;
+
+  /** incremented with each change of tenants */
+  private final AtomicLong version = new AtomicLong();
+  private volatile Snapshot snapshot = null;
+  /** instead of synchronized it does not pin virtual threads */
+  private final Lock loadLock = new ReentrantLock();
+
+  public KnownTenants(EntityManagerFactory emf)
+  {
+    this.emf = emf;
+  }
+
+  /**
+   * @param tenantId - id of tenant (e.g. value of request header)
+   * @return boolean - true if the tenant exists, false if not or the tenants cannot be loaded
+   */
+  public boolean isKnown(String tenantId)
+  {
+    try
+    {
+      return getIds().contains(tenantId);
+    }
+    catch (RuntimeException ex)
+    {
+      LOG.error("Loading of tenants failed: " + ex.getMessage(), ex);
+
+      return false;
+    }
+  }
+
+  @Override
+  public void modelChanged(Class<?> resourceClass)
+  {
+    if (Tenants.class.isAssignableFrom(resourceClass))
+    {
+      version.incrementAndGet();
+    }
+  }
+
+  private Set<String> getIds()
+  {
+    Snapshot current = snapshot;
+    if (current != null && current.version == version.get())
+    {
+      return current.ids;
+    }
+
+    loadLock.lock();
+
+    try
+    {
+      long loadVersion = version.get();
+
+      current = snapshot;
+      if (current != null && current.version == loadVersion)
+      {
+        return current.ids;
+      }
+
+      current = new Snapshot(loadVersion, load());
+      snapshot = current;
+
+      return current.ids;
+    }
+    finally
+    {
+      loadLock.unlock();
+    }
+  }
+
+  private Set<String> load()
+  {
+    EntityManager em = emf.createEntityManager();
+
+    try
+    {
+      CriteriaQuery<Tenant> query = em.getCriteriaBuilder().createQuery(Tenant.class);
+      query.select(query.from(Tenant.class));
+
+      Set<String> ids = new HashSet<>();
+      for (Tenant tenant : em.createQuery(query).getResultList())
+      {
+        ids.add(String.valueOf(emf.getPersistenceUnitUtil().getIdentifier(tenant)));
+      }
+
+      return Collections.unmodifiableSet(ids);
+    }
+    finally
+    {
+      em.close();
+    }
+  }
+
+  private static class Snapshot
+  {
+    private final long version;
+    private final Set<String> ids;
+
+    private Snapshot(long version, Set<String> ids)
+    {
+      this.version = version;
+      this.ids = ids;
+    }
+  }
+}
@@ -0,0 +1,562 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.persistence.EntityManagerFactory;
+import org.apache.log4j.Logger;
+import org.hibernate.LockMode;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.spi.NamedQueryDefinition;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AbstractCollectionEvent;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxyHelper;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import de.joergdev.mosy.backend.api.impl.Records;
+import de.joergdev.mosy.backend.persistence.model.Interface;
+import de.joergdev.mosy.backend.persistence.model.InterfaceMethod;
+import de.joergdev.mosy.backend.persistence.model.InterfaceType;
+import de.joergdev.mosy.backend.persistence.model.MockData;
+import de.joergdev.mosy.backend.persistence.model.MockDataMockProfile;
+import de.joergdev.mosy.backend.persistence.model.MockDataPathParam;
+import de.joergdev.mosy.backend.persistence.model.MockDataUrlArgument;
+import de.joergdev.mosy.backend.persistence.model.MockProfile;
+import de.joergdev.mosy.backend.persistence.model.Tenant;
+import de.joergdev.mosy.backend.standalone.cache.ModelChangeListener;
+import de.joergdev.mosy.shared.Utils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * In-memory index of the mock configuration (MockData with path params, url arguments and mock profiles, interfaces,
+ * interface methods, mock profiles, tenants) for the matching of mock service calls.
+ *
+ * The JPQL queries of mosy-backend reading only these entities are intercepted by {@link MockDataIndexEntityManager}
+ * and their results indexed by query and parameters, i.e. by tenant / interface / method / path params / url
+ * arguments of the lookups. Repeated lookups are served from the index without a query to the database: entities of
+ * a result are held by id and loaded by find, from the persistence context or the second level cache.
+ *
+ * The index is cleared on each change of the indexed entities: by hibernate events (insert / update / delete, of all
+ * EntityManagers), by bulk updates via pooled EntityManagers and by changes via REST API of this or another instance
+ * ({@link ModelChangeListener}). While a transaction that changed indexed entities is not completed the index is not
+ * used, so uncommitted changes are never indexed. Results loaded before a change are discarded.
+ *
+ * The index is enabled by system property {@value #SYSTEM_PROPERTY_ENABLED}.
+ *
+ * @author Andreas Joerg
+ */
+public class MockDataIndex implements ModelChangeListener
+{
+  private static final Logger LOG = Logger.getLogger(MockDataIndex.class);
+
+  public static final String SYSTEM_PROPERTY_ENABLED = "MOSY_MOCKDATA_INDEX";
+  public static final String SYSTEM_PROPERTY_MAX_ENTRIES = "MOSY_MOCKDATA_INDEX_MAX_ENTRIES";
+
+  private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  private static final List<Class<?>> INDEXED_ENTITIES = Collections.unmodifiableList(Arrays.asList(MockData.class,
+      MockDataPathParam.class, MockDataUrlArgument.class, MockDataMockProfile.class, MockProfile.class,
+      Interface.class, InterfaceMethod.class, InterfaceType.class, Tenant.class));
+
+  private final EntityManagerFactory emf;
+  private final boolean enabled;
+  private final int maxEntries;
+
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+  /** incremented with each change of indexed entities */
+  private final AtomicLong generation = new AtomicLong();
+  /** sessions that changed indexed entities in a transaction not yet completed */
+  private final Set<Object> writingSessions = ConcurrentHashMap.newKeySet();
+
+  /** key: JPQL query */
+  private final Map<String, QueryType> queryTypes = new ConcurrentHashMap<>();
+  /** key: class of result or parameter, value: entity class, Void if no entity */
+  private final Map<Class<?>, Class<?>> entityClasses = new ConcurrentHashMap<>();
+
+  /** tables of the indexed entities, initialized on first use (EntityManagerFactory is bootstrapped in background) */
+  private volatile Set<Serializable> indexedSpaces;
+  private SessionFactoryImplementor sessionFactory;
+  /** instead of synchronized it does not pin virtual threads */
+  private final Lock initLock = new ReentrantLock();
+
+  private final Counter hits;
+  private final Counter misses;
+
+  public MockDataIndex(EntityManagerFactory emf, MeterRegistry meterRegistry)
+  {
+    this.emf = emf;
+
+    enabled = Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_ENABLED));
+
+    String sysPropMaxEntries = Utils.getSystemProperty(SYSTEM_PROPERTY_MAX_ENTRIES);
+    maxEntries = Utils.isEmpty(sysPropMaxEntries) ? DEFAULT_MAX_ENTRIES : Integer.parseInt(sysPropMaxEntries);
+
+    hits = Counter.builder("mosy.mockdata.index.requests").tag("result", "hit").register(meterRegistry);
+    misses = Counter.builder("mosy.mockdata.index.requests").tag("result", "miss").register(meterRegistry);
+    Gauge.builder("mosy.mockdata.index.size", entries, Map::size).description("Indexed query results")
+        .register(meterRegistry);
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * Registers the listeners for changes of the indexed entities, called before the first EntityManager is wrapped.
+   */
+  void init()
+  {
+    if (indexedSpaces != null)
+    {
+      return;
+    }
+
+    initLock.lock();
+
+    try
+    {
+      if (indexedSpaces != null)
+      {
+        return;
+      }
+
+      sessionFactory = emf.unwrap(SessionFactoryImplementor.class);
+
+      Set<Serializable> spaces = new HashSet<>();
+      Set<String> indexedEntityNames = new HashSet<>();
+
+      for (Class<?> entityClass : INDEXED_ENTITIES)
+      {
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(entityClass);
+
+        spaces.addAll(Arrays.asList(persister.getQuerySpaces()));
+        indexedEntityNames.add(persister.getEntityName());
+      }
+
+      // join tables of collections of the indexed entities
+      for (CollectionPersister persister : sessionFactory.getMetamodel().collectionPersisters().values())
+      {
+        if (indexedEntityNames.contains(persister.getOwnerEntityPersister().getEntityName()))
+        {
+          spaces.addAll(Arrays.asList(persister.getCollectionSpaces()));
+        }
+      }
+
+      ChangeListener listener = new ChangeListener();
+
+      EventListenerRegistry listenerRegistry = sessionFactory.getServiceRegistry()
+          .getService(EventListenerRegistry.class);
+      listenerRegistry.appendListeners(EventType.POST_INSERT, listener);
+      listenerRegistry.appendListeners(EventType.POST_UPDATE, listener);
+      listenerRegistry.appendListeners(EventType.POST_DELETE, listener);
+      listenerRegistry.appendListeners(EventType.POST_COLLECTION_RECREATE, listener);
+      listenerRegistry.appendListeners(EventType.POST_COLLECTION_UPDATE, listener);
+      listenerRegistry.appendListeners(EventType.POST_COLLECTION_REMOVE, listener);
+
+      indexedSpaces = Collections.unmodifiableSet(spaces);
+
+      LOG.info("MockData index enabled for tables " + spaces + " (max " + maxEntries + " entries)");
+    }
+    finally
+    {
+      initLock.unlock();
+    }
+  }
+
+  /**
+   * @param query - JPQL query
+   * @return QueryType - type of the query regarding the index
+   */
+  QueryType getQueryType(String query)
+  {
+    return queryTypes.computeIfAbsent(query, q ->
+    {
+      try
+      {
+        HQLQueryPlan plan = sessionFactory.getQueryPlanCache().getHQLQueryPlan(q, false, Collections.emptyMap());
+
+        if (plan.isSelect())
+        {
+          return indexedSpaces.containsAll(plan.getQuerySpaces()) ? QueryType.INDEXED : QueryType.OTHER;
+        }
+
+        return isIndexedSpace(plan.getQuerySpaces())
+            ? QueryType.CHANGES_INDEXED
+            : QueryType.OTHER;
+      }
+      catch (RuntimeException ex)
+      {
+        // invalid query, fails on execution
+        return QueryType.OTHER;
+      }
+    });
+  }
+
+  /**
+   * @param name - name of query
+   * @return String - JPQL of the named query, null for named native queries or with lock mode
+   */
+  String getNamedQuery(String name)
+  {
+    NamedQueryDefinition definition = sessionFactory.getNamedQueryRepository().getNamedQueryDefinition(name);
+
+    if (definition == null
+        || (definition.getLockOptions() != null && definition.getLockOptions().getLockMode() != LockMode.NONE))
+    {
+      return null;
+    }
+
+    return definition.getQueryString();
+  }
+
+  /**
+   * @param value - value of result or parameter
+   * @return EntityId - null if the value is no entity
+   */
+  EntityId getEntityId(Object value)
+  {
+    Class<?> entityClass = entityClasses.computeIfAbsent(HibernateProxyHelper.getClassWithoutInitializingProxy(value),
+        c ->
+        {
+          try
+          {
+            return sessionFactory.getMetamodel().locateEntityPersister(c).getMappedClass();
+          }
+          catch (RuntimeException ex)
+          {
+            return Void.class;
+          }
+        });
+
+    if (entityClass == Void.class)
+    {
+      return null;
+    }
+
+    Object id = emf.getPersistenceUnitUtil().getIdentifier(value);
+
+    return id == null ? null : new EntityId(entityClass, id);
+  }
+
+  /**
+   * @return long - generation of the index, to be passed to {@link #put(Key, Entry, long)} for a result loaded after
+   */
+  long getGeneration()
+  {
+    return generation.get();
+  }
+
+  /**
+   * @param key - query and parameters
+   * @return Entry - indexed result, null if not indexed or the index may not be used currently
+   */
+  Entry get(Key key)
+  {
+    Entry entry = writingSessions.isEmpty() ? entries.get(key) : null;
+
+    (entry == null ? misses : hits).increment();
+
+    return entry;
+  }
+
+  /**
+   * Indexes the result, unless the index has changed since the result was loaded.
+   *
+   * @param key - query and parameters
+   * @param entry - result
+   * @param loadGeneration - generation of the index before the result was loaded
+   */
+  void put(Key key, Entry entry, long loadGeneration)
+  {
+    if (!writingSessions.isEmpty() || generation.get() != loadGeneration || entries.size() >= maxEntries)
+    {
+      return;
+    }
+
+    entries.put(key, entry);
+
+    // changed while put -> may be stale
+    if (generation.get() != loadGeneration)
+    {
+      entries.remove(key, entry);
+    }
+  }
+
+  /**
+   * Clears the index.
+   */
+  public void invalidate()
+  {
+    generation.incrementAndGet();
+    entries.clear();
+  }
+
+  /**
+   * Indexed entities are changed in the session: clears the index and suspends it until the transaction is completed.
+   *
+   * @param session - session changing indexed entities
+   */
+  void changed(EventSource session)
+  {
+    if (writingSessions.add(session))
+    {
+      session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, s) ->
+      {
+        // after commit readers of other sessions may have indexed the state before the commit
+        invalidate();
+        writingSessions.remove(session);
+      });
+    }
+
+    invalidate();
+  }
+
+  /**
+   * Any change of the model (except recordings) may change the indexed entities, also changes not made by hibernate
+   * (e.g. by native SQL) or by another instance.
+   */
+  @Override
+  public void modelChanged(Class<?> resourceClass)
+  {
+    if (!MockServices.class.isAssignableFrom(resourceClass) && !Records.class.isAssignableFrom(resourceClass))
+    {
+      invalidate();
+    }
+  }
+
+  private boolean isIndexedSpace(Collection<?> spaces)
+  {
+    return !Collections.disjoint(indexedSpaces, spaces);
+  }
+
+  /**
+   * Type of a JPQL query regarding the index.
+   */
+  enum QueryType
+  {
+    /** select of indexed entities only */
+    INDEXED,
+    /** bulk update / delete of indexed entities */
+    CHANGES_INDEXED,
+    OTHER
+  }
+
+  /**
+   * Query with parameters, first result / max results and hints.
+   */
+  static class Key
+  {
+    private final String query;
+    private final Class<?> resultClass;
+    private final Map<Object, Object> parameters;
+    private final int firstResult;
+    private final int maxResults;
+    private final Map<String, Object> hints;
+    private final int hash;
+
+    Key(String query, Class<?> resultClass, Map<Object, Object> parameters, int firstResult, int maxResults,
+        Map<String, Object> hints)
+    {
+      this.query = query;
+      this.resultClass = resultClass;
+      this.parameters = parameters;
+      this.firstResult = firstResult;
+      this.maxResults = maxResults;
+      this.hints = hints;
+      this.hash = Objects.hash(query, resultClass, parameters, firstResult, maxResults, hints);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj)
+      {
+        return true;
+      }
+
+      if (!(obj instanceof Key))
+      {
+        return false;
+      }
+
+      Key other = (Key) obj;
+
+      return hash == other.hash && query.equals(other.query) && Objects.equals(resultClass, other.resultClass)
+             && parameters.equals(other.parameters) && firstResult == other.firstResult
+             && maxResults == other.maxResults && hints.equals(other.hints);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+  }
+
+  /**
+   * Indexed result: rows of entities (as {@link EntityId}) and immutable values, tuples as arrays.
+   */
+  static class Entry
+  {
+    private final List<Object> rows;
+
+    Entry(List<Object> rows)
+    {
+      this.rows = Collections.unmodifiableList(rows);
+    }
+
+    List<Object> getRows()
+    {
+      return rows;
+    }
+  }
+
+  /**
+   * Entity in a result or parameter.
+   */
+  static class EntityId
+  {
+    private final Class<?> entityClass;
+    private final Object id;
+
+    EntityId(Class<?> entityClass, Object id)
+    {
+      this.entityClass = entityClass;
+      this.id = id;
+    }
+
+    Class<?> getEntityClass()
+    {
+      return entityClass;
+    }
+
+    Object getId()
+    {
+      return id;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj)
+      {
+        return true;
+      }
+
+      if (!(obj instanceof EntityId))
+      {
+        return false;
+      }
+
+      EntityId other = (EntityId) obj;
+
+      return entityClass.equals(other.entityClass) && id.equals(other.id);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return Objects.hash(entityClass, id);
+    }
+  }
+
+  /**
+   * Hibernate listener for changes of entities and collections.
+   */
+  private class ChangeListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener,
+      PostCollectionRecreateEventListener, PostCollectionUpdateEventListener, PostCollectionRemoveEventListener
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void onPostInsert(PostInsertEvent event)
+    {
+      entityChanged(event.getPersister(), event.getSession());
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event)
+    {
+      entityChanged(event.getPersister(), event.getSession());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event)
+    {
+      entityChanged(event.getPersister(), event.getSession());
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event)
+    {
+      collectionChanged(event);
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event)
+    {
+      collectionChanged(event);
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event)
+    {
+      collectionChanged(event);
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister)
+    {
+      return false;
+    }
+
+    private void entityChanged(EntityPersister persister, EventSource session)
+    {
+      if (isIndexedSpace(Arrays.asList(persister.getQuerySpaces())))
+      {
+        changed(session);
+      }
+    }
+
+    private void collectionChanged(AbstractCollectionEvent event)
+    {
+      String role = event.getCollection().getRole();
+
+      if (role == null || isIndexedSpace(
+          Arrays.asList(sessionFactory.getMetamodel().collectionPersister(role).getCollectionSpaces())))
+      {
+        changed(event.getSession());
+      }
+    }
+  }
+}
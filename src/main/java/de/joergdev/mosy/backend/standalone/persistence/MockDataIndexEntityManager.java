@@ -0,0 +1,448 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.NonUniqueResultException;
+import javax.persistence.Parameter;
+import javax.persistence.Query;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.event.spi.EventSource;
+
+/**
+ * Proxy for a pooled EntityManager which serves queries of the mock configuration from the {@link MockDataIndex}.
+ *
+ * JPQL queries (also named) selecting only indexed entities are answered from the index if indexed, otherwise
+ * executed and their result is indexed. Queries with lock mode, temporal parameters or values that are not immutable
+ * (e.g. dates) and queries unwrapped by the caller are executed only. The index is not used while the EntityManager
+ * has changes not yet flushed, as the query would flush them before. Bulk updates / deletes of indexed entities
+ * clear the index. All other calls are delegated to the EntityManager.
+ *
+ * @author Andreas Joerg
+ */
+class MockDataIndexEntityManager implements InvocationHandler
+{
+  /** value that cannot be indexed */
+  private static final Object UNSUPPORTED = new Object();
+
+  private final EntityManager em;
+  private final MockDataIndex index;
+
+  private MockDataIndexEntityManager(EntityManager em, MockDataIndex index)
+  {
+    this.em = em;
+    this.index = index;
+  }
+
+  static EntityManager wrap(EntityManager em, MockDataIndex index)
+  {
+    index.init();
+
+    return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(),
+        new Class<?>[] {EntityManager.class}, new MockDataIndexEntityManager(em, index));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args)
+    throws Throwable
+  {
+    switch (method.getName())
+    {
+      case "equals":
+        return proxy == args[0];
+
+      case "hashCode":
+        return System.identityHashCode(proxy);
+
+      case "toString":
+        return "MockDataIndexEntityManager[" + em + "]";
+
+      case "createQuery":
+        if (args[0] instanceof String)
+        {
+          return wrapQuery(method, args, (String) args[0]);
+        }
+        break;
+
+      case "createNamedQuery":
+        String namedQuery = index.getNamedQuery((String) args[0]);
+        if (namedQuery != null)
+        {
+          return wrapQuery(method, args, namedQuery);
+        }
+        break;
+
+      default:
+        break;
+    }
+
+    return invokeDelegate(em, method, args);
+  }
+
+  private Object wrapQuery(Method method, Object[] args, String queryString)
+    throws Throwable
+  {
+    Query query = (Query) invokeDelegate(em, method, args);
+
+    MockDataIndex.QueryType queryType = index.getQueryType(queryString);
+    if (queryType == MockDataIndex.QueryType.OTHER)
+    {
+      return query;
+    }
+
+    Class<?> resultClass = args.length > 1 ? (Class<?>) args[1] : null;
+
+    return Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] {method.getReturnType()},
+        new IndexedQuery(query, queryString, resultClass, queryType));
+  }
+
+  private static Object invokeDelegate(Object delegate, Method method, Object[] args)
+    throws Throwable
+  {
+    try
+    {
+      return method.invoke(delegate, args);
+    }
+    catch (InvocationTargetException ex)
+    {
+      throw ex.getCause();
+    }
+  }
+
+  /**
+   * @return boolean - changes would be flushed before a query
+   */
+  private boolean hasUnflushedChanges()
+  {
+    if (!em.getTransaction().isActive())
+    {
+      return false;
+    }
+
+    Session session = em.unwrap(Session.class);
+
+    return session.getHibernateFlushMode() != FlushMode.MANUAL && session.isDirty();
+  }
+
+  /**
+   * @param value - value of result or parameter
+   * @return Object - value to be indexed, {@link #UNSUPPORTED} if the value cannot be indexed
+   */
+  private Object toIndexValue(Object value)
+  {
+    if (value == null || value instanceof String || value instanceof Integer || value instanceof Long
+        || value instanceof Short || value instanceof Byte || value instanceof Double || value instanceof Float
+        || value instanceof BigDecimal || value instanceof BigInteger || value instanceof Boolean
+        || value instanceof Character || value instanceof Enum)
+    {
+      return value;
+    }
+
+    if (value instanceof Object[])
+    {
+      Object[] values = (Object[]) value;
+      Object[] indexValues = new Object[values.length];
+
+      for (int i = 0; i < values.length; i++)
+      {
+        indexValues[i] = toIndexValue(values[i]);
+
+        if (indexValues[i] == UNSUPPORTED || indexValues[i] instanceof Object[])
+        {
+          return UNSUPPORTED;
+        }
+      }
+
+      return indexValues;
+    }
+
+    if (value instanceof Collection)
+    {
+      List<Object> indexValues = new ArrayList<>();
+
+      for (Object element : (Collection<?>) value)
+      {
+        Object indexValue = toIndexValue(element);
+
+        if (indexValue == UNSUPPORTED || indexValue instanceof Object[])
+        {
+          return UNSUPPORTED;
+        }
+
+        indexValues.add(indexValue);
+      }
+
+      return indexValues;
+    }
+
+    MockDataIndex.EntityId entityId = index.getEntityId(value);
+
+    return entityId == null ? UNSUPPORTED : entityId;
+  }
+
+  /**
+   * @param indexValue - indexed value of a result
+   * @return Object - value, entities loaded by find, {@link #UNSUPPORTED} if an entity is not found anymore
+   */
+  private Object fromIndexValue(Object indexValue)
+  {
+    if (indexValue instanceof MockDataIndex.EntityId)
+    {
+      MockDataIndex.EntityId entityId = (MockDataIndex.EntityId) indexValue;
+      Object entity = em.find(entityId.getEntityClass(), entityId.getId());
+
+      return entity == null ? UNSUPPORTED : entity;
+    }
+
+    if (indexValue instanceof Object[])
+    {
+      Object[] indexValues = (Object[]) indexValue;
+      Object[] values = new Object[indexValues.length];
+
+      for (int i = 0; i < indexValues.length; i++)
+      {
+        values[i] = fromIndexValue(indexValues[i]);
+
+        if (values[i] == UNSUPPORTED)
+        {
+          return UNSUPPORTED;
+        }
+      }
+
+      return values;
+    }
+
+    return indexValue;
+  }
+
+  /**
+   * Proxy for a query of indexed entities, records the parameters and hints as key of the index.
+   */
+  private class IndexedQuery implements InvocationHandler
+  {
+    private final Query query;
+    private final String queryString;
+    private final Class<?> resultClass;
+    private final MockDataIndex.QueryType queryType;
+
+    private final Map<Object, Object> parameters = new HashMap<>();
+    private final Map<String, Object> hints = new HashMap<>();
+    private boolean indexable = true;
+
+    private IndexedQuery(Query query, String queryString, Class<?> resultClass, MockDataIndex.QueryType queryType)
+    {
+      this.query = query;
+      this.queryString = queryString;
+      this.resultClass = resultClass;
+      this.queryType = queryType;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+      throws Throwable
+    {
+      switch (method.getName())
+      {
+        case "equals":
+          return proxy == args[0];
+
+        case "hashCode":
+          return System.identityHashCode(proxy);
+
+        case "toString":
+          return "IndexedQuery[" + query + "]";
+
+        case "setParameter":
+          setParameter(args);
+          break;
+
+        case "setHint":
+          Object hint = toIndexValue(args[1]);
+          indexable &= hint != UNSUPPORTED;
+          hints.put((String) args[0], hint);
+          break;
+
+        case "setLockMode":
+        case "unwrap":
+          indexable = false;
+          break;
+
+        case "getResultList":
+          if (queryType == MockDataIndex.QueryType.INDEXED && indexable)
+          {
+            return getResultList();
+          }
+          break;
+
+        case "getSingleResult":
+          if (queryType == MockDataIndex.QueryType.INDEXED && indexable)
+          {
+            return getSingleResult();
+          }
+          break;
+
+        case "executeUpdate":
+          if (queryType == MockDataIndex.QueryType.CHANGES_INDEXED)
+          {
+            index.changed(em.unwrap(EventSource.class));
+          }
+          break;
+
+        default:
+          break;
+      }
+
+      Object result = invokeDelegate(query, method, args);
+
+      // fluent API -> keep the proxy
+      return result == query ? proxy : result;
+    }
+
+    private void setParameter(Object[] args)
+    {
+      Object name = args[0];
+
+      if (name instanceof Parameter)
+      {
+        Parameter<?> parameter = (Parameter<?>) name;
+        name = parameter.getName() == null ? parameter.getPosition() : parameter.getName();
+      }
+
+      // temporal parameters are mutable
+      Object value = args.length == 2 ? toIndexValue(args[1]) : UNSUPPORTED;
+
+      indexable &= value != UNSUPPORTED;
+      parameters.put(name, value);
+    }
+
+    private MockDataIndex.Key getKey()
+    {
+      return new MockDataIndex.Key(queryString, resultClass, new HashMap<>(parameters), query.getFirstResult(),
+          query.getMaxResults(), new HashMap<>(hints));
+    }
+
+    /**
+     * @return List - indexed result, null if not indexed
+     */
+    private List<Object> getIndexedResult(MockDataIndex.Key key)
+    {
+      if (hasUnflushedChanges())
+      {
+        return null;
+      }
+
+      MockDataIndex.Entry entry = index.get(key);
+      if (entry == null)
+      {
+        return null;
+      }
+
+      List<Object> result = new ArrayList<>(entry.getRows().size());
+
+      for (Object row : entry.getRows())
+      {
+        Object value = fromIndexValue(row);
+
+        // deleted in the meantime
+        if (value == UNSUPPORTED)
+        {
+          return null;
+        }
+
+        result.add(value);
+      }
+
+      return result;
+    }
+
+    private void putResult(MockDataIndex.Key key, List<?> result, long generation)
+    {
+      List<Object> rows = new ArrayList<>(result.size());
+
+      for (Object value : result)
+      {
+        Object row = toIndexValue(value);
+
+        if (row == UNSUPPORTED || row instanceof List)
+        {
+          return;
+        }
+
+        rows.add(row);
+      }
+
+      index.put(key, new MockDataIndex.Entry(rows), generation);
+    }
+
+    private List<?> getResultList()
+    {
+      MockDataIndex.Key key = getKey();
+
+      List<Object> indexedResult = getIndexedResult(key);
+      if (indexedResult != null)
+      {
+        return indexedResult;
+      }
+
+      long generation = index.getGeneration();
+
+      List<?> result = query.getResultList();
+      putResult(key, result, generation);
+
+      return result;
+    }
+
+    private Object getSingleResult()
+    {
+      MockDataIndex.Key key = getKey();
+
+      List<Object> indexedResult = getIndexedResult(key);
+      if (indexedResult != null)
+      {
+        if (indexedResult.isEmpty())
+        {
+          throw new NoResultException("No entity found for query");
+        }
+
+        if (indexedResult.size() > 1)
+        {
+          throw new NonUniqueResultException("Query did not return a unique result: " + indexedResult.size());
+        }
+
+        return indexedResult.get(0);
+      }
+
+      long generation = index.getGeneration();
+
+      Object result;
+
+      try
+      {
+        result = query.getSingleResult();
+      }
+      catch (NoResultException ex)
+      {
+        putResult(key, new ArrayList<>(), generation);
+
+        throw ex;
+      }
+
+      List<Object> singleResult = new ArrayList<>();
+      singleResult.add(result);
+      putResult(key, singleResult, generation);
+
+      return result;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import com.zaxxer.hikari.HikariDataSource;
+import de.joergdev.mosy.backend.standalone.cache.ModelChangeListener;
+import de.joergdev.mosy.backend.standalone.pool.PoolMaintenance;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Spring configuration for the persistence unit "db".
+ * 
+ * The EntityManagerFactory is created once by spring and shared by all pooled EntityManagers.
+ * It replaces the EntityManagerFactory auto configured by spring boot and is closed on context shutdown.
+ * 
+ * @author Andreas Joerg
+ */
+@Configuration
+public class PersistenceConfig
+{
+  public static final String PERSISTENCE_UNIT_NAME = "db";
+
+  /**
+   * Storage (file / in-memory / shared database server), snapshot is imported before the EntityManagerFactory
+   * is created and exported after it is closed.
+   * The JDBC URL of a shared database can be set as system property or in application.properties.
+   */
+  @Bean(initMethod = "importSnapshot", destroyMethod = "shutdown")
+  public DbStorage dbStorage(@Value("${" + DbStorage.PROPERTY_DB_URL + ":}") String url,
+                             @Value("${" + DbStorage.PROPERTY_DB_USER + ":}") String user,
+                             @Value("${" + DbStorage.PROPERTY_DB_PASSWORD + ":}") String password)
+  {
+    return new DbStorage(url, user, password);
+  }
+
+  /**
+   * Connection pool, closed after the EntityManagerFactory and before the storage shutdown.
+   */
+  @Bean(destroyMethod = "close")
+  public HikariDataSource dataSource(DbStorage dbStorage, @Value("${MOSY_CLUSTER:false}") boolean cluster,
+                                     MeterRegistry meterRegistry)
+  {
+    return HikariDataSourceFactory.create(dbStorage, cluster, meterRegistry);
+  }
+
+  @Bean
+  public SchemaVersion schemaVersion(DataSource dataSource)
+  {
+    return new SchemaVersion(dataSource);
+  }
+
+  /**
+   * Hibernate is bootstrapped in background, parallel to the creation of the other beans and the web server.
+   * The schema update is skipped if the entity classes are unchanged, see {@link SchemaVersion}.
+   * Connections of read-only requests are marked read-only, see {@link ReadOnlyDataSource}.
+   * Hibernate statistics (metrics hibernate.*) and the query cache are off unless enabled by
+   * MOSY_DB_STATISTICS / MOSY_DB_QUERY_CACHE.
+   */
+  @Bean
+  public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource,
+                                                                     SchemaVersion schemaVersion,
+                                                                     @Value("${MOSY_DB_STATISTICS:false}") boolean statistics,
+                                                                     @Value("${MOSY_DB_QUERY_CACHE:false}") boolean queryCache)
+  {
+    Map<String, Object> jpaProperties = new HashMap<>();
+    jpaProperties.put("hibernate.generate_statistics", String.valueOf(statistics));
+    jpaProperties.put("hibernate.cache.use_query_cache", String.valueOf(queryCache));
+
+    LocalContainerEntityManagerFactoryBean emfBean = new LocalContainerEntityManagerFactoryBean();
+    emfBean.setPersistenceXmlLocation("classpath:META-INF/persistence.xml");
+    emfBean.setPersistenceUnitName(PERSISTENCE_UNIT_NAME);
+    emfBean.setDataSource(new ReadOnlyDataSource(dataSource));
+    emfBean.setPersistenceUnitPostProcessors(schemaVersion);
+    emfBean.setBootstrapExecutor(new SimpleAsyncTaskExecutor("mosy-jpa-bootstrap-"));
+    emfBean.setJpaPropertyMap(jpaProperties);
+
+    return emfBean;
+  }
+
+  /**
+   * Shared maintenance of all pools, stopped on context shutdown after the pools are closed.
+   */
+  @Bean(destroyMethod = "shutdown")
+  public PoolMaintenance poolMaintenance()
+  {
+    return PoolMaintenance.getInstance();
+  }
+
+  /**
+   * Write-behind of recordings, on context shutdown the queue is written before the EntityManagerFactory is closed.
+   */
+  @Bean(destroyMethod = "shutdown")
+  public RecordWriteBehind recordWriteBehind(EntityManagerFactory entityManagerFactory, MeterRegistry meterRegistry)
+  {
+    return new RecordWriteBehind(entityManagerFactory, meterRegistry);
+  }
+
+  /**
+   * Deletes records exceeding the configured limits, stopped before the EntityManagerFactory is closed.
+   */
+  @Bean(initMethod = "start", destroyMethod = "close")
+  public RecordRetention recordRetention(EntityManagerFactory entityManagerFactory, MeterRegistry meterRegistry)
+  {
+    return new RecordRetention(entityManagerFactory, meterRegistry);
+  }
+
+  /**
+   * Index of the mock configuration for the pooled EntityManagers, cleared on changes as {@link ModelChangeListener}.
+   */
+  @Bean
+  public MockDataIndex mockDataIndex(EntityManagerFactory entityManagerFactory, MeterRegistry meterRegistry)
+  {
+    return new MockDataIndex(entityManagerFactory, meterRegistry);
+  }
+
+  @Bean(destroyMethod = "close")
+  @DependsOn("poolMaintenance")
+  public EntityManagerProviderImpl entityManagerProvider(EntityManagerFactory entityManagerFactory,
+                                                         MeterRegistry meterRegistry,
+                                                         RecordWriteBehind recordWriteBehind,
+                                                         MockDataIndex mockDataIndex)
+  {
+    return new EntityManagerProviderImpl(entityManagerFactory, meterRegistry, recordWriteBehind, mockDataIndex);
+  }
+
+  /**
+   * Tenants that may get a partition of the EntityManager pool, reloaded on changes as {@link ModelChangeListener}.
+   */
+  @Bean
+  public KnownTenants knownTenants(EntityManagerFactory entityManagerFactory)
+  {
+    return new KnownTenants(entityManagerFactory);
+  }
+
+  /**
+   * Selects the partition of the EntityManager pool per request (if partitioned), registered in JerseyConfig.
+   */
+  @Bean
+  public PoolPartitionFilter poolPartitionFilter(EntityManagerProviderImpl entityManagerProvider,
+                                                 KnownTenants knownTenants)
+  {
+    return new PoolPartitionFilter(entityManagerProvider, knownTenants);
+  }
+
+  /**
+   * Marks mock service calls for the record write-behind (if enabled), registered in JerseyConfig.
+   */
+  @Bean
+  public RecordWriteBehindFilter recordWriteBehindFilter(RecordWriteBehind recordWriteBehind)
+  {
+    return new RecordWriteBehindFilter(recordWriteBehind);
+  }
+
+  /**
+   * Routes read-only requests to the read-only EntityManager pool (if enabled), registered in JerseyConfig.
+   */
+  @Bean
+  public ReadOnlyRequestFilter readOnlyRequestFilter(EntityManagerProviderImpl entityManagerProvider)
+  {
+    return new ReadOnlyRequestFilter(entityManagerProvider);
+  }
+}
@@ -0,0 +1,80 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.util.List;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import de.joergdev.mosy.backend.api.impl.RecordConfig;
+import de.joergdev.mosy.backend.api.impl.RecordSessions;
+import de.joergdev.mosy.backend.api.impl.Records;
+import de.joergdev.mosy.shared.Utils;
+
+/**
+ * Selects the partition of the EntityManager pool for the current request, see
+ * {@link EntityManagerProviderImpl#setPartition(String, String)}.
+ *
+ * The request filter runs after matching of the resource, before the EntityManager is taken from the pool.
+ * The partition is the tenant (id of tenant as value of the configured request header, see
+ * {@link EntityManagerProviderImpl#SYSTEM_PROPERTY_PARTITION_TENANT_HEADER}) if configured and the tenant exists
+ * (see {@link KnownTenants}), otherwise the traffic class of the API class: mock service calls, records or admin API.
+ * The traffic class is the fallback if the max count of tenant partitions is reached.
+ *
+ * @author Andreas Joerg
+ */
+public class PoolPartitionFilter implements ContainerRequestFilter
+{
+  private final EntityManagerProviderImpl entityManagerProvider;
+  private final KnownTenants knownTenants;
+
+  public PoolPartitionFilter(EntityManagerProviderImpl entityManagerProvider, KnownTenants knownTenants)
+  {
+    this.entityManagerProvider = entityManagerProvider;
+    this.knownTenants = knownTenants;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext)
+  {
+    if (!entityManagerProvider.isPartitioned())
+    {
+      return;
+    }
+
+    List<Object> matchedResources = requestContext.getUriInfo().getMatchedResources();
+
+    String trafficClass = matchedResources.isEmpty()
+        ? EntityManagerProviderImpl.PARTITION_ADMIN
+        : getTrafficClass(matchedResources.get(0).getClass());
+
+    String tenantHeader = entityManagerProvider.getPartitionTenantHeader();
+    if (tenantHeader != null)
+    {
+      String tenant = requestContext.getHeaderString(tenantHeader);
+
+      if (!Utils.isEmpty(tenant) && knownTenants.isKnown(tenant))
+      {
+        entityManagerProvider.setPartition(EntityManagerProviderImpl.PARTITION_TENANT_PREFIX + tenant, trafficClass);
+
+        return;
+      }
+    }
+
+    entityManagerProvider.setPartition(trafficClass, trafficClass);
+  }
+
+  private static String getTrafficClass(Class<?> resourceClass)
+  {
+    if (MockServices.class.isAssignableFrom(resourceClass))
+    {
+      return EntityManagerProviderImpl.PARTITION_MOCK;
+    }
+
+    if (Records.class.isAssignableFrom(resourceClass) || RecordSessions.class.isAssignableFrom(resourceClass)
+        || RecordConfig.class.isAssignableFrom(resourceClass))
+    {
+      return EntityManagerProviderImpl.PARTITION_RECORDS;
+    }
+
+    return EntityManagerProviderImpl.PARTITION_ADMIN;
+  }
+}
@@ -0,0 +1,71 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * DataSource of the EntityManagerFactory, marks connections obtained by a thread in a read-only request
+ * (see {@link #setCurrentReadOnly(boolean)}) as read-only.
+ * The read-only flag is reset by the connection pool when the connection is given back.
+ * 
+ * @author Andreas Joerg
+ */
+public class ReadOnlyDataSource extends DelegatingDataSource
+{
+  private static final ThreadLocal<Boolean> CURRENT_READ_ONLY = new ThreadLocal<>();
+
+  public ReadOnlyDataSource(DataSource targetDataSource)
+  {
+    super(targetDataSource);
+  }
+
+  /**
+   * @param readOnly - true if the current thread only reads, false to reset
+   */
+  public static void setCurrentReadOnly(boolean readOnly)
+  {
+    if (readOnly)
+    {
+      CURRENT_READ_ONLY.set(Boolean.TRUE);
+    }
+    else
+    {
+      CURRENT_READ_ONLY.remove();
+    }
+  }
+
+  /**
+   * @return boolean - true if the current thread only reads
+   */
+  public static boolean isCurrentReadOnly()
+  {
+    return CURRENT_READ_ONLY.get() != null;
+  }
+
+  @Override
+  public Connection getConnection()
+    throws SQLException
+  {
+    return prepare(super.getConnection());
+  }
+
+  @Override
+  public Connection getConnection(String username, String password)
+    throws SQLException
+  {
+    return prepare(super.getConnection(username, password));
+  }
+
+  private static Connection prepare(Connection con)
+    throws SQLException
+  {
+    if (isCurrentReadOnly())
+    {
+      con.setReadOnly(true);
+    }
+
+    return con;
+  }
+}
@@ -0,0 +1,66 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.persistence.EntityManager;
+
+/**
+ * Proxy for a pooled read-only EntityManager, see {@link ReadOnlyEntityManagerPoolMethodsImpl}.
+ * 
+ * The session does not flush, so changes would be lost silently: persist / merge / remove / flush fail with an
+ * IllegalStateException instead. All other calls are delegated to the EntityManager.
+ * 
+ * @author Andreas Joerg
+ */
+class ReadOnlyEntityManager implements InvocationHandler
+{
+  private final EntityManager em;
+
+  private ReadOnlyEntityManager(EntityManager em)
+  {
+    this.em = em;
+  }
+
+  static EntityManager wrap(EntityManager em)
+  {
+    return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(),
+        new Class<?>[] {EntityManager.class}, new ReadOnlyEntityManager(em));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args)
+    throws Throwable
+  {
+    switch (method.getName())
+    {
+      case "equals":
+        return proxy == args[0];
+
+      case "hashCode":
+        return System.identityHashCode(proxy);
+
+      case "toString":
+        return "ReadOnlyEntityManager[" + em + "]";
+
+      case "persist":
+      case "merge":
+      case "remove":
+      case "flush":
+        throw new IllegalStateException(method.getName() + " not allowed on read-only EntityManager");
+
+      default:
+        break;
+    }
+
+    try
+    {
+      return method.invoke(em, args);
+    }
+    catch (InvocationTargetException ex)
+    {
+      throw ex.getCause();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import de.joergdev.mosy.shared.Utils;
+
+/**
+ * Pool methods for read-only EntityManagers, used for requests that only read (see {@link ReadOnlyRequestFilter}).
+ * 
+ * The sessions never flush (FlushMode.MANUAL) and load entities read-only, so hibernate keeps no snapshots for dirty
+ * checking. The JDBC connections are marked read-only by {@link ReadOnlyDataSource}.
+ * Writes fail, except recordings deferred by the write-behind (see {@link RecordWriteBehind}).
+ * All other settings are the same as for the EntityManager pool, except the max size
+ * (system property {@value #SYSTEM_PROPERTY_MAX_POOL_SIZE_READ_ONLY}, default max size of the EntityManager pool).
+ * The pool is enabled by system property {@value #SYSTEM_PROPERTY_READ_ONLY_POOL}.
+ * 
+ * @author Andreas Joerg
+ */
+public class ReadOnlyEntityManagerPoolMethodsImpl extends EntityManagerPoolMethodsImpl
+{
+  public static final String SYSTEM_PROPERTY_READ_ONLY_POOL = "MOSY_DB_READ_ONLY_POOL";
+  public static final String SYSTEM_PROPERTY_MAX_POOL_SIZE_READ_ONLY = "MOSY_DB_MAX_POOL_SIZE_READ_ONLY";
+
+  private final int maxSize;
+
+  public ReadOnlyEntityManagerPoolMethodsImpl(EntityManagerFactory emf, RecordWriteBehind recordWriteBehind,
+                                              MockDataIndex mockDataIndex)
+  {
+    super(emf, recordWriteBehind, mockDataIndex);
+
+    this.maxSize = getMaxPoolSizeReadOnly();
+  }
+
+  /**
+   * @return boolean - read-only pool enabled by system property {@value #SYSTEM_PROPERTY_READ_ONLY_POOL}
+   */
+  static boolean isEnabled()
+  {
+    return Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_READ_ONLY_POOL));
+  }
+
+  @Override
+  public EntityManager getNewObj()
+  {
+    EntityManager em = getEmf().createEntityManager();
+
+    Session session = em.unwrap(Session.class);
+    session.setHibernateFlushMode(FlushMode.MANUAL);
+    session.setDefaultReadOnly(true);
+
+    em = ReadOnlyEntityManager.wrap(em);
+
+    // recordings of mock calls are written by the write-behind with its own EntityManager
+    RecordWriteBehind recordWriteBehind = getRecordWriteBehind();
+    if (recordWriteBehind != null && recordWriteBehind.isEnabled())
+    {
+      em = WriteBehindEntityManager.wrap(em, recordWriteBehind);
+    }
+
+    return wrapMockDataIndex(em);
+  }
+
+  @Override
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  @Override
+  public int getMinIdle()
+  {
+    return Math.min(super.getMinIdle(), maxSize);
+  }
+
+  /**
+   * @return int - max pool size by system property {@value #SYSTEM_PROPERTY_MAX_POOL_SIZE_READ_ONLY}
+   */
+  static int getMaxPoolSizeReadOnly()
+  {
+    String sysProp = Utils.getSystemProperty(SYSTEM_PROPERTY_MAX_POOL_SIZE_READ_ONLY);
+
+    return Utils.isEmpty(sysProp) ? getMaxPoolSize() : Utils.asInteger(sysProp);
+  }
+}
@@ -0,0 +1,83 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import de.joergdev.mosy.backend.api.impl.Interfaces;
+import de.joergdev.mosy.backend.api.impl.MockData;
+import de.joergdev.mosy.backend.api.impl.MockProfiles;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import de.joergdev.mosy.backend.api.impl.Records;
+
+/**
+ * Routes requests that only read to the read-only EntityManager pool (if enabled), see
+ * {@link EntityManagerProviderImpl#setReadOnly(boolean)}.
+ * 
+ * Read-only are GET / HEAD requests of the API classes known to only read (lookups of the mock configuration and the
+ * recordings, see {@link #READ_ONLY_RESOURCES}), mock service calls only if configured
+ * (system property {@value EntityManagerProviderImpl#SYSTEM_PROPERTY_READ_ONLY_MOCK_CALLS}), as they may write
+ * recordings (enable the record write-behind then, see {@link RecordWriteBehind}). GET requests of other API classes
+ * (e.g. system, tenants) may write and use the default pool.
+ * The request filter runs after matching of the resource, before the EntityManager is taken from the pool.
+ * 
+ * @author Andreas Joerg
+ */
+public class ReadOnlyRequestFilter implements ContainerRequestFilter
+{
+  /** API classes whose GET / HEAD requests only read */
+  static final List<Class<?>> READ_ONLY_RESOURCES = Collections
+      .unmodifiableList(Arrays.asList(Interfaces.class, MockData.class, MockProfiles.class, Records.class));
+
+  private final EntityManagerProviderImpl entityManagerProvider;
+
+  public ReadOnlyRequestFilter(EntityManagerProviderImpl entityManagerProvider)
+  {
+    this.entityManagerProvider = entityManagerProvider;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext)
+  {
+    if (!entityManagerProvider.isReadOnlyPoolEnabled())
+    {
+      return;
+    }
+
+    List<Object> matchedResources = requestContext.getUriInfo().getMatchedResources();
+    if (matchedResources.isEmpty())
+    {
+      return;
+    }
+
+    Class<?> resourceClass = matchedResources.get(0).getClass();
+
+    if (MockServices.class.isAssignableFrom(resourceClass))
+    {
+      if (entityManagerProvider.isReadOnlyMockCalls())
+      {
+        entityManagerProvider.setReadOnly(true);
+      }
+    }
+    else if ((HttpMethod.GET.equals(requestContext.getMethod()) || HttpMethod.HEAD.equals(requestContext.getMethod()))
+             && isReadOnlyResource(resourceClass))
+    {
+      entityManagerProvider.setReadOnly(true);
+    }
+  }
+
+  private static boolean isReadOnlyResource(Class<?> resourceClass)
+  {
+    for (Class<?> readOnlyResource : READ_ONLY_RESOURCES)
+    {
+      if (readOnlyResource.isAssignableFrom(resourceClass))
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,566 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import org.apache.log4j.Logger;
+import de.joergdev.mosy.backend.persistence.model.Interface;
+import de.joergdev.mosy.backend.persistence.model.InterfaceMethod;
+import de.joergdev.mosy.backend.persistence.model.Record;
+import de.joergdev.mosy.backend.persistence.model.RecordPathParam;
+import de.joergdev.mosy.backend.persistence.model.RecordSession;
+import de.joergdev.mosy.backend.persistence.model.RecordUrlArgument;
+import de.joergdev.mosy.backend.persistence.model.Tenant;
+import de.joergdev.mosy.shared.Utils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Retention of recordings, deletes periodically the oldest records (with path params and url arguments) exceeding
+ * <ul>
+ * <li>max age in ms ({@value #SYSTEM_PROPERTY_MAX_AGE})</li>
+ * <li>max records per interface ({@value #SYSTEM_PROPERTY_MAX_PER_INTERFACE})</li>
+ * <li>max records per tenant ({@value #SYSTEM_PROPERTY_MAX_PER_TENANT})</li>
+ * <li>max records in total ({@value #SYSTEM_PROPERTY_MAX_TOTAL})</li>
+ * </ul>
+ * Record sessions without records are deleted as well, if created before the max age and at least one interval ago
+ * (so a session just started keeps existing until its first record).
+ * Records are deleted by bulk deletes in batches, one transaction per batch.
+ * Disabled if no limit is configured.
+ * 
+ * The creation time is the attribute {@value #ATTRIBUTE_CREATED} of Record and RecordSession, ids and references
+ * (interface, tenant, record session) are resolved via the JPA metamodel.
+ * 
+ * @author Andreas Joerg
+ */
+public class RecordRetention
+{
+  private static final Logger LOG = Logger.getLogger(RecordRetention.class);
+
+  public static final String SYSTEM_PROPERTY_MAX_AGE = "MOSY_RECORDS_MAX_AGE";
+  public static final String SYSTEM_PROPERTY_MAX_PER_INTERFACE = "MOSY_RECORDS_MAX_PER_INTERFACE";
+  public static final String SYSTEM_PROPERTY_MAX_PER_TENANT = "MOSY_RECORDS_MAX_PER_TENANT";
+  public static final String SYSTEM_PROPERTY_MAX_TOTAL = "MOSY_RECORDS_MAX_TOTAL";
+  public static final String SYSTEM_PROPERTY_INTERVAL = "MOSY_RECORDS_RETENTION_INTERVAL";
+  public static final String SYSTEM_PROPERTY_BATCH_SIZE = "MOSY_RECORDS_RETENTION_BATCH_SIZE";
+
+  private static final long UNLIMITED = -1;
+  private static final long DEFAULT_INTERVAL = 600000;
+  private static final int DEFAULT_BATCH_SIZE = 500;
+
+  /** creation time of Record and RecordSession in the model */
+  static final String ATTRIBUTE_CREATED = "created";
+
+  private static final List<Class<?>> CHILD_ENTITY_CLASSES = Arrays.asList(RecordPathParam.class,
+      RecordUrlArgument.class);
+
+  private final EntityManagerFactory emf;
+
+  private final long maxAge;
+  private final long maxPerInterface;
+  private final long maxPerTenant;
+  private final long maxTotal;
+  private final long interval;
+  private final int batchSize;
+
+  private final Counter deleted;
+  private final Counter deletedSessions;
+
+  private ScheduledExecutorService executor;
+
+  public RecordRetention(EntityManagerFactory emf, MeterRegistry meterRegistry)
+  {
+    this.emf = emf;
+
+    maxAge = getLongProperty(SYSTEM_PROPERTY_MAX_AGE, UNLIMITED);
+    maxPerInterface = getLongProperty(SYSTEM_PROPERTY_MAX_PER_INTERFACE, UNLIMITED);
+    maxPerTenant = getLongProperty(SYSTEM_PROPERTY_MAX_PER_TENANT, UNLIMITED);
+    maxTotal = getLongProperty(SYSTEM_PROPERTY_MAX_TOTAL, UNLIMITED);
+    interval = getLongProperty(SYSTEM_PROPERTY_INTERVAL, DEFAULT_INTERVAL);
+    batchSize = (int) getLongProperty(SYSTEM_PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+
+    deleted = Counter.builder("mosy.records.retention.deleted").description("Records deleted by retention")
+        .register(meterRegistry);
+    deletedSessions = Counter.builder("mosy.records.retention.sessions.deleted")
+        .description("Record sessions without records deleted by retention").register(meterRegistry);
+  }
+
+  public boolean isEnabled()
+  {
+    return maxAge > 0 || maxPerInterface >= 0 || maxPerTenant >= 0 || maxTotal >= 0;
+  }
+
+  /**
+   * @return boolean - true if a limit is configured, so the retention will be enabled
+   */
+  static boolean isConfigured()
+  {
+    return getLongProperty(SYSTEM_PROPERTY_MAX_AGE, UNLIMITED) > 0
+           || getLongProperty(SYSTEM_PROPERTY_MAX_PER_INTERFACE, UNLIMITED) >= 0
+           || getLongProperty(SYSTEM_PROPERTY_MAX_PER_TENANT, UNLIMITED) >= 0
+           || getLongProperty(SYSTEM_PROPERTY_MAX_TOTAL, UNLIMITED) >= 0;
+  }
+
+  /**
+   * Schedules the retention, first run after one interval.
+   */
+  public void start()
+  {
+    if (!isEnabled())
+    {
+      return;
+    }
+
+    executor = Executors.newSingleThreadScheduledExecutor(r ->
+    {
+      Thread thread = new Thread(r, "mosy-record-retention");
+      thread.setDaemon(true);
+
+      return thread;
+    });
+
+    executor.scheduleWithFixedDelay(() ->
+    {
+      try
+      {
+        run();
+      }
+      catch (RuntimeException ex)
+      {
+        LOG.error("Record retention failed: " + ex.getMessage(), ex);
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+
+    LOG.info("Record retention enabled (maxAge=" + maxAge + ", maxPerInterface=" + maxPerInterface + ", maxPerTenant="
+             + maxPerTenant + ", maxTotal=" + maxTotal + ", interval=" + interval + ")");
+  }
+
+  /**
+   * Deletes the records exceeding the limits and the record sessions without records.
+   * 
+   * @return int - count of deleted records
+   */
+  public int run()
+  {
+    long timeStart = System.currentTimeMillis();
+    int count = 0;
+
+    if (maxAge > 0)
+    {
+      count += deleteOlderThan(timeStart - maxAge);
+    }
+
+    if (maxPerInterface >= 0)
+    {
+      count += deleteExceedingPerGroup(maxPerInterface, this::getInterfaceIdPath);
+    }
+
+    if (maxPerTenant >= 0)
+    {
+      count += deleteExceedingPerGroup(maxPerTenant, this::getTenantIdPath);
+    }
+
+    if (maxTotal >= 0)
+    {
+      count += deleteExceeding(maxTotal, null, null);
+    }
+
+    int sessions = deleteEmptySessions(timeStart - Math.max(maxAge, interval));
+
+    if (count > 0 || sessions > 0)
+    {
+      LOG.info("Record retention deleted " + count + " records and " + sessions + " record sessions in "
+               + (System.currentTimeMillis() - timeStart) + " ms");
+    }
+
+    return count;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private int deleteOlderThan(long timeMillis)
+  {
+    SingularAttribute<?, ?> created = getCreatedAttribute(Record.class);
+    Comparable threshold = (Comparable) toTemporal(timeMillis, created.getJavaType());
+
+    return deleteBatched(Integer.MAX_VALUE, (em, limit) ->
+    {
+      CriteriaBuilder cb = em.getCriteriaBuilder();
+      CriteriaQuery<Object> query = cb.createQuery(Object.class);
+      Root<Record> root = query.from(Record.class);
+
+      Path<Comparable> createdPath = root.get(created.getName());
+
+      query.select(getIdPath(root)).where(cb.lessThan(createdPath, threshold)).orderBy(cb.asc(getIdPath(root)));
+
+      return em.createQuery(query).setMaxResults(limit).getResultList();
+    }, this::deleteRecords, deleted);
+  }
+
+  /**
+   * Deletes the oldest records of each group (e.g. interface) exceeding max.
+   * 
+   * @param max - max records per group
+   * @param groupIdPath - path of the group id of a record
+   * @return int - count of deleted records
+   */
+  private int deleteExceedingPerGroup(long max, Function<Root<Record>, Path<Object>> groupIdPath)
+  {
+    EntityManager em = emf.createEntityManager();
+
+    List<Object[]> countsPerGroup;
+    try
+    {
+      CriteriaBuilder cb = em.getCriteriaBuilder();
+      CriteriaQuery<Object[]> query = cb.createQuery(Object[].class);
+      Root<Record> root = query.from(Record.class);
+      Path<Object> groupId = groupIdPath.apply(root);
+
+      query.multiselect(groupId, cb.count(root)).groupBy(groupId).having(cb.gt(cb.count(root), max));
+
+      countsPerGroup = em.createQuery(query).getResultList();
+    }
+    finally
+    {
+      em.close();
+    }
+
+    int count = 0;
+
+    for (Object[] countPerGroup : countsPerGroup)
+    {
+      count += deleteExceeding(max, groupIdPath, countPerGroup[0]);
+    }
+
+    return count;
+  }
+
+  /**
+   * Deletes the oldest records exceeding max.
+   * 
+   * @param max - max records
+   * @param groupIdPath - path of the group id of a record, null for all records
+   * @param groupId - records of the group, null for all records
+   * @return int - count of deleted records
+   */
+  private int deleteExceeding(long max, Function<Root<Record>, Path<Object>> groupIdPath, Object groupId)
+  {
+    EntityManager em = emf.createEntityManager();
+
+    long total;
+    try
+    {
+      CriteriaBuilder cb = em.getCriteriaBuilder();
+      CriteriaQuery<Long> query = cb.createQuery(Long.class);
+      Root<Record> root = query.from(Record.class);
+      query.select(cb.count(root));
+
+      if (groupIdPath != null)
+      {
+        query.where(cb.equal(groupIdPath.apply(root), groupId));
+      }
+
+      total = em.createQuery(query).getSingleResult();
+    }
+    finally
+    {
+      em.close();
+    }
+
+    if (total <= max)
+    {
+      return 0;
+    }
+
+    return deleteBatched(total - max, (batchEm, limit) ->
+    {
+      CriteriaBuilder cb = batchEm.getCriteriaBuilder();
+      CriteriaQuery<Object> query = cb.createQuery(Object.class);
+      Root<Record> root = query.from(Record.class);
+      query.select(getIdPath(root)).orderBy(cb.asc(getIdPath(root)));
+
+      if (groupIdPath != null)
+      {
+        query.where(cb.equal(groupIdPath.apply(root), groupId));
+      }
+
+      return batchEm.createQuery(query).setMaxResults(limit).getResultList();
+    }, this::deleteRecords, deleted);
+  }
+
+  /**
+   * Deletes the record sessions without records created before the time.
+   * 
+   * @param timeMillis - creation time
+   * @return int - count of deleted record sessions
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private int deleteEmptySessions(long timeMillis)
+  {
+    SingularAttribute<?, ?> created = getCreatedAttribute(RecordSession.class);
+    Comparable threshold = (Comparable) toTemporal(timeMillis, created.getJavaType());
+
+    String sessionAttribute = getReferenceAttribute(Record.class, RecordSession.class);
+    String sessionId = getIdAttribute(RecordSession.class);
+
+    return deleteBatched(Integer.MAX_VALUE, (em, limit) ->
+    {
+      CriteriaBuilder cb = em.getCriteriaBuilder();
+      CriteriaQuery<Object> query = cb.createQuery(Object.class);
+      Root<RecordSession> root = query.from(RecordSession.class);
+
+      Subquery<Integer> records = query.subquery(Integer.class);
+      Root<Record> record = records.from(Record.class);
+      records.select(cb.literal(1)).where(cb.equal(record.get(sessionAttribute), root));
+
+      Path<Comparable> createdPath = root.get(created.getName());
+
+      query.select(root.get(sessionId)).where(cb.lessThan(createdPath, threshold), cb.not(cb.exists(records)))
+          .orderBy(cb.asc(root.get(sessionId)));
+
+      return em.createQuery(query).setMaxResults(limit).getResultList();
+    }, (em, ids) ->
+    {
+      CriteriaDelete<RecordSession> delete = em.getCriteriaBuilder().createCriteriaDelete(RecordSession.class);
+      delete.where(delete.from(RecordSession.class).get(sessionId).in(ids));
+
+      em.createQuery(delete).executeUpdate();
+    }, deletedSessions);
+  }
+
+  /**
+   * Deletes entities in batches.
+   * 
+   * @param max - max entities to delete
+   * @param idSelector - selects ids of entities to delete, oldest first, up to the given limit
+   * @param deleter - deletes the entities with the ids
+   * @param counter - Counter of deleted entities
+   * @return int - count of deleted entities
+   */
+  private int deleteBatched(long max, BiFunction<EntityManager, Integer, List<Object>> idSelector,
+                            BiConsumer<EntityManager, List<Object>> deleter, Counter counter)
+  {
+    int count = 0;
+
+    while (count < max)
+    {
+      int limit = (int) Math.min(batchSize, max - count);
+
+      EntityManager em = emf.createEntityManager();
+
+      try
+      {
+        EntityTransaction tx = em.getTransaction();
+        tx.begin();
+
+        try
+        {
+          List<Object> ids = idSelector.apply(em, limit);
+
+          if (!ids.isEmpty())
+          {
+            deleter.accept(em, ids);
+          }
+
+          tx.commit();
+
+          count += ids.size();
+          counter.increment(ids.size());
+
+          if (ids.size() < limit)
+          {
+            break;
+          }
+        }
+        finally
+        {
+          if (tx.isActive())
+          {
+            tx.rollback();
+          }
+        }
+      }
+      finally
+      {
+        em.close();
+      }
+    }
+
+    return count;
+  }
+
+  private void deleteRecords(EntityManager em, List<Object> ids)
+  {
+    CriteriaBuilder cb = em.getCriteriaBuilder();
+
+    for (Class<?> childClass : CHILD_ENTITY_CLASSES)
+    {
+      deleteChildren(em, cb, childClass, ids);
+    }
+
+    CriteriaDelete<Record> delete = cb.createCriteriaDelete(Record.class);
+    Root<Record> root = delete.from(Record.class);
+    delete.where(getIdPath(root).in(ids));
+
+    em.createQuery(delete).executeUpdate();
+  }
+
+  private <T> void deleteChildren(EntityManager em, CriteriaBuilder cb, Class<T> childClass, List<Object> ids)
+  {
+    CriteriaDelete<T> delete = cb.createCriteriaDelete(childClass);
+    Root<T> root = delete.from(childClass);
+    delete.where(root.get(getReferenceAttribute(childClass, Record.class)).get(getIdAttribute(Record.class)).in(ids));
+
+    em.createQuery(delete).executeUpdate();
+  }
+
+  private Path<Object> getIdPath(Root<Record> root)
+  {
+    return root.get(getIdAttribute(Record.class));
+  }
+
+  /**
+   * Record -&gt; Interface or Record -&gt; InterfaceMethod -&gt; Interface
+   */
+  private Path<Object> getInterfaceIdPath(Root<Record> root)
+  {
+    String interfaceId = getIdAttribute(Interface.class);
+
+    if (findReferenceAttribute(Record.class, Interface.class).isPresent())
+    {
+      return root.get(getReferenceAttribute(Record.class, Interface.class)).get(interfaceId);
+    }
+
+    return root.get(getReferenceAttribute(Record.class, InterfaceMethod.class))
+        .get(getReferenceAttribute(InterfaceMethod.class, Interface.class)).get(interfaceId);
+  }
+
+  /**
+   * Record -&gt; Tenant or the tenant of the interface
+   */
+  private Path<Object> getTenantIdPath(Root<Record> root)
+  {
+    String tenantId = getIdAttribute(Tenant.class);
+
+    if (findReferenceAttribute(Record.class, Tenant.class).isPresent())
+    {
+      return root.get(getReferenceAttribute(Record.class, Tenant.class)).get(tenantId);
+    }
+
+    Path<Object> iface = findReferenceAttribute(Record.class, Interface.class).isPresent()
+        ? root.get(getReferenceAttribute(Record.class, Interface.class))
+        : root.get(getReferenceAttribute(Record.class, InterfaceMethod.class))
+            .get(getReferenceAttribute(InterfaceMethod.class, Interface.class));
+
+    return iface.get(getReferenceAttribute(Interface.class, Tenant.class)).get(tenantId);
+  }
+
+  private String getIdAttribute(Class<?> entityClass)
+  {
+    EntityType<?> entityType = emf.getMetamodel().entity(entityClass);
+
+    return entityType.getId(entityType.getIdType().getJavaType()).getName();
+  }
+
+  private String getReferenceAttribute(Class<?> entityClass, Class<?> referencedClass)
+  {
+    return findReferenceAttribute(entityClass, referencedClass).orElseThrow(() -> new IllegalStateException(
+        entityClass.getSimpleName() + " has no reference to " + referencedClass.getSimpleName()));
+  }
+
+  private Optional<String> findReferenceAttribute(Class<?> entityClass, Class<?> referencedClass)
+  {
+    return emf.getMetamodel().entity(entityClass).getSingularAttributes().stream()
+        .filter(a -> a.isAssociation() && referencedClass.equals(a.getJavaType())).map(Attribute::getName)
+        .findFirst();
+  }
+
+  /**
+   * @param entityClass - Record or RecordSession
+   * @return SingularAttribute - creation time
+   * @throws IllegalStateException - if the model has no temporal attribute {@value #ATTRIBUTE_CREATED}
+   */
+  private SingularAttribute<?, ?> getCreatedAttribute(Class<?> entityClass)
+  {
+    SingularAttribute<?, ?> created = emf.getMetamodel().entity(entityClass).getSingularAttributes().stream()
+        .filter(a -> ATTRIBUTE_CREATED.equals(a.getName())).findFirst().orElse(null);
+
+    if (created == null || !isTemporal(created.getJavaType()))
+    {
+      throw new IllegalStateException(entityClass.getSimpleName() + " has no creation time attribute "
+                                      + ATTRIBUTE_CREATED);
+    }
+
+    return created;
+  }
+
+  private static boolean isTemporal(Class<?> type)
+  {
+    return Date.class.isAssignableFrom(type) || Calendar.class.isAssignableFrom(type)
+           || LocalDateTime.class.equals(type) || Instant.class.equals(type);
+  }
+
+  private static Object toTemporal(long timeMillis, Class<?> type)
+  {
+    if (LocalDateTime.class.equals(type))
+    {
+      return LocalDateTime.ofInstant(Instant.ofEpochMilli(timeMillis), ZoneId.systemDefault());
+    }
+
+    if (Instant.class.equals(type))
+    {
+      return Instant.ofEpochMilli(timeMillis);
+    }
+
+    if (Calendar.class.isAssignableFrom(type))
+    {
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(timeMillis);
+
+      return calendar;
+    }
+
+    return new Timestamp(timeMillis);
+  }
+
+  /**
+   * Stops the retention, called by spring on shutdown.
+   */
+  public void close()
+  {
+    if (executor != null)
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  private static long getLongProperty(String name, long defaultValue)
+  {
+    String sysProp = Utils.getSystemProperty(name);
+
+    return Utils.isEmpty(sysProp) ? defaultValue : Long.parseLong(sysProp);
+  }
+}
@@ -0,0 +1,387 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.SingularAttribute;
+import org.apache.log4j.Logger;
+import de.joergdev.mosy.backend.persistence.model.Record;
+import de.joergdev.mosy.backend.persistence.model.RecordPathParam;
+import de.joergdev.mosy.backend.persistence.model.RecordUrlArgument;
+import de.joergdev.mosy.shared.Utils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Write-behind for recordings ({@link Record}, {@link RecordPathParam}, {@link RecordUrlArgument}).
+ * 
+ * If enabled (system property {@value #SYSTEM_PROPERTY_ENABLED}=true), pooled EntityManagers do not persist these
+ * entities on the request path of mock service calls (marked by {@link RecordWriteBehindFilter}), see
+ * {@link WriteBehindEntityManager}. With commit of the request transaction they are put into a queue bounded by
+ * the count of entities and written by a background thread, many recordings in one transaction
+ * (JDBC batching via hibernate.jdbc.batch_size / hibernate.order_inserts).
+ * If the queue is full the request either waits (policy BLOCK) or the recording is dropped (policy DROP).
+ * On shutdown the queue is written completely.
+ * 
+ * Recordings of mock service calls are visible for queries with a short delay, records saved via API are
+ * persisted as usual.
+ * 
+ * @author Andreas Joerg
+ */
+public class RecordWriteBehind
+{
+  private static final Logger LOG = Logger.getLogger(RecordWriteBehind.class);
+
+  public static final String SYSTEM_PROPERTY_ENABLED = "MOSY_RECORD_WRITE_BEHIND";
+  public static final String SYSTEM_PROPERTY_QUEUE_SIZE = "MOSY_RECORD_WRITE_BEHIND_QUEUE_SIZE";
+  public static final String SYSTEM_PROPERTY_BATCH_SIZE = "MOSY_RECORD_WRITE_BEHIND_BATCH_SIZE";
+  public static final String SYSTEM_PROPERTY_POLICY = "MOSY_RECORD_WRITE_BEHIND_POLICY";
+
+  private static final int DEFAULT_QUEUE_SIZE = 10000;
+  private static final int DEFAULT_BATCH_SIZE = 100;
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 30000;
+  private static final int LOG_DROPPED_EVERY = 1000;
+
+  private static final Set<Class<?>> DEFERRED_ENTITY_CLASSES = Collections
+      .unmodifiableSet(new HashSet<>(Arrays.asList(Record.class, RecordPathParam.class, RecordUrlArgument.class)));
+
+  /** current thread executes a mock service call */
+  private static final ThreadLocal<Boolean> MOCK_CALL = new ThreadLocal<>();
+
+  /** Behaviour if queue is full */
+  public enum OverflowPolicy
+  {
+    /** request waits until there is space in queue */
+    BLOCK,
+    /** recording is dropped */
+    DROP
+  }
+
+  private final EntityManagerFactory emf;
+  private final boolean enabled;
+  private final int batchSize;
+  private final OverflowPolicy policy;
+  private final int queueSize;
+
+  /** entities persisted in one transaction */
+  private final BlockingQueue<List<Object>> queue = new LinkedBlockingQueue<>();
+  /** free space of the queue in entities, released after the entities are written */
+  private final Semaphore capacity;
+  private Thread writer;
+  private volatile boolean stopped;
+
+  private final Counter written;
+  private final Counter dropped;
+  private final Counter failed;
+
+  public RecordWriteBehind(EntityManagerFactory emf, MeterRegistry meterRegistry)
+  {
+    this.emf = emf;
+
+    enabled = Boolean.parseBoolean(Utils.getSystemProperty(SYSTEM_PROPERTY_ENABLED));
+    batchSize = getIntProperty(SYSTEM_PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+
+    String sysPropPolicy = Utils.getSystemProperty(SYSTEM_PROPERTY_POLICY);
+    policy = Utils.isEmpty(sysPropPolicy) ? OverflowPolicy.BLOCK : OverflowPolicy.valueOf(sysPropPolicy.toUpperCase());
+
+    queueSize = getIntProperty(SYSTEM_PROPERTY_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+    capacity = new Semaphore(queueSize);
+
+    written = Counter.builder("mosy.records.writebehind.written").description("Recorded entities written")
+        .register(meterRegistry);
+    dropped = Counter.builder("mosy.records.writebehind.dropped")
+        .description("Recorded entities dropped because queue was full").register(meterRegistry);
+    failed = Counter.builder("mosy.records.writebehind.failed")
+        .description("Recorded entities that could not be written").register(meterRegistry);
+    Gauge.builder("mosy.records.writebehind.queue", capacity, c -> queueSize - c.availablePermits())
+        .description("Recorded entities waiting to be written").register(meterRegistry);
+
+    if (enabled)
+    {
+      writer = new Thread(this::runWriter, "mosy-record-writer");
+      writer.setDaemon(true);
+      writer.start();
+
+      LOG.info("Record write-behind enabled (policy=" + policy + ", batchSize=" + batchSize + ")");
+    }
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * Marks the current thread as executing a mock service call, only recordings of mock service calls are deferred.
+   * 
+   * @param mockCall - boolean
+   */
+  public static void setMockCall(boolean mockCall)
+  {
+    if (mockCall)
+    {
+      MOCK_CALL.set(Boolean.TRUE);
+    }
+    else
+    {
+      MOCK_CALL.remove();
+    }
+  }
+
+  /**
+   * @param entity - entity to persist
+   * @return boolean - true if persisting the entity is deferred to the background writer
+   */
+  public boolean isDeferred(Object entity)
+  {
+    return enabled && Boolean.TRUE.equals(MOCK_CALL.get()) && entity != null
+           && DEFERRED_ENTITY_CLASSES.contains(entity.getClass());
+  }
+
+  /**
+   * Enqueues the entities persisted in a committed transaction, in order of persist.
+   * 
+   * @param entities - List
+   */
+  public void enqueue(List<Object> entities)
+  {
+    // writer already stopped (shutdown) -> write directly
+    if (stopped)
+    {
+      write(Collections.singletonList(entities));
+
+      return;
+    }
+
+    int permits = getPermits(entities);
+
+    if (policy == OverflowPolicy.DROP)
+    {
+      if (!capacity.tryAcquire(permits))
+      {
+        long droppedBefore = (long) dropped.count();
+        dropped.increment(entities.size());
+
+        if (droppedBefore / LOG_DROPPED_EVERY != (droppedBefore + entities.size()) / LOG_DROPPED_EVERY
+            || droppedBefore == 0)
+        {
+          LOG.warn("Record write-behind queue full, recorded entities dropped: " + (long) dropped.count());
+        }
+
+        return;
+      }
+    }
+    else
+    {
+      try
+      {
+        capacity.acquire(permits);
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+
+        write(Collections.singletonList(entities));
+
+        return;
+      }
+    }
+
+    queue.add(entities);
+  }
+
+  /**
+   * @return int - space of the entities in the queue, a transaction with more entities than the queue size takes
+   *         the whole queue
+   */
+  private int getPermits(List<Object> entities)
+  {
+    return Math.min(entities.size(), queueSize);
+  }
+
+  private void runWriter()
+  {
+    List<List<Object>> batch = new ArrayList<>();
+
+    while (!stopped || !queue.isEmpty())
+    {
+      try
+      {
+        List<Object> first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null)
+        {
+          continue;
+        }
+
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+
+        try
+        {
+          write(batch);
+        }
+        finally
+        {
+          batch.forEach(entities -> capacity.release(getPermits(entities)));
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        // shutdown -> write remaining entries
+        stopped = true;
+      }
+      catch (RuntimeException ex)
+      {
+        LOG.error(ex.getMessage(), ex);
+      }
+      finally
+      {
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Writes the recordings in one transaction.
+   */
+  private void write(List<List<Object>> recordings)
+  {
+    int count = 0;
+    for (List<Object> entities : recordings)
+    {
+      count += entities.size();
+    }
+
+    EntityManager em = emf.createEntityManager();
+
+    try
+    {
+      EntityTransaction tx = em.getTransaction();
+      tx.begin();
+
+      try
+      {
+        attachReferences(em, recordings);
+
+        for (List<Object> entities : recordings)
+        {
+          entities.forEach(em::persist);
+        }
+
+        tx.commit();
+
+        written.increment(count);
+      }
+      catch (RuntimeException ex)
+      {
+        if (tx.isActive())
+        {
+          tx.rollback();
+        }
+
+        failed.increment(count);
+
+        LOG.error("Writing " + count + " recorded entities failed: " + ex.getMessage(), ex);
+      }
+    }
+    finally
+    {
+      em.close();
+    }
+  }
+
+  /**
+   * Replaces the entities referenced by the recordings (e.g. interface method, record session), which belong to the
+   * EntityManager of the request (already given back to the pool), by references of the writing EntityManager.
+   */
+  private void attachReferences(EntityManager em, List<List<Object>> recordings)
+  {
+    PersistenceUnitUtil puUtil = emf.getPersistenceUnitUtil();
+
+    Set<Object> recorded = Collections.newSetFromMap(new IdentityHashMap<>());
+    recordings.forEach(recorded::addAll);
+
+    for (Object entity : recorded)
+    {
+      for (SingularAttribute<?, ?> attribute : emf.getMetamodel().entity(entity.getClass()).getSingularAttributes())
+      {
+        if (!attribute.isAssociation())
+        {
+          continue;
+        }
+
+        Object referenced = DbUtils.getAttributeValue(entity, attribute.getJavaMember());
+        if (referenced == null || recorded.contains(referenced))
+        {
+          continue;
+        }
+
+        Object id = puUtil.getIdentifier(referenced);
+        if (id != null)
+        {
+          DbUtils.setAttributeValue(entity, attribute.getJavaMember(), em.getReference(attribute.getJavaType(), id));
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops accepting entries for the queue and writes the remaining entries.
+   * Called by spring on shutdown before the EntityManagerFactory is closed.
+   */
+  public void shutdown()
+  {
+    stopped = true;
+
+    if (writer == null)
+    {
+      return;
+    }
+
+    try
+    {
+      writer.join(SHUTDOWN_TIMEOUT_MILLIS);
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+
+    if (writer.isAlive())
+    {
+      LOG.warn("Record write-behind did not finish within " + SHUTDOWN_TIMEOUT_MILLIS + " ms, " + queue.size()
+               + " recordings not written");
+
+      return;
+    }
+
+    // enqueued concurrently after writer finished
+    List<List<Object>> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    if (!remaining.isEmpty())
+    {
+      write(remaining);
+      remaining.forEach(entities -> capacity.release(getPermits(entities)));
+    }
+  }
+
+  private static int getIntProperty(String name, int defaultValue)
+  {
+    String sysProp = Utils.getSystemProperty(name);
+
+    return Utils.isEmpty(sysProp) ? defaultValue : Utils.asInteger(sysProp);
+  }
+}
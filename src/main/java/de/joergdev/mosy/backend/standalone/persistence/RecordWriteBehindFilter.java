@@ -0,0 +1,41 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.util.List;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+
+/**
+ * Marks mock service calls for the record write-behind (if enabled), only their recordings are deferred,
+ * see {@link RecordWriteBehind#setMockCall(boolean)}.
+ * 
+ * The request filter runs after matching of the resource, the mark is removed at the end of the request
+ * ({@link EntityManagerProviderImpl#endRequestScope()}).
+ * 
+ * @author Andreas Joerg
+ */
+public class RecordWriteBehindFilter implements ContainerRequestFilter
+{
+  private final RecordWriteBehind recordWriteBehind;
+
+  public RecordWriteBehindFilter(RecordWriteBehind recordWriteBehind)
+  {
+    this.recordWriteBehind = recordWriteBehind;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext)
+  {
+    if (!recordWriteBehind.isEnabled())
+    {
+      return;
+    }
+
+    List<Object> matchedResources = requestContext.getUriInfo().getMatchedResources();
+
+    if (!matchedResources.isEmpty() && MockServices.class.isAssignableFrom(matchedResources.get(0).getClass()))
+    {
+      RecordWriteBehind.setMockCall(true);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import javax.sql.DataSource;
+import org.apache.log4j.Logger;
+import org.springframework.orm.jpa.persistenceunit.MutablePersistenceUnitInfo;
+import org.springframework.orm.jpa.persistenceunit.PersistenceUnitPostProcessor;
+
+/**
+ * Skips the schema update of hibernate (hibernate.hbm2ddl.auto) at startup if the entity classes
+ * are unchanged since the last update.
+ * 
+ * The schema version is a checksum of the entity classes, stored in table {@value #TABLE} after the update.
+ * 
+ * @author Andreas Joerg
+ */
+public class SchemaVersion implements PersistenceUnitPostProcessor
+{
+  private static final Logger LOG = Logger.getLogger(SchemaVersion.class);
+
+  static final String TABLE = "MOSY_SCHEMA_VERSION";
+
+  private static final String PROPERTY_HBM2DDL = "hibernate.hbm2ddl.auto";
+  private static final String HBM2DDL_NONE = "none";
+
+  private final DataSource dataSource;
+
+  private volatile String version;
+  private volatile boolean updated;
+
+  public SchemaVersion(DataSource dataSource)
+  {
+    this.dataSource = dataSource;
+  }
+
+  @Override
+  public void postProcessPersistenceUnitInfo(MutablePersistenceUnitInfo pui)
+  {
+    String hbm2ddl = pui.getProperties().getProperty(PROPERTY_HBM2DDL);
+    if (hbm2ddl == null || HBM2DDL_NONE.equals(hbm2ddl))
+    {
+      return;
+    }
+
+    ClassLoader classLoader = pui.getClassLoader() == null ? getClass().getClassLoader() : pui.getClassLoader();
+    version = computeVersion(pui.getManagedClassNames(), classLoader);
+
+    if (version.equals(readStoredVersion()))
+    {
+      pui.getProperties().setProperty(PROPERTY_HBM2DDL, HBM2DDL_NONE);
+
+      LOG.info("Schema version " + version + " unchanged, skipping schema update");
+    }
+    else
+    {
+      updated = true;
+
+      LOG.info("Schema version changed to " + version + ", updating schema (" + hbm2ddl + ")");
+    }
+  }
+
+  /**
+   * Stores the schema version after the schema update, called when the EntityManagerFactory is created.
+   */
+  public void storeVersion()
+  {
+    if (!updated)
+    {
+      return;
+    }
+
+    try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement())
+    {
+      stmt.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (VERSION VARCHAR(32) NOT NULL)");
+      stmt.execute("DELETE FROM " + TABLE);
+
+      try (PreparedStatement insert = con.prepareStatement("INSERT INTO " + TABLE + " (VERSION) VALUES (?)"))
+      {
+        insert.setString(1, version);
+        insert.executeUpdate();
+      }
+
+      if (!con.getAutoCommit())
+      {
+        con.commit();
+      }
+
+      updated = false;
+    }
+    catch (SQLException ex)
+    {
+      // next start updates the schema again
+      LOG.warn("Storing schema version failed: " + ex.getMessage(), ex);
+    }
+  }
+
+  private String readStoredVersion()
+  {
+    try (Connection con = dataSource.getConnection();
+         Statement stmt = con.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT VERSION FROM " + TABLE))
+    {
+      return rs.next() ? rs.getString(1) : null;
+    }
+    catch (SQLException ex)
+    {
+      // table not existing
+      return null;
+    }
+  }
+
+  private static String computeVersion(List<String> classNames, ClassLoader classLoader)
+  {
+    List<String> sortedClassNames = new ArrayList<>(classNames);
+    Collections.sort(sortedClassNames);
+
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[8192];
+
+    for (String className : sortedClassNames)
+    {
+      crc.update(className.getBytes());
+
+      try (InputStream in = classLoader.getResourceAsStream(className.replace('.', '/') + ".class"))
+      {
+        if (in == null)
+        {
+          continue;
+        }
+
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+          crc.update(buffer, 0, read);
+        }
+      }
+      catch (IOException ex)
+      {
+        throw new IllegalStateException("cannot read class " + className, ex);
+      }
+    }
+
+    return Long.toHexString(crc.getValue());
+  }
+}
@@ -0,0 +1,209 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+/**
+ * Proxy for the EntityManager bound to a thread by {@link EntityManagerProviderImpl}, one per caller of
+ * {@link EntityManagerProviderImpl#getEntityManager()}.
+ *
+ * All callers share the bound EntityManager and its transaction: a caller beginning a transaction while another
+ * caller's transaction is active joins it, its commit is a no-op and its rollback marks the transaction rollback-only.
+ * Only the caller that began the transaction commits or rolls it back. Close is a no-op, the EntityManager is closed
+ * by the pool. All other calls are delegated to the EntityManager.
+ *
+ * @author Andreas Joerg
+ */
+class SharedEntityManager implements InvocationHandler
+{
+  private final EntityManager em;
+  private final Object binding;
+
+  private final SharedTransaction txProxy = new SharedTransaction();
+  /** this caller began the current transaction */
+  private boolean txOwner;
+  /** this caller joined the transaction of another caller */
+  private boolean txJoined;
+  private boolean released;
+
+  private SharedEntityManager(EntityManager em, Object binding)
+  {
+    this.em = em;
+    this.binding = binding;
+  }
+
+  /**
+   * @param em - bound EntityManager
+   * @param binding - binding of the EntityManager to the thread
+   * @return EntityManager - proxy for the caller
+   */
+  static EntityManager wrap(EntityManager em, Object binding)
+  {
+    return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(),
+        new Class<?>[] {EntityManager.class}, new SharedEntityManager(em, binding));
+  }
+
+  /**
+   * @param em - EntityManager
+   * @return SharedEntityManager - handler of the proxy, null if em is no proxy of SharedEntityManager
+   */
+  static SharedEntityManager of(EntityManager em)
+  {
+    if (em != null && Proxy.isProxyClass(em.getClass()))
+    {
+      InvocationHandler handler = Proxy.getInvocationHandler(em);
+
+      if (handler instanceof SharedEntityManager)
+      {
+        return (SharedEntityManager) handler;
+      }
+    }
+
+    return null;
+  }
+
+  Object getBinding()
+  {
+    return binding;
+  }
+
+  EntityManager getEntityManager()
+  {
+    return em;
+  }
+
+  /**
+   * Releases the proxy, a transaction begun by this caller and left active is rolled back.
+   *
+   * @return boolean - false if already released
+   */
+  boolean release()
+  {
+    if (released)
+    {
+      return false;
+    }
+
+    released = true;
+
+    if (txOwner && em.getTransaction().isActive())
+    {
+      em.getTransaction().rollback();
+    }
+
+    txOwner = false;
+    txJoined = false;
+
+    return true;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args)
+    throws Throwable
+  {
+    switch (method.getName())
+    {
+      case "equals":
+        return proxy == args[0];
+
+      case "hashCode":
+        return System.identityHashCode(proxy);
+
+      case "toString":
+        return "SharedEntityManager[" + em + "]";
+
+      case "getTransaction":
+        return txProxy;
+
+      case "close":
+        return null;
+
+      default:
+        break;
+    }
+
+    try
+    {
+      return method.invoke(em, args);
+    }
+    catch (InvocationTargetException ex)
+    {
+      throw ex.getCause();
+    }
+  }
+
+  private class SharedTransaction implements EntityTransaction
+  {
+    @Override
+    public void begin()
+    {
+      EntityTransaction tx = em.getTransaction();
+
+      if (tx.isActive() && !txOwner && !txJoined)
+      {
+        txJoined = true;
+
+        return;
+      }
+
+      tx.begin();
+      txOwner = true;
+    }
+
+    @Override
+    public void commit()
+    {
+      if (txJoined)
+      {
+        txJoined = false;
+
+        return;
+      }
+
+      txOwner = false;
+      em.getTransaction().commit();
+    }
+
+    @Override
+    public void rollback()
+    {
+      if (txJoined)
+      {
+        txJoined = false;
+
+        EntityTransaction tx = em.getTransaction();
+        if (tx.isActive())
+        {
+          tx.setRollbackOnly();
+        }
+
+        return;
+      }
+
+      txOwner = false;
+      em.getTransaction().rollback();
+    }
+
+    @Override
+    public void setRollbackOnly()
+    {
+      em.getTransaction().setRollbackOnly();
+    }
+
+    @Override
+    public boolean getRollbackOnly()
+    {
+      return em.getTransaction().getRollbackOnly();
+    }
+
+    @Override
+    public boolean isActive()
+    {
+      return em.getTransaction().isActive();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+/**
+ * Proxy for a pooled EntityManager which defers persist of recordings to {@link RecordWriteBehind}.
+ * 
+ * Recordings of mock service calls persisted in an active transaction are collected and handed over to the
+ * write-behind after commit of the transaction, on rollback / clear / close they are discarded.
+ * All other calls are delegated to the EntityManager.
+ * 
+ * @author Andreas Joerg
+ */
+class WriteBehindEntityManager implements InvocationHandler
+{
+  private final EntityManager em;
+  private final RecordWriteBehind writeBehind;
+
+  /** recordings persisted in current transaction, only used by the thread holding the EntityManager */
+  private final List<Object> deferred = new ArrayList<>();
+
+  private EntityTransaction tx;
+  private WriteBehindTransaction txProxy;
+
+  private WriteBehindEntityManager(EntityManager em, RecordWriteBehind writeBehind)
+  {
+    this.em = em;
+    this.writeBehind = writeBehind;
+  }
+
+  static EntityManager wrap(EntityManager em, RecordWriteBehind writeBehind)
+  {
+    return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(),
+        new Class<?>[] {EntityManager.class}, new WriteBehindEntityManager(em, writeBehind));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args)
+    throws Throwable
+  {
+    switch (method.getName())
+    {
+      case "equals":
+        return proxy == args[0];
+
+      case "hashCode":
+        return System.identityHashCode(proxy);
+
+      case "toString":
+        return "WriteBehindEntityManager[" + em + "]";
+
+      case "persist":
+        if (writeBehind.isDeferred(args[0]) && em.getTransaction().isActive())
+        {
+          deferred.add(args[0]);
+
+          return null;
+        }
+        break;
+
+      case "getTransaction":
+        return getTransaction();
+
+      case "clear":
+      case "close":
+        deferred.clear();
+        break;
+
+      default:
+        break;
+    }
+
+    try
+    {
+      return method.invoke(em, args);
+    }
+    catch (InvocationTargetException ex)
+    {
+      throw ex.getCause();
+    }
+  }
+
+  private EntityTransaction getTransaction()
+  {
+    EntityTransaction currentTx = em.getTransaction();
+
+    if (txProxy == null || tx != currentTx)
+    {
+      tx = currentTx;
+      txProxy = new WriteBehindTransaction(currentTx);
+    }
+
+    return txProxy;
+  }
+
+  private class WriteBehindTransaction implements EntityTransaction
+  {
+    private final EntityTransaction delegate;
+
+    private WriteBehindTransaction(EntityTransaction delegate)
+    {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void begin()
+    {
+      deferred.clear();
+      delegate.begin();
+    }
+
+    @Override
+    public void commit()
+    {
+      delegate.commit();
+
+      if (!deferred.isEmpty())
+      {
+        List<Object> entities = new ArrayList<>(deferred);
+        deferred.clear();
+
+        writeBehind.enqueue(entities);
+      }
+    }
+
+    @Override
+    public void rollback()
+    {
+      deferred.clear();
+      delegate.rollback();
+    }
+
+    @Override
+    public void setRollbackOnly()
+    {
+      delegate.setRollbackOnly();
+    }
+
+    @Override
+    public boolean getRollbackOnly()
+    {
+      return delegate.getRollbackOnly();
+    }
+
+    @Override
+    public boolean isActive()
+    {
+      return delegate.isActive();
+    }
+  }
+}
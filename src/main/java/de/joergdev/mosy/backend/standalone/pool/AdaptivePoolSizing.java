@@ -0,0 +1,282 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.log4j.Logger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Adapts the max size of an {@link ObjectPool} to the load, between a floor and a ceiling.
+ *
+ * Records the wait and hold times of the pool (as {@link IPoolMetrics}, passing all events to the metrics set before)
+ * and decides every interval on the {@link PoolMaintenance} executor (AIMD):
+ * <ul>
+ * <li>grow: borrowers waited longer than the threshold on average, threads are waiting or borrows timed out -&gt;
+ * additive increase, at least to the estimate by Little's law (borrow rate * average hold time, with headroom)</li>
+ * <li>shrink: less than half of the slots were used at peak -&gt; multiplicative decrease, not below the peak use
+ * and the estimate</li>
+ * </ul>
+ * With a {@link PoolBulkhead} the borrowers wait in the bulkhead (the pool never has more borrowers than its max size),
+ * so waits, waiting threads and timeouts for overflow of the bulkhead are included in the grow decision, see
+ * {@link #setBulkhead(PoolBulkhead)}. The floor is raised to {@link PoolBulkhead#getMinPoolSize()}, so the pool does
+ * not shrink below the reserved slots of partitions created after the start.
+ * 
+ * Decisions are logged and published as metrics "mosy.pool.adaptive.*".
+ *
+ * @author Andreas Joerg
+ */
+public class AdaptivePoolSizing implements IPoolMetrics
+{
+  private static final Logger LOG = Logger.getLogger(AdaptivePoolSizing.class);
+
+  /** slots added per grow decision */
+  private static final int INCREASE_STEP = 2;
+  /** factor for the max size per shrink decision */
+  private static final double DECREASE_FACTOR = 0.75;
+  /** shrink if peak use is below this part of the max size */
+  private static final double SHRINK_UTILIZATION = 0.5;
+  /** headroom for the estimate by Little's law */
+  private static final double HEADROOM = 1.25;
+
+  private final ObjectPool<?> pool;
+  private final String poolName;
+  private final int floor;
+  private final int ceiling;
+  private final long interval;
+  private final long waitThresholdNanos;
+
+  private final IPoolMetrics delegate;
+
+  private final LongAdder borrows = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+  private final LongAdder gaveBacks = new LongAdder();
+  private final LongAdder holdNanos = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final AtomicInteger peakInUse = new AtomicInteger();
+
+  private volatile double estimate;
+  private long timeLastAdjust = System.nanoTime();
+
+  private final Counter grown;
+  private final Counter shrunk;
+
+  private ScheduledFuture<?> task;
+
+  private PoolBulkhead<?> bulkhead;
+  private long bulkheadWaitNanos;
+  private long bulkheadTimeouts;
+
+  /**
+   * @param pool - ObjectPool, its current max size is the start value
+   * @param poolName - name of pool, used for logging and as tag of the metrics
+   * @param floor - min value of max size
+   * @param ceiling - max value of max size
+   * @param interval - interval of the decisions in ms
+   * @param waitThresholdMillis - average wait time in ms of borrowers above that the pool grows
+   * @param meterRegistry - MeterRegistry
+   */
+  public AdaptivePoolSizing(ObjectPool<?> pool, String poolName, int floor, int ceiling, long interval,
+                            long waitThresholdMillis, MeterRegistry meterRegistry)
+  {
+    if (floor < 1 || ceiling < floor)
+    {
+      throw new IllegalArgumentException("floor has to be positive and not bigger than ceiling");
+    }
+
+    this.pool = pool;
+    this.poolName = poolName;
+    this.floor = floor;
+    this.ceiling = ceiling;
+    this.interval = interval;
+    this.waitThresholdNanos = waitThresholdMillis * 1000000;
+    this.delegate = pool.getMetrics();
+
+    Tags tags = Tags.of(MicrometerPoolMetrics.TAG_POOL, poolName);
+    String prefix = MicrometerPoolMetrics.METRIC_PREFIX + "adaptive.";
+
+    grown = Counter.builder(prefix + "resized").description("Changes of the max size by adaptive sizing").tags(tags)
+        .tag("direction", "grow").register(meterRegistry);
+    shrunk = Counter.builder(prefix + "resized").description("Changes of the max size by adaptive sizing").tags(tags)
+        .tag("direction", "shrink").register(meterRegistry);
+    Gauge.builder(prefix + "estimate", this, s -> s.estimate)
+        .description("Objects in use estimated by Little's law (borrow rate * hold time)").tags(tags)
+        .register(meterRegistry);
+    Gauge.builder(prefix + "floor", this, AdaptivePoolSizing::getFloor).description("Lower bound of the max size")
+        .tags(tags).register(meterRegistry);
+    Gauge.builder(prefix + "ceiling", this, s -> s.ceiling).description("Upper bound of the max size").tags(tags)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Includes the waits for overflow of the bulkhead of the pool in the grow decision, has to be set before
+   * {@link #start()}.
+   * 
+   * @param bulkhead - PoolBulkhead of the pool
+   */
+  public void setBulkhead(PoolBulkhead<?> bulkhead)
+  {
+    this.bulkhead = bulkhead;
+    this.bulkheadWaitNanos = bulkhead.getOverflowWaitNanos();
+    this.bulkheadTimeouts = bulkhead.getOverflowTimeouts();
+  }
+
+  /**
+   * @return int - floor, at least the min pool size of the bulkhead (may change if partitions are created)
+   */
+  public int getFloor()
+  {
+    return bulkhead == null ? floor : Math.min(ceiling, Math.max(floor, bulkhead.getMinPoolSize()));
+  }
+
+  /**
+   * Starts recording the pool metrics and schedules the decisions.
+   */
+  public void start()
+  {
+    pool.setMaxSize(Math.max(getFloor(), Math.min(ceiling, pool.getMaxSize())));
+    pool.setMetrics(this);
+
+    task = PoolMaintenance.getInstance().schedule(this::adjust, interval);
+
+    LOG.info("Adaptive sizing of pool " + poolName + " enabled (floor=" + getFloor() + ", ceiling=" + ceiling
+             + ", interval=" + interval + ")");
+  }
+
+  /**
+   * Stops the decisions, the current max size is kept.
+   */
+  public void close()
+  {
+    if (task != null)
+    {
+      task.cancel(false);
+    }
+
+    pool.setMetrics(delegate);
+  }
+
+  /**
+   * Decides about the max size by the values recorded since the last decision.
+   */
+  void adjust()
+  {
+    long now = System.nanoTime();
+    long elapsedNanos = Math.max(1, now - timeLastAdjust);
+    timeLastAdjust = now;
+
+    long borrowCount = borrows.sumThenReset();
+    long waitSum = waitNanos.sumThenReset();
+    long gaveBackCount = gaveBacks.sumThenReset();
+    long holdSum = holdNanos.sumThenReset();
+    long timeoutCount = timeouts.sumThenReset();
+    int peak = peakInUse.getAndSet(pool.getActiveCount());
+    int waiting = pool.getPendingCount();
+
+    // each borrow via bulkhead waits in the bulkhead first, then in the pool
+    if (bulkhead != null)
+    {
+      long overflowWaitNanos = bulkhead.getOverflowWaitNanos();
+      long overflowTimeouts = bulkhead.getOverflowTimeouts();
+
+      waitSum += overflowWaitNanos - bulkheadWaitNanos;
+      timeoutCount += overflowTimeouts - bulkheadTimeouts;
+      waiting += bulkhead.getOverflowWaiting();
+
+      bulkheadWaitNanos = overflowWaitNanos;
+      bulkheadTimeouts = overflowTimeouts;
+    }
+
+    long avgWait = borrowCount == 0 ? 0 : waitSum / borrowCount;
+    double avgHold = gaveBackCount == 0 ? 0 : (double) holdSum / gaveBackCount;
+
+    // Little's law: objects in use = arrival rate * time in use
+    estimate = borrowCount * avgHold / elapsedNanos;
+    int estimated = (int) Math.ceil(estimate * HEADROOM);
+
+    int current = pool.getMaxSize();
+    int target = current;
+    String reason = null;
+
+    if (timeoutCount > 0 || waiting > 0 || avgWait > waitThresholdNanos)
+    {
+      target = Math.max(current + INCREASE_STEP, estimated);
+      reason = "avgWait=" + avgWait / 1000 + "us, waiting=" + waiting + ", timeouts=" + timeoutCount;
+    }
+    else if (peak < current * SHRINK_UTILIZATION)
+    {
+      target = Math.max((int) (current * DECREASE_FACTOR), Math.max(peak, estimated));
+      reason = "peak=" + peak;
+    }
+
+    target = Math.max(getFloor(), Math.min(ceiling, target));
+
+    if (target == current)
+    {
+      return;
+    }
+
+    pool.setMaxSize(target);
+
+    // waiters of the bulkhead may use the new overflow
+    if (bulkhead != null && target > current)
+    {
+      bulkhead.maxSizeChanged();
+    }
+
+    (target > current ? grown : shrunk).increment();
+
+    LOG.info("Pool " + poolName + " resized " + current + " -> " + target + " (" + reason + ", estimate="
+             + String.format("%.2f", estimate) + ", borrows=" + borrowCount + ")");
+  }
+
+  @Override
+  public void borrowed(long waitNanos)
+  {
+    delegate.borrowed(waitNanos);
+
+    borrows.increment();
+    this.waitNanos.add(waitNanos);
+
+    int active = pool.getActiveCount();
+    peakInUse.accumulateAndGet(active, Math::max);
+  }
+
+  @Override
+  public void gaveBack(long holdNanos)
+  {
+    delegate.gaveBack(holdNanos);
+
+    gaveBacks.increment();
+    this.holdNanos.add(holdNanos);
+  }
+
+  @Override
+  public void created()
+  {
+    delegate.created();
+  }
+
+  @Override
+  public void validated(boolean valid)
+  {
+    delegate.validated(valid);
+  }
+
+  @Override
+  public void evicted()
+  {
+    delegate.evicted();
+  }
+
+  @Override
+  public void timedOut()
+  {
+    delegate.timedOut();
+
+    timeouts.increment();
+  }
+}
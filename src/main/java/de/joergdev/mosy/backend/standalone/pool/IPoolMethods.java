@@ -1,72 +1,143 @@
-package de.joergdev.mosy.backend.standalone.pool;
-
-/**
- * Interface fuer Methoden die der Pool nutzt.
- * Mit dessen Hilfe kann der Pool dynamisch zur Laufzeit konfiguriert werden.
- * 
- * @author Andreas Joerg
- *
- * @param <T> - type of objects in pool
- */
-public interface IPoolMethods<T>
-{
-  /**
-   * Diese Methode wird aufgerufen, wenn ein Object aus dem Pool geloescht werden soll, weil es zu
-   * lange inaktiv war.
-   * Falls noch Resourcen freigegeben werden muessen kann dies hier erledigt werden.
-   * Zb Schliessen einer DB Connection.
-   * 
-   * @param obj - object in pool
-   */
-  void cleanup(T obj);
-
-  /**
-   * Gibt das Zeitinterval zurueck, in dem die Objekte im Pool auf Gueltigkeit geprueft werden.
-   * 
-   * @return long
-   */
-  long getCheckInterval();
-
-  /**
-   * Gibt ein neues Object zurueck um es dem Pool hinzuzufuegen.
-   * 
-   * @return T
-   */
-  T getNewObj();
-
-  /**
-   * Gibt die Zeit zurueck, wie lange ein Object im Pool gueltig ist, wenn es inaktiv ist.
-   * 
-   * @return long
-   */
-  long getTTL();
-
-  /**
-   * Gibt die maximale Groesse des Pools zurueck.
-   * 
-   * @return int
-   */
-  int getMaxSize();
-
-  /**
-   * Validiert das uebergene Objekt aus dem Pool.
-   * Falls es nicht mehr gueltig ist (-&gt;false) wird es aus dem Pool entfernt.
-   * 
-   * @param obj - object in pool
-   * @return boolean
-   * @see #validateOnGet()
-   */
-  boolean validate(T obj);
-
-  /** 
-   * @return boolean -&gt; wenn true wird {@link #validate(Object)} 
-   *                    beim Holen eines Objekts aus dem Pool aufgerufen
-   */
-  boolean validateOnGet();
-
-  /** 
-   * @return boolean -&gt; wenn true wird {@link #validate(Object)} 
-   *                    bei Rueckgabe eines Objekts in den Pool aufgerufen
-   */
-  boolean validateOnGiveBack();
-}
+package de.joergdev.mosy.backend.standalone.pool;
+
+/**
+ * Interface fuer Methoden die der Pool nutzt.
+ * Mit dessen Hilfe kann der Pool dynamisch zur Laufzeit konfiguriert werden.
+ * 
+ * @author Andreas Joerg
+ *
+ * @param <T> - type of objects in pool
+ */
+public interface IPoolMethods<T>
+{
+  /**
+   * Diese Methode wird aufgerufen, wenn ein Object aus dem Pool geloescht werden soll, weil es zu
+   * lange inaktiv war.
+   * Falls noch Resourcen freigegeben werden muessen kann dies hier erledigt werden.
+   * Zb Schliessen einer DB Connection.
+   * 
+   * @param obj - object in pool
+   */
+  void cleanup(T obj);
+
+  /**
+   * Gibt das Zeitinterval zurueck, in dem die Objekte im Pool auf Gueltigkeit geprueft werden.
+   * Wird nur benoetigt, falls TTL, MaxLifetime, MinIdle oder validateWhileIdle gesetzt ist.
+   * 
+   * @return long
+   */
+  long getCheckInterval();
+
+  /**
+   * Gibt ein neues Object zurueck um es dem Pool hinzuzufuegen.
+   * 
+   * @return T
+   */
+  T getNewObj();
+
+  /**
+   * Gibt die Zeit zurueck, wie lange ein Object im Pool gueltig ist, wenn es inaktiv ist.
+   * 
+   * @return long - {@link ObjectPool#TTL_UNLIMITED} fuer unbegrenzt
+   */
+  long getTTL();
+
+  /**
+   * Gibt die maximale Lebensdauer eines Objekts im Pool zurueck (ab Erzeugung).
+   * Danach wird es bei Rueckgabe bzw. in der Wartung aus dem Pool entfernt.
+   * 
+   * @return long - {@link ObjectPool#LIFETIME_UNLIMITED} fuer unbegrenzt
+   */
+  default long getMaxLifetime()
+  {
+    return ObjectPool.LIFETIME_UNLIMITED;
+  }
+
+  /**
+   * Gibt die Anzahl inaktiver Objekte zurueck, die mindestens im Pool gehalten werden.
+   * Fehlende Objekte werden in der Wartung erzeugt, inaktive Objekte werden nur bis zu dieser Anzahl entfernt.
+   * 
+   * @return int
+   */
+  default int getMinIdle()
+  {
+    return 0;
+  }
+
+  /**
+   * Gibt die maximale Groesse des Pools zurueck.
+   * 
+   * @return int
+   */
+  int getMaxSize();
+
+  /**
+   * Validiert das uebergene Objekt aus dem Pool.
+   * Falls es nicht mehr gueltig ist (-&gt;false) wird es aus dem Pool entfernt.
+   * 
+   * @param obj - object in pool
+   * @return boolean
+   * @see #validateOnGet()
+   */
+  boolean validate(T obj);
+
+  /** 
+   * @return boolean -&gt; wenn true wird {@link #validate(Object)} 
+   *                    beim Holen eines Objekts aus dem Pool aufgerufen
+   */
+  boolean validateOnGet();
+
+  /** 
+   * @return boolean -&gt; wenn true wird {@link #validate(Object)} 
+   *                    bei Rueckgabe eines Objekts in den Pool aufgerufen
+   */
+  boolean validateOnGiveBack();
+
+  /** 
+   * @return boolean -&gt; wenn true wird {@link #validate(Object)} 
+   *                    fuer inaktive Objekte in der Wartung (alle {@link #getCheckInterval()} ms) aufgerufen
+   */
+  default boolean validateWhileIdle()
+  {
+    return false;
+  }
+
+  /**
+   * Gibt die Zeit in Millisekunden zurueck, fuer die ein Objekt ohne erneute Validierung als gueltig gilt.
+   * Beim Holen wird nur validiert, wenn das Objekt laenger inaktiv war (seit Rueckgabe bzw. letzter Validierung),
+   * bei Rueckgabe nur, wenn die letzte Validierung laenger zurueckliegt.
+   * 
+   * @return long - 0 fuer Validierung bei jedem Holen / jeder Rueckgabe
+   * @see #validateOnGet()
+   * @see #validateOnGiveBack()
+   */
+  default long getValidationIdleTime()
+  {
+    return 0;
+  }
+
+  /**
+   * Wird bei jeder Rueckgabe eines Objekts in den Pool aufgerufen (vor der Validierung) und setzt den Zustand
+   * des Objekts zurueck, z.B. Leeren eines Caches.
+   * Falls false zurueckgegeben oder eine Exception geworfen wird, wird das Objekt aus dem Pool entfernt.
+   * 
+   * @param obj - object in pool
+   * @return boolean
+   */
+  default boolean reset(T obj)
+  {
+    return true;
+  }
+
+  /**
+   * Gibt die Zeit in Millisekunden zurueck, die beim Holen eines Objekts maximal gewartet wird,
+   * wenn der Pool ausgeschoepft ist.
+   * Danach wird eine {@link PoolTimeoutException} geworfen.
+   * 
+   * @return long - {@link ObjectPool#TIMEOUT_UNLIMITED} fuer unbegrenztes Warten
+   */
+  default long getBorrowTimeout()
+  {
+    return ObjectPool.TIMEOUT_UNLIMITED;
+  }
+}
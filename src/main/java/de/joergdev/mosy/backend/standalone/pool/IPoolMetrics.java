@@ -0,0 +1,57 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+/**
+ * Interface for recording metrics of an {@link ObjectPool}.
+ * All methods are called on the hot path of the pool and have to be cheap and thread-safe.
+ * 
+ * @author Andreas Joerg
+ * @see ObjectPool#setMetrics(IPoolMetrics)
+ */
+public interface IPoolMetrics
+{
+  /** Records nothing */
+  IPoolMetrics NONE = new IPoolMetrics()
+  {};
+
+  /**
+   * An object was obtained from the pool.
+   * 
+   * @param waitNanos - time waited for the object in nanoseconds
+   */
+  default void borrowed(long waitNanos)
+  {}
+
+  /**
+   * An object was given back to the pool.
+   * 
+   * @param holdNanos - time the object was in use in nanoseconds
+   */
+  default void gaveBack(long holdNanos)
+  {}
+
+  /**
+   * A new object was created for the pool.
+   */
+  default void created()
+  {}
+
+  /**
+   * An object in pool was validated.
+   * 
+   * @param valid - result of validation
+   */
+  default void validated(boolean valid)
+  {}
+
+  /**
+   * An unused object was removed from the pool (TTL exceeded or flushed).
+   */
+  default void evicted()
+  {}
+
+  /**
+   * No object could be obtained within the borrow timeout.
+   */
+  default void timedOut()
+  {}
+}
@@ -0,0 +1,105 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import java.util.concurrent.TimeUnit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link IPoolMetrics} publishing the metrics of an {@link ObjectPool} to a micrometer {@link MeterRegistry}.
+ * 
+ * All meters are named "mosy.pool.*" and tagged with the name of the pool.
+ * Depending on the registry they are available via actuator endpoint /actuator/metrics and JMX.
+ * 
+ * @author Andreas Joerg
+ */
+public class MicrometerPoolMetrics implements IPoolMetrics
+{
+  public static final String METRIC_PREFIX = "mosy.pool.";
+  public static final String TAG_POOL = "pool";
+
+  private final Timer borrowWait;
+  private final Timer hold;
+  private final Counter created;
+  private final Counter validationsValid;
+  private final Counter validationsInvalid;
+  private final Counter evicted;
+  private final Counter timeouts;
+
+  /**
+   * Creates the meters and registers the gauges for the pool.
+   * 
+   * @param registry - MeterRegistry
+   * @param poolName - name of pool, used as tag
+   * @param pool - ObjectPool to register the gauges for
+   */
+  public MicrometerPoolMetrics(MeterRegistry registry, String poolName, ObjectPool<?> pool)
+  {
+    Tags tags = Tags.of(TAG_POOL, poolName);
+
+    borrowWait = Timer.builder(METRIC_PREFIX + "borrow.wait").description("Time waited for an object of the pool")
+        .tags(tags).publishPercentiles(0.5, 0.95, 0.99).publishPercentileHistogram().register(registry);
+    hold = Timer.builder(METRIC_PREFIX + "hold").description("Time an object of the pool was in use").tags(tags)
+        .publishPercentiles(0.5, 0.95, 0.99).publishPercentileHistogram().register(registry);
+
+    created = Counter.builder(METRIC_PREFIX + "created").description("Objects created for the pool").tags(tags)
+        .register(registry);
+    validationsValid = Counter.builder(METRIC_PREFIX + "validations").description("Validations of pool objects")
+        .tags(tags).tag("result", "valid").register(registry);
+    validationsInvalid = Counter.builder(METRIC_PREFIX + "validations").description("Validations of pool objects")
+        .tags(tags).tag("result", "invalid").register(registry);
+    evicted = Counter.builder(METRIC_PREFIX + "evicted").description("Unused objects removed from the pool")
+        .tags(tags).register(registry);
+    timeouts = Counter.builder(METRIC_PREFIX + "timeouts")
+        .description("Requests for an object that ended with borrow timeout").tags(tags).register(registry);
+
+    Gauge.builder(METRIC_PREFIX + "active", pool, ObjectPool::getActiveCount).description("Objects in use")
+        .tags(tags).register(registry);
+    Gauge.builder(METRIC_PREFIX + "idle", pool, ObjectPool::getUnlockedCount).description("Objects not in use")
+        .tags(tags).register(registry);
+    Gauge.builder(METRIC_PREFIX + "pending", pool, ObjectPool::getPendingCount)
+        .description("Threads waiting for an object").tags(tags).register(registry);
+    Gauge.builder(METRIC_PREFIX + "size", pool, ObjectPool::getPoolSize).description("Objects in pool").tags(tags)
+        .register(registry);
+    Gauge.builder(METRIC_PREFIX + "max", pool, ObjectPool::getMaxSize).description("Maximum size of pool")
+        .tags(tags).register(registry);
+  }
+
+  @Override
+  public void borrowed(long waitNanos)
+  {
+    borrowWait.record(waitNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void gaveBack(long holdNanos)
+  {
+    hold.record(holdNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void created()
+  {
+    created.increment();
+  }
+
+  @Override
+  public void validated(boolean valid)
+  {
+    (valid ? validationsValid : validationsInvalid).increment();
+  }
+
+  @Override
+  public void evicted()
+  {
+    evicted.increment();
+  }
+
+  @Override
+  public void timedOut()
+  {
+    timeouts.increment();
+  }
+}
@@ -1,477 +1,1324 @@
-package de.joergdev.mosy.backend.standalone.pool;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import de.joergdev.mosy.shared.Utils;
-
-/**
- * Generic Object Pool.
- * 
- * By passing concurrent=true in the constructor, the pool is thread-safe.
- * 
- * @author Andreas Joerg
- *
- * @param <T> Type of pool objects
- */
-public class ObjectPool<T>
-{
-  public static final long TTL_UNLIMITED = -1;
-
-  private List<PoolObject<T>> poolObjects;
-  private IPoolMethods<T> poolMethodsImpl;
-  private Lock lock;
-
-  /**
-   * Constructor with {@link IPoolMethods} implementation param.
-   * 
-   * NOT threadsafe
-   * 
-   * @param impl - IPoolMethods
-   */
-  public ObjectPool(IPoolMethods<T> impl)
-  {
-    this(false, impl);
-  }
-
-  /**
-  * Constructor with {@link IPoolMethods} implementation param
-  * 
-  * NOT threadsafe
-  * 
-  * @param impl - IPoolMethods
-  * @param initialSize - Initial size of the pools. On startup, this number of objects will be created.
-  */
-  public ObjectPool(IPoolMethods<T> impl, int initialSize)
-  {
-    this(false, impl, initialSize);
-  }
-
-  /**
-   * extended constructor.
-   * 
-   * By passing concurrent=true in the constructor, the pool is thread-safe.
-   * 
-   * @param concurrent - if true pool can handle concurrency
-   * @param impl - IPoolMethods
-   */
-  public ObjectPool(boolean concurrent, IPoolMethods<T> impl)
-  {
-    this(concurrent, impl, 0);
-  }
-
-  /**
-   * extended constructor.
-   * 
-   * By passing concurrent=true in the constructor, the pool is thread-safe.
-   * 
-   * @param concurrent - if true pool can handle concurrency
-   * @param impl - IPoolMethods
-   * @param initialSize - Initial size of the pools. On startup, this number of objects will be created
-   */
-  public ObjectPool(boolean concurrent, IPoolMethods<T> impl, int initialSize)
-  {
-    this(concurrent, impl, concurrent ? new ReentrantLock() : new NullLock(), initialSize);
-  }
-
-  /**
-   * extended constructor.
-   * 
-   * By passing concurrent=true in the constructor, the pool is thread-safe
-   * A lock object must also be passed.
-   * However, if the pool uses concurrent, it is recommended to use the constructor ObjectPool(boolean concurrent, IPoolMethods&lt;T&gt; impl).
-   * Here, a ReentrantLock is automatically set as the lock.
-   * 
-   * @param concurrent - if true pool can handle concurrency
-   * @param impl - IPoolMethods
-   * @param lock - Lock to set
-   */
-  public ObjectPool(boolean concurrent, IPoolMethods<T> impl, Lock lock)
-  {
-    this(concurrent, impl, lock, 0);
-  }
-
-  /**
-   * extended constructor.
-   * 
-   * By passing concurrent=true in the constructor, the pool is thread-safe
-   * A lock object must also be passed.
-   * However, if the pool uses concurrent, it is recommended to use the constructor ObjectPool(boolean concurrent, IPoolMethods&lt;T&gt; impl).
-   * Here, a ReentrantLock is automatically set as the lock.
-   * 
-   * @param concurrent - if true pool can handle concurrency 
-   * @param impl - IPoolMethods
-   * @param lock - Lock to set
-   * @param initialSize - Initial size of the pools. On startup, this number of objects will be created
-   */
-  public ObjectPool(boolean concurrent, IPoolMethods<T> impl, Lock lock, int initialSize)
-  {
-    // check and set impl
-    checkPoolMethodsImpl(impl);
-    this.poolMethodsImpl = impl;
-
-    // set list thread-safe or not
-    poolObjects = concurrent ? new CopyOnWriteArrayList<>() : new ArrayList<>();
-
-    setLock(lock);
-
-    // inital creation of objects in pool (number if objects=initialSize) 
-    initialInit(initialSize);
-
-    if (TTL_UNLIMITED != impl.getTTL())
-    {
-      // start pool-cleaning thread
-      Thread threadClean = new Thread(checkPool);
-      threadClean.setDaemon(true);
-
-      threadClean.start();
-    }
-  }
-
-  /**
-   * @return lock
-   */
-  public Lock getLock()
-  {
-    return lock;
-  }
-
-  /**
-   * Set an lock.
-   * 
-   * @param lock - Lock to set
-   * @throws NullPointerException - if lock is null (use NullLock)
-   * @see NullLock
-   */
-  public void setLock(Lock lock)
-  {
-    if (lock == null)
-    {
-      throw new NullPointerException("lock may not be null");
-    }
-
-    this.lock = lock;
-  }
-
-  /**
-   * Validating IPoolMethods implementation.
-   * 
-   * @param impl - IPoolMethods
-   */
-  private void checkPoolMethodsImpl(IPoolMethods<T> impl)
-  {
-    if (impl == null)
-    {
-      throw new NullPointerException("IPoolMethods Impl may not be null");
-    }
-
-    if (impl.getMaxSize() < 1)
-    {
-      throw new IllegalArgumentException("MaxPoolSize may not be smaller than 1");
-    }
-
-    if (TTL_UNLIMITED != impl.getTTL())
-    {
-      if (impl.getCheckInterval() < 10000)
-      {
-        throw new IllegalArgumentException("CheckInterval may not be smaller than 10 seconds");
-      }
-
-      if (impl.getTTL() < 10000)
-      {
-        throw new IllegalArgumentException("TTL may not be smaller than 10 seconds");
-      }
-    }
-  }
-
-  private void initialInit(int initialSize)
-  {
-    // Validations
-    if (initialSize < 0)
-    {
-      throw new IllegalArgumentException("initialSize may not be negative");
-    }
-
-    if (initialSize == 0)
-    {
-      return;
-    }
-
-    if (initialSize > poolMethodsImpl.getMaxSize())
-    {
-      throw new IllegalArgumentException("initialSize may not be bigger than maxPoolSize");
-    }
-
-    // All fine -> initialise object and put into pool
-    for (int x = 0; x < initialSize; x++)
-    {
-      PoolObject<T> obj = new PoolObject<>(poolMethodsImpl.getNewObj(), false);
-      poolObjects.add(obj);
-    }
-  }
-
-  /**
-   * Internal method to obtain an object from the pool.
-   * 
-   * @return T
-   */
-  public T get()
-  {
-    lock.lock();
-
-    try
-    {
-      PoolObject<T> obj = getFreePoolObject();
-
-      // no free object found
-      if (obj == null)
-      {
-        // Still space in the pool -> create a new object and add it to the pool
-        if (poolObjects.size() < poolMethodsImpl.getMaxSize())
-        {
-          obj = new PoolObject<>(poolMethodsImpl.getNewObj(), true);
-          poolObjects.add(obj);
-        }
-        // No space in pool -> recursive call after delay
-        else
-        {
-          Utils.delay(20);
-
-          return get();
-        }
-      }
-
-      // Validation
-      if (poolMethodsImpl.validateOnGet())
-      {
-        if (!poolMethodsImpl.validate(obj.getObj()))
-        {
-          poolObjects.remove(obj);
-          poolMethodsImpl.cleanup(obj.getObj());
-
-          return get();
-        }
-      }
-
-      return obj.getObj();
-    }
-    finally
-    {
-      lock.unlock();
-    }
-  }
-
-  private PoolObject<T> getFreePoolObject()
-  {
-    for (PoolObject<T> poolObj : poolObjects)
-    {
-      // free object found
-      if (poolObj.isLocked() == false)
-      {
-        poolObj.setLocked(true);
-        return poolObj;
-      }
-    }
-
-    return null;
-  }
-
-  /**
-   * Release the object in pool.
-   * 
-   * @param obj - object in pool
-   */
-  public void giveBack(T obj)
-  {
-    for (PoolObject<T> poolObj : poolObjects)
-    {
-      if (poolObj.getObj().equals(obj))
-      {
-        // Validations
-        if (poolMethodsImpl.validateOnGiveBack())
-        {
-          if (!poolMethodsImpl.validate(obj))
-          {
-            poolObjects.remove(poolObj);
-            poolMethodsImpl.cleanup(obj);
-
-            return;
-          }
-        }
-
-        poolObj.setLocked(false);
-        poolObj.setTimeGaveBack(System.currentTimeMillis());
-
-        return;
-      }
-    }
-  }
-
-  /**
-   * Returns the current number of objects in the pool.
-   * 
-   * @return int
-   */
-  public int getPoolSize()
-  {
-    return poolObjects.size();
-  }
-
-  /**
-   * Returns the number of objects in the pool that are available.
-   * 
-   * @return int
-   */
-  public int getUnlockedCount()
-  {
-    int size = 0;
-
-    for (PoolObject<T> obj : poolObjects)
-    {
-      if (!obj.isLocked())
-      {
-        size++;
-      }
-    }
-
-    return size;
-  }
-
-  /**
-   * Remove all inactive (unlocked) objects from pool.
-   */
-  public void flushPool()
-  {
-    Iterator<PoolObject<T>> it = poolObjects.iterator();
-    while (it.hasNext())
-    {
-      PoolObject<T> poolObj = it.next();
-      boolean unlocked = false;
-
-      try
-      {
-        lock.lock();
-
-        // can only flush if not locked
-        if (!poolObj.isLocked())
-        {
-          poolObj.setLocked(true);
-
-          // before cleanup release lock, because cleanup may take some time and lock is only needed for locking poolObjects
-          lock.unlock();
-          unlocked = true;
-
-          poolObjects.remove(poolObj);
-          poolMethodsImpl.cleanup(poolObj.getObj());
-        }
-      }
-      finally
-      {
-        if (!unlocked)
-        {
-          lock.unlock();
-        }
-      }
-    }
-  }
-
-  /** Runnable for pool cleaning thread */
-  private Runnable checkPool = new Runnable()
-  {
-    @Override
-    public void run()
-    {
-      while (true)
-      {
-        doCheck();
-
-        // delay
-        Utils.delay(poolMethodsImpl.getCheckInterval());
-      }
-    }
-
-    private void doCheck()
-    {
-      Iterator<PoolObject<T>> it = poolObjects.iterator();
-      while (it.hasNext())
-      {
-        PoolObject<T> poolObj = it.next();
-        boolean timeouted = System.currentTimeMillis() - poolObj.getTimeGaveBack() > poolMethodsImpl.getTTL();
-
-        // if not timeouted -> go to next object in pool
-        if (!timeouted)
-        {
-          continue;
-        }
-
-        boolean unlocked = false;
-
-        try
-        {
-          lock.lock();
-
-          // if released and inactive for too long -> cleanup and remove
-          if (!poolObj.isLocked())
-          {
-            poolObj.setLocked(true);
-
-            // before cleanup release lock, because cleanup may take some time and lock is only needed for locking poolObjects
-            lock.unlock();
-            unlocked = true;
-
-            poolObjects.remove(poolObj);
-            poolMethodsImpl.cleanup(poolObj.getObj());
-          }
-        }
-        finally
-        {
-          if (!unlocked)
-          {
-            lock.unlock();
-          }
-        }
-
-      }
-    }
-  };
-
-  private static class NullLock implements Lock
-  {
-    @Override
-    public void lock()
-    {}
-
-    @Override
-    public void lockInterruptibly()
-      throws InterruptedException
-    {}
-
-    @Override
-    public Condition newCondition()
-    {
-      return null;
-    }
-
-    @Override
-    public boolean tryLock()
-    {
-      return false;
-    }
-
-    @Override
-    public boolean tryLock(long time, TimeUnit unit)
-      throws InterruptedException
-    {
-      return false;
-    }
-
-    @Override
-    public void unlock()
-    {}
-  }
-}
+package de.joergdev.mosy.backend.standalone.pool;
+
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Generic Object Pool.
+ * 
+ * By passing concurrent=true in the constructor, the pool is thread-safe.
+ * If all objects are in use, threads requesting an object are queued (FIFO) until an object is given back.
+ * 
+ * Getting and giving back objects is O(1) and needs no lock: free objects are held in a deque (LIFO, so the
+ * most recently used objects are reused first), objects are mapped to their pool slot by identity and the state
+ * of a slot is changed by compare-and-set. The lock is only used to serialize maintenance.
+ * 
+ * Periodic maintenance (TTL, max lifetime, validation while idle, min idle) runs on the shared
+ * {@link PoolMaintenance} executor. New objects are created on this executor as well: if no object is free, the
+ * borrower is queued as waiter and the object created in background is handed over to the longest waiting thread
+ * (a failed creation is thrown to it). If the number of free objects drops below min idle, objects are created in
+ * background ahead of the borrowers. Only borrowers that cannot wait (pool not concurrent, timeout 0) create objects
+ * themselves.
+ * 
+ * A pool that is not needed anymore has to be closed via {@link #close()}.
+ * 
+ * @author Andreas Joerg
+ *
+ * @param <T> Type of pool objects
+ */
+public class ObjectPool<T>
+{
+  public static final long TTL_UNLIMITED = -1;
+  public static final long TIMEOUT_UNLIMITED = -1;
+  public static final long LIFETIME_UNLIMITED = -1;
+
+  private final boolean concurrent;
+  private IPoolMethods<T> poolMethodsImpl;
+  private Lock lock;
+
+  /** All objects in pool, mapped by identity of the pooled object */
+  private final Map<IdentityKey, PoolObject<T>> poolObjects = new ConcurrentHashMap<>();
+  /** Free objects, most recently given back first */
+  private final Deque<PoolObject<T>> idleObjects = new ConcurrentLinkedDeque<>();
+  /** Number of objects in pool, including objects currently created */
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  /** Number of objects currently created in background */
+  private final AtomicInteger pendingCreations = new AtomicInteger();
+  private final AtomicBoolean refillScheduled = new AtomicBoolean();
+  /** Threads waiting for an object, FIFO */
+  private final Queue<Waiter<T>> waiters = new ConcurrentLinkedQueue<>();
+  /** Number of waiting threads not served yet, decremented by the thread handing over the object */
+  private final AtomicInteger waitingCount = new AtomicInteger();
+
+  private volatile IPoolMetrics metrics = IPoolMetrics.NONE;
+  /** initialized by {@link IPoolMethods#getMaxSize()}, may be changed at runtime, see {@link #setMaxSize(int)} */
+  private volatile int maxSize;
+
+  private volatile boolean closed;
+  private final ScheduledFuture<?> maintenanceTask;
+
+  /**
+   * Constructor with {@link IPoolMethods} implementation param.
+   * 
+   * NOT threadsafe
+   * 
+   * @param impl - IPoolMethods
+   */
+  public ObjectPool(IPoolMethods<T> impl)
+  {
+    this(false, impl);
+  }
+
+  /**
+  * Constructor with {@link IPoolMethods} implementation param
+  * 
+  * NOT threadsafe
+  * 
+  * @param impl - IPoolMethods
+  * @param initialSize - Initial size of the pools. On startup, this number of objects will be created.
+  */
+  public ObjectPool(IPoolMethods<T> impl, int initialSize)
+  {
+    this(false, impl, initialSize);
+  }
+
+  /**
+   * extended constructor.
+   * 
+   * By passing concurrent=true in the constructor, the pool is thread-safe.
+   * 
+   * @param concurrent - if true pool can handle concurrency
+   * @param impl - IPoolMethods
+   */
+  public ObjectPool(boolean concurrent, IPoolMethods<T> impl)
+  {
+    this(concurrent, impl, 0);
+  }
+
+  /**
+   * extended constructor.
+   * 
+   * By passing concurrent=true in the constructor, the pool is thread-safe.
+   * 
+   * @param concurrent - if true pool can handle concurrency
+   * @param impl - IPoolMethods
+   * @param initialSize - Initial size of the pools. On startup, this number of objects will be created
+   */
+  public ObjectPool(boolean concurrent, IPoolMethods<T> impl, int initialSize)
+  {
+    this(concurrent, impl, concurrent ? new ReentrantLock(true) : new NullLock(), initialSize);
+  }
+
+  /**
+   * extended constructor.
+   * 
+   * By passing concurrent=true in the constructor, the pool is thread-safe
+   * A lock object must also be passed.
+   * However, if the pool uses concurrent, it is recommended to use the constructor ObjectPool(boolean concurrent, IPoolMethods&lt;T&gt; impl).
+   * Here, a ReentrantLock is automatically set as the lock.
+   * 
+   * @param concurrent - if true pool can handle concurrency
+   * @param impl - IPoolMethods
+   * @param lock - Lock to set
+   */
+  public ObjectPool(boolean concurrent, IPoolMethods<T> impl, Lock lock)
+  {
+    this(concurrent, impl, lock, 0);
+  }
+
+  /**
+   * extended constructor.
+   * 
+   * By passing concurrent=true in the constructor, the pool is thread-safe
+   * A lock object must also be passed.
+   * However, if the pool uses concurrent, it is recommended to use the constructor ObjectPool(boolean concurrent, IPoolMethods&lt;T&gt; impl).
+   * Here, a ReentrantLock is automatically set as the lock.
+   * 
+   * @param concurrent - if true pool can handle concurrency 
+   * @param impl - IPoolMethods
+   * @param lock - Lock to set
+   * @param initialSize - Initial size of the pools. On startup, this number of objects will be created
+   */
+  public ObjectPool(boolean concurrent, IPoolMethods<T> impl, Lock lock, int initialSize)
+  {
+    // check and set impl
+    checkPoolMethodsImpl(impl);
+    this.poolMethodsImpl = impl;
+    this.concurrent = concurrent;
+    this.maxSize = impl.getMaxSize();
+
+    setLock(lock);
+
+    // inital creation of objects in pool (number if objects=initialSize) 
+    initialInit(initialSize);
+
+    // schedule pool maintenance
+    maintenanceTask = isMaintenanceNeeded(impl)
+        ? PoolMaintenance.getInstance().schedule(this::maintain, impl.getCheckInterval())
+        : null;
+  }
+
+  /**
+   * @return lock
+   */
+  public Lock getLock()
+  {
+    return lock;
+  }
+
+  /**
+   * Set an lock.
+   * 
+   * @param lock - Lock to set
+   * @throws NullPointerException - if lock is null (use NullLock)
+   * @see NullLock
+   */
+  public void setLock(Lock lock)
+  {
+    if (lock == null)
+    {
+      throw new NullPointerException("lock may not be null");
+    }
+
+    this.lock = lock;
+  }
+
+  /**
+   * @return IPoolMetrics
+   */
+  public IPoolMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * Set the recorder for pool metrics.
+   * 
+   * @param metrics - IPoolMetrics, {@link IPoolMetrics#NONE} to record nothing
+   * @throws NullPointerException - if metrics is null
+   */
+  public void setMetrics(IPoolMetrics metrics)
+  {
+    if (metrics == null)
+    {
+      throw new NullPointerException("metrics may not be null");
+    }
+
+    this.metrics = metrics;
+  }
+
+  /**
+   * Validating IPoolMethods implementation.
+   * 
+   * @param impl - IPoolMethods
+   */
+  private void checkPoolMethodsImpl(IPoolMethods<T> impl)
+  {
+    if (impl == null)
+    {
+      throw new NullPointerException("IPoolMethods Impl may not be null");
+    }
+
+    if (impl.getMaxSize() < 1)
+    {
+      throw new IllegalArgumentException("MaxPoolSize may not be smaller than 1");
+    }
+
+    if (impl.getMinIdle() < 0 || impl.getMinIdle() > impl.getMaxSize())
+    {
+      throw new IllegalArgumentException("MinIdle may not be negative or bigger than MaxPoolSize");
+    }
+
+    if (TTL_UNLIMITED != impl.getTTL() && impl.getTTL() <= 0)
+    {
+      throw new IllegalArgumentException("TTL has to be positive");
+    }
+
+    if (LIFETIME_UNLIMITED != impl.getMaxLifetime() && impl.getMaxLifetime() <= 0)
+    {
+      throw new IllegalArgumentException("MaxLifetime has to be positive");
+    }
+
+    if (isMaintenanceNeeded(impl) && impl.getCheckInterval() <= 0)
+    {
+      throw new IllegalArgumentException("CheckInterval has to be positive");
+    }
+  }
+
+  private static boolean isMaintenanceNeeded(IPoolMethods<?> impl)
+  {
+    return TTL_UNLIMITED != impl.getTTL() || LIFETIME_UNLIMITED != impl.getMaxLifetime() || impl.getMinIdle() > 0
+           || impl.validateWhileIdle();
+  }
+
+  private void initialInit(int initialSize)
+  {
+    // Validations
+    if (initialSize < 0)
+    {
+      throw new IllegalArgumentException("initialSize may not be negative");
+    }
+
+    if (initialSize == 0)
+    {
+      return;
+    }
+
+    if (initialSize > maxSize)
+    {
+      throw new IllegalArgumentException("initialSize may not be bigger than maxPoolSize");
+    }
+
+    // All fine -> initialise object and put into pool
+    fillToIdle(initialSize);
+  }
+
+  /**
+   * Warm-up: creates objects until the given number of objects is free in the pool (at most max size).
+   * 
+   * @param idleSize - number of free objects
+   */
+  public void prefill(int idleSize)
+  {
+    checkNotClosed();
+
+    fillToIdle(idleSize);
+  }
+
+  /**
+   * Internal method to obtain an object from the pool.
+   * 
+   * If the pool is exhausted the calling thread waits until an object is given back, at most
+   * {@link IPoolMethods#getBorrowTimeout()} milliseconds.
+   * 
+   * @return T
+   * @throws PoolTimeoutException - if no object could be obtained within the borrow timeout
+   */
+  public T get()
+  {
+    return get(poolMethodsImpl.getBorrowTimeout(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Internal method to obtain an object from the pool.
+   * 
+   * If the pool is exhausted the calling thread is queued and waits until an object is given back.
+   * Waiting threads are served in FIFO order, a given back object is handed over directly to the
+   * longest waiting thread.
+   * 
+   * @param timeout - maximum time to wait for an object, {@link #TIMEOUT_UNLIMITED} to wait infinitely
+   * @param unit - TimeUnit of timeout
+   * @return T
+   * @throws PoolTimeoutException - if no object could be obtained within the timeout
+   */
+  public T get(long timeout, TimeUnit unit)
+  {
+    long timeStart = System.nanoTime();
+    long nanosTimeout = timeout < 0 ? TIMEOUT_UNLIMITED : unit.toNanos(timeout);
+    long deadline = timeStart + nanosTimeout;
+
+    while (true)
+    {
+      checkNotClosed();
+
+      PoolObject<T> obj = null;
+
+      // threads already waiting are served first
+      if (waiters.isEmpty())
+      {
+        obj = pollIdlePoolObject();
+
+        // borrower cannot wait for a creation in background -> create the object itself
+        if (obj == null && !isCreationInBackground(nanosTimeout))
+        {
+          obj = tryCreatePoolObject();
+        }
+      }
+
+      // No space in pool -> wait for an object given back
+      if (obj == null)
+      {
+        obj = awaitPoolObject(nanosTimeout, deadline);
+      }
+
+      // Validation (only if inactive for longer than validation idle time)
+      if (poolMethodsImpl.validateOnGet() && needsValidation(obj, true))
+      {
+        if (!validate(obj))
+        {
+          removePoolObject(obj);
+
+          continue;
+        }
+      }
+
+      // handed over objects are still marked as returning, so they cannot be given back before they are borrowed
+      obj.setState(PoolObject.STATE_IN_USE);
+
+      long timeBorrowed = System.nanoTime();
+      obj.setTimeBorrowed(timeBorrowed);
+      metrics.borrowed(timeBorrowed - timeStart);
+
+      // keep min idle objects free for next borrowers
+      triggerRefill();
+
+      return obj.getObj();
+    }
+  }
+
+  /**
+   * Enqueues the current thread as waiter and parks until an object is handed over (given back or created in
+   * background) or an object is free.
+   */
+  private PoolObject<T> awaitPoolObject(long nanosTimeout, long deadline)
+  {
+    // not concurrent -> no other thread may give back an object
+    if (!concurrent)
+    {
+      metrics.timedOut();
+
+      throw new PoolTimeoutException(getExhaustedMessage(0));
+    }
+
+    Waiter<T> waiter = new Waiter<>(Thread.currentThread());
+    waiters.add(waiter);
+    waitingCount.incrementAndGet();
+
+    try
+    {
+      while (true)
+      {
+        PoolObject<T> handedOver = waiter.takeHandedOver();
+        if (handedOver != null)
+        {
+          return handedOver;
+        }
+
+        // check again after enqueue, object may have been given back meanwhile
+        PoolObject<T> obj = pollIdlePoolObject();
+
+        if (obj == null)
+        {
+          if (isCreationInBackground(nanosTimeout))
+          {
+            requestCreations();
+          }
+          else
+          {
+            obj = tryCreatePoolObject();
+          }
+        }
+
+        if (obj != null)
+        {
+          if (waiter.cancel())
+          {
+            return obj;
+          }
+
+          handedOver = waiter.getHandedOver();
+
+          // creation for this waiter failed concurrently -> keep the own object
+          if (handedOver == null)
+          {
+            return obj;
+          }
+
+          // object was handed over concurrently -> keep the handed over one
+          release(obj);
+
+          return handedOver;
+        }
+
+        if (nanosTimeout == TIMEOUT_UNLIMITED)
+        {
+          LockSupport.park(this);
+        }
+        else
+        {
+          long nanosLeft = deadline - System.nanoTime();
+          if (nanosLeft <= 0)
+          {
+            if (waiter.cancel())
+            {
+              metrics.timedOut();
+
+              throw new PoolTimeoutException(getExhaustedMessage(TimeUnit.NANOSECONDS.toMillis(nanosTimeout)));
+            }
+
+            return waiter.takeHandedOver();
+          }
+
+          LockSupport.parkNanos(this, nanosLeft);
+        }
+
+        if (closed)
+        {
+          if (waiter.cancel())
+          {
+            checkNotClosed();
+          }
+
+          return waiter.takeHandedOver();
+        }
+
+        if (Thread.interrupted())
+        {
+          Thread.currentThread().interrupt();
+
+          if (waiter.cancel())
+          {
+            throw new IllegalStateException("interrupted while waiting for object in pool");
+          }
+
+          return waiter.takeHandedOver();
+        }
+      }
+    }
+    finally
+    {
+      // a waiter served with an object or failure is not counted anymore by the serving thread
+      waiter.cancel();
+      if (waiter.isCancelled())
+      {
+        waitingCount.decrementAndGet();
+      }
+
+      // leave queue and wake up next waiter, it may be able to use a free object or the space in the pool
+      if (waiters.remove(waiter) && waiter.getHandedOver() == null)
+      {
+        unparkFirstWaiter();
+      }
+    }
+  }
+
+  private void checkNotClosed()
+  {
+    if (closed)
+    {
+      throw new IllegalStateException("pool is closed");
+    }
+  }
+
+  private String getExhaustedMessage(long timeoutMillis)
+  {
+    return "no object available in pool within " + timeoutMillis + " ms (poolSize=" + size.get() + ", maxSize="
+           + maxSize + ", waiting=" + waitingCount.get() + ")";
+  }
+
+  /**
+   * Takes a free object from the pool and marks it as in use.
+   * 
+   * @return PoolObject or null if no free object
+   */
+  private PoolObject<T> pollIdlePoolObject()
+  {
+    PoolObject<T> obj;
+    while ((obj = idleObjects.pollFirst()) != null)
+    {
+      // object may have been removed from pool meanwhile
+      if (obj.compareAndSetState(PoolObject.STATE_IDLE, PoolObject.STATE_IN_USE))
+      {
+        idleCount.decrementAndGet();
+
+        return obj;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @param nanosTimeout - borrow timeout
+   * @return boolean - true if the borrower waits for objects created in background, false if it has to create
+   *         objects itself (pool not concurrent or borrower does not wait)
+   */
+  private boolean isCreationInBackground(long nanosTimeout)
+  {
+    return concurrent && nanosTimeout != 0;
+  }
+
+  /**
+   * Creates a new object (marked as in use) on the calling thread if there is space in the pool.
+   * 
+   * @return PoolObject or null if pool is full
+   */
+  private PoolObject<T> tryCreatePoolObject()
+  {
+    if (!reserveSpace())
+    {
+      return null;
+    }
+
+    return createPoolObject();
+  }
+
+  /**
+   * Reserves space in the pool for an object to be created.
+   * 
+   * @return boolean - false if pool is full
+   */
+  private boolean reserveSpace()
+  {
+    int currentSize;
+    do
+    {
+      currentSize = size.get();
+      if (currentSize >= maxSize)
+      {
+        return false;
+      }
+    }
+    while (!size.compareAndSet(currentSize, currentSize + 1));
+
+    return true;
+  }
+
+  /**
+   * Creates a new object (marked as in use) in the space reserved by {@link #reserveSpace()}, the space is freed if
+   * the creation fails.
+   */
+  private PoolObject<T> createPoolObject()
+  {
+    try
+    {
+      PoolObject<T> obj = new PoolObject<>(poolMethodsImpl.getNewObj(), PoolObject.STATE_IN_USE);
+      poolObjects.put(new IdentityKey(obj.getObj()), obj);
+      metrics.created();
+
+      return obj;
+    }
+    catch (RuntimeException ex)
+    {
+      size.decrementAndGet();
+      unparkFirstWaiter();
+
+      throw ex;
+    }
+  }
+
+  /**
+   * Creates objects in background for the waiting threads if there is space in the pool, one creation per waiting
+   * thread (including the creations for min idle).
+   */
+  private void requestCreations()
+  {
+    int pending;
+    while (!closed && (pending = pendingCreations.get()) < waitingCount.get())
+    {
+      if (!pendingCreations.compareAndSet(pending, pending + 1))
+      {
+        continue;
+      }
+
+      if (!reserveSpace())
+      {
+        pendingCreations.decrementAndGet();
+
+        return;
+      }
+
+      try
+      {
+        PoolMaintenance.getInstance().execute(this::createForWaiter);
+      }
+      catch (RuntimeException ex)
+      {
+        size.decrementAndGet();
+        pendingCreations.decrementAndGet();
+
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * Creates an object in the reserved space (executed by {@link PoolMaintenance}) and hands it over to the longest
+   * waiting thread. If the creation fails, the exception is handed over to the longest waiting thread instead.
+   */
+  private void createForWaiter()
+  {
+    PoolObject<T> obj;
+
+    try
+    {
+      obj = createPoolObject();
+    }
+    catch (RuntimeException ex)
+    {
+      pendingCreations.decrementAndGet();
+
+      Waiter<T> waiter;
+      while ((waiter = waiters.poll()) != null)
+      {
+        if (waiter.fail(ex))
+        {
+          waitingCount.decrementAndGet();
+          LockSupport.unpark(waiter.thread);
+
+          return;
+        }
+      }
+
+      throw ex;
+    }
+
+    try
+    {
+      release(obj);
+    }
+    finally
+    {
+      creationDone();
+    }
+  }
+
+  /**
+   * Called after a creation in background is finished (handed over, released or failed). Waiters do not request
+   * creations while enough creations are pending, so the first waiter is woken up if waiters are not covered by
+   * pending creations anymore.
+   */
+  private void creationDone()
+  {
+    if (pendingCreations.decrementAndGet() < waitingCount.get())
+    {
+      unparkFirstWaiter();
+    }
+  }
+
+  /**
+   * Removes the object (in use or already marked as removed by the caller) from the pool and cleans it up.
+   */
+  private void removePoolObject(PoolObject<T> obj)
+  {
+    obj.setState(PoolObject.STATE_REMOVED);
+
+    if (poolObjects.remove(new IdentityKey(obj.getObj())) != null)
+    {
+      size.decrementAndGet();
+    }
+
+    poolMethodsImpl.cleanup(obj.getObj());
+
+    // space in pool available -> first waiter may create a new object
+    unparkFirstWaiter();
+  }
+
+  /**
+   * Removes the object from the pool if it is currently not in use.
+   * 
+   * @return boolean - true if removed
+   */
+  private boolean removeIfIdle(PoolObject<T> obj)
+  {
+    if (!obj.compareAndSetState(PoolObject.STATE_IDLE, PoolObject.STATE_REMOVED))
+    {
+      return false;
+    }
+
+    idleCount.decrementAndGet();
+    idleObjects.removeLastOccurrence(obj);
+
+    removePoolObject(obj);
+    metrics.evicted();
+
+    return true;
+  }
+
+  /**
+   * Hands over the object (in use or returning) to the longest waiting thread or puts it back to the free objects.
+   */
+  private void release(PoolObject<T> obj)
+  {
+    Waiter<T> waiter;
+    while ((waiter = waiters.poll()) != null)
+    {
+      // object stays in use, marked as in use by the waiter
+      if (waiter.handOver(obj))
+      {
+        waitingCount.decrementAndGet();
+        LockSupport.unpark(waiter.thread);
+
+        return;
+      }
+    }
+
+    obj.setState(PoolObject.STATE_IDLE);
+    idleCount.incrementAndGet();
+    idleObjects.offerFirst(obj);
+
+    // pool closed meanwhile -> do not keep object
+    if (closed)
+    {
+      removeIfIdle(obj);
+
+      return;
+    }
+
+    // thread may have been enqueued meanwhile -> wake up to take the free object
+    unparkFirstWaiter();
+  }
+
+  /**
+   * Checks if the object has to be validated, see {@link IPoolMethods#getValidationIdleTime()}.
+   * 
+   * @param obj - PoolObject
+   * @param onGet - true: object is taken from pool, it is valid if given back or validated recently,
+   *                false: object is given back, it is valid if validated recently
+   */
+  private boolean needsValidation(PoolObject<T> obj, boolean onGet)
+  {
+    long validationIdleTime = poolMethodsImpl.getValidationIdleTime();
+    if (validationIdleTime <= 0)
+    {
+      return true;
+    }
+
+    long timeLastValid = onGet
+        ? Math.max(obj.getTimeGaveBack(), obj.getTimeValidated())
+        : obj.getTimeValidated();
+
+    return System.currentTimeMillis() - timeLastValid > validationIdleTime;
+  }
+
+  private boolean validate(PoolObject<T> obj)
+  {
+    boolean valid = poolMethodsImpl.validate(obj.getObj());
+    metrics.validated(valid);
+
+    if (valid)
+    {
+      obj.setTimeValidated(System.currentTimeMillis());
+    }
+
+    return valid;
+  }
+
+  private boolean reset(PoolObject<T> obj)
+  {
+    try
+    {
+      return poolMethodsImpl.reset(obj.getObj());
+    }
+    catch (RuntimeException ex)
+    {
+      return false;
+    }
+  }
+
+  private void unparkFirstWaiter()
+  {
+    Waiter<T> waiter = waiters.peek();
+    if (waiter != null)
+    {
+      LockSupport.unpark(waiter.thread);
+    }
+  }
+
+  /**
+   * Release the object in pool.
+   * 
+   * If threads are waiting for an object, the object is handed over directly to the longest waiting thread.
+   * 
+   * @param obj - object in pool
+   */
+  public void giveBack(T obj)
+  {
+    PoolObject<T> poolObj = obj == null ? null : poolObjects.get(new IdentityKey(obj));
+
+    // unknown or already given back, claimed atomically so concurrent give backs of the same object release it once
+    if (poolObj == null || !poolObj.compareAndSetState(PoolObject.STATE_IN_USE, PoolObject.STATE_RETURNING))
+    {
+      return;
+    }
+
+    metrics.gaveBack(System.nanoTime() - poolObj.getTimeBorrowed());
+
+    // Reset state of object (independent of validation)
+    if (!reset(poolObj))
+    {
+      removePoolObject(poolObj);
+
+      return;
+    }
+
+    // Validations (only if not validated within validation idle time)
+    if (poolMethodsImpl.validateOnGiveBack() && needsValidation(poolObj, false))
+    {
+      if (!validate(poolObj))
+      {
+        removePoolObject(poolObj);
+
+        return;
+      }
+    }
+
+    // pool closed, pool shrunk or max lifetime of object exceeded -> remove
+    if (closed || size.get() > maxSize || isLifetimeExceeded(poolObj, System.currentTimeMillis()))
+    {
+      removePoolObject(poolObj);
+      metrics.evicted();
+
+      return;
+    }
+
+    poolObj.setTimeGaveBack(System.currentTimeMillis());
+
+    release(poolObj);
+  }
+
+  /**
+   * @param obj - object
+   * @return boolean - true if the object belongs to the pool
+   */
+  public boolean contains(T obj)
+  {
+    return obj != null && poolObjects.containsKey(new IdentityKey(obj));
+  }
+
+  /**
+   * Returns the current number of objects in the pool.
+   * 
+   * @return int
+   */
+  public int getPoolSize()
+  {
+    return size.get();
+  }
+
+  /**
+   * Returns the number of objects in the pool that are available.
+   * 
+   * @return int
+   */
+  public int getUnlockedCount()
+  {
+    return idleCount.get();
+  }
+
+  /**
+   * Returns the number of objects in the pool that are in use.
+   * 
+   * @return int
+   */
+  public int getActiveCount()
+  {
+    return Math.max(0, size.get() - idleCount.get());
+  }
+
+  /**
+   * Returns the number of threads waiting for an object.
+   * 
+   * @return int
+   */
+  public int getPendingCount()
+  {
+    return waitingCount.get();
+  }
+
+  /**
+   * Returns the maximum size of the pool.
+   * 
+   * @return int
+   */
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * Changes the maximum size of the pool at runtime (e.g. by {@link AdaptivePoolSizing}).
+   * 
+   * If increased, waiting threads may create new objects. If decreased, free objects exceeding the new size are
+   * removed immediately, objects in use are removed on give back.
+   * 
+   * @param maxSize - new maximum size
+   */
+  public void setMaxSize(int maxSize)
+  {
+    if (maxSize < 1)
+    {
+      throw new IllegalArgumentException("MaxPoolSize may not be smaller than 1");
+    }
+
+    int oldMaxSize = this.maxSize;
+    this.maxSize = maxSize;
+
+    if (maxSize > oldMaxSize)
+    {
+      // space in pool available -> first waiter may create a new object
+      unparkFirstWaiter();
+    }
+    else if (maxSize < oldMaxSize)
+    {
+      shrinkToMaxSize();
+    }
+  }
+
+  private void shrinkToMaxSize()
+  {
+    lock.lock();
+
+    try
+    {
+      for (PoolObject<T> poolObj : poolObjects.values())
+      {
+        if (size.get() <= maxSize)
+        {
+          return;
+        }
+
+        removeIfIdle(poolObj);
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove all inactive (unlocked) objects from pool.
+   */
+  public void flushPool()
+  {
+    lock.lock();
+
+    try
+    {
+      for (PoolObject<T> poolObj : poolObjects.values())
+      {
+        // can only flush if not in use
+        removeIfIdle(poolObj);
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the pool.
+   * Stops the maintenance and removes all inactive objects, objects in use are removed on give back.
+   * Threads waiting for an object and further requests get an IllegalStateException.
+   */
+  public void close()
+  {
+    closed = true;
+
+    if (maintenanceTask != null)
+    {
+      maintenanceTask.cancel(false);
+    }
+
+    for (Waiter<T> waiter : waiters)
+    {
+      LockSupport.unpark(waiter.thread);
+    }
+
+    flushPool();
+  }
+
+  /**
+   * @return boolean - true if pool is closed
+   */
+  public boolean isClosed()
+  {
+    return closed;
+  }
+
+  /**
+   * Periodic maintenance, executed by {@link PoolMaintenance} every {@link IPoolMethods#getCheckInterval()} ms.
+   * 
+   * Removes inactive objects that exceeded the max lifetime or the TTL (keeping min idle objects),
+   * validates inactive objects if {@link IPoolMethods#validateWhileIdle()} and refills the pool to min idle.
+   */
+  void maintain()
+  {
+    lock.lock();
+
+    try
+    {
+      long now = System.currentTimeMillis();
+      long ttl = poolMethodsImpl.getTTL();
+
+      for (PoolObject<T> poolObj : poolObjects.values())
+      {
+        if (closed)
+        {
+          return;
+        }
+
+        // objects in use are retired on give back
+        if (isLifetimeExceeded(poolObj, now))
+        {
+          removeIfIdle(poolObj);
+        }
+        // if released and inactive for too long -> cleanup and remove
+        else if (TTL_UNLIMITED != ttl && now - poolObj.getTimeGaveBack() > ttl
+                 && idleCount.get() > poolMethodsImpl.getMinIdle())
+        {
+          removeIfIdle(poolObj);
+        }
+        else if (poolMethodsImpl.validateWhileIdle() && needsValidation(poolObj, true))
+        {
+          validateIfIdle(poolObj);
+        }
+      }
+
+      fillToIdle(poolMethodsImpl.getMinIdle());
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private boolean isLifetimeExceeded(PoolObject<T> obj, long now)
+  {
+    long maxLifetime = poolMethodsImpl.getMaxLifetime();
+
+    return LIFETIME_UNLIMITED != maxLifetime && now - obj.getTimeCreated() > maxLifetime;
+  }
+
+  private void validateIfIdle(PoolObject<T> obj)
+  {
+    // take object out of pool for validation
+    if (!obj.compareAndSetState(PoolObject.STATE_IDLE, PoolObject.STATE_IN_USE))
+    {
+      return;
+    }
+
+    idleCount.decrementAndGet();
+    idleObjects.remove(obj);
+
+    if (validate(obj))
+    {
+      release(obj);
+    }
+    else
+    {
+      removePoolObject(obj);
+    }
+  }
+
+  /**
+   * Creates objects in background if less than min idle objects are free.
+   */
+  private void triggerRefill()
+  {
+    if (!concurrent || closed || idleCount.get() >= poolMethodsImpl.getMinIdle()
+        || size.get() >= maxSize || !refillScheduled.compareAndSet(false, true))
+    {
+      return;
+    }
+
+    try
+    {
+      PoolMaintenance.getInstance().execute(() -> {
+        try
+        {
+          fillToIdle(poolMethodsImpl.getMinIdle());
+        }
+        finally
+        {
+          refillScheduled.set(false);
+        }
+      });
+    }
+    catch (RuntimeException ex)
+    {
+      refillScheduled.set(false);
+
+      throw ex;
+    }
+  }
+
+  /**
+   * Creates objects until the given number of objects is free, objects are handed over to waiting threads first.
+   */
+  private void fillToIdle(int idleSize)
+  {
+    while (!closed && idleCount.get() < idleSize)
+    {
+      pendingCreations.incrementAndGet();
+
+      try
+      {
+        PoolObject<T> obj = tryCreatePoolObject();
+
+        // pool full
+        if (obj == null)
+        {
+          return;
+        }
+
+        release(obj);
+      }
+      finally
+      {
+        creationDone();
+      }
+    }
+  }
+
+  /** Key for mapping pooled objects by identity, also used by {@link PoolBulkhead} */
+  static final class IdentityKey
+  {
+    private final Object obj;
+
+    IdentityKey(Object obj)
+    {
+      this.obj = obj;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return System.identityHashCode(obj);
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+      return other instanceof IdentityKey && ((IdentityKey) other).obj == obj;
+    }
+  }
+
+  /** Thread waiting for an object in pool */
+  private static class Waiter<T>
+  {
+    private static final Object CANCELLED = new Object();
+
+    private final Thread thread;
+    /**
+     * Object handed over by giveBack, failed creation (Failure) or CANCELLED if waiter does not accept objects
+     * anymore
+     */
+    private final AtomicReference<Object> handedOver = new AtomicReference<>();
+
+    private Waiter(Thread thread)
+    {
+      this.thread = thread;
+    }
+
+    /**
+     * @return boolean - false if the waiter does not wait anymore, true if handed over (waiter has to be unparked)
+     */
+    private boolean handOver(PoolObject<T> obj)
+    {
+      return handedOver.compareAndSet(null, obj);
+    }
+
+    /**
+     * Hands over the exception of the creation in background for this waiter.
+     * 
+     * @return boolean - false if the waiter does not wait anymore, true if handed over (waiter has to be unparked)
+     */
+    private boolean fail(RuntimeException ex)
+    {
+      return handedOver.compareAndSet(null, new Failure(ex));
+    }
+
+    /**
+     * @return boolean - true if cancelled, false if an object or failure was handed over before
+     */
+    private boolean cancel()
+    {
+      return handedOver.compareAndSet(null, CANCELLED);
+    }
+
+    private boolean isCancelled()
+    {
+      return handedOver.get() == CANCELLED;
+    }
+
+    /**
+     * @return PoolObject - handed over object, null if none (also if a failure was handed over)
+     */
+    @SuppressWarnings("unchecked")
+    private PoolObject<T> getHandedOver()
+    {
+      Object obj = handedOver.get();
+
+      return obj instanceof PoolObject ? (PoolObject<T>) obj : null;
+    }
+
+    /**
+     * @return PoolObject - handed over object, null if none
+     * @throws RuntimeException - exception of the creation in background, if handed over
+     */
+    private PoolObject<T> takeHandedOver()
+    {
+      Object obj = handedOver.get();
+
+      if (obj instanceof Failure)
+      {
+        throw ((Failure) obj).ex;
+      }
+
+      return getHandedOver();
+    }
+  }
+
+  /** Failed creation in background, handed over to a waiter */
+  private static class Failure
+  {
+    private final RuntimeException ex;
+
+    private Failure(RuntimeException ex)
+    {
+      this.ex = ex;
+    }
+  }
+
+  private static class NullLock implements Lock
+  {
+    @Override
+    public void lock()
+    {}
+
+    @Override
+    public void lockInterruptibly()
+      throws InterruptedException
+    {}
+
+    @Override
+    public Condition newCondition()
+    {
+      return null;
+    }
+
+    @Override
+    public boolean tryLock()
+    {
+      return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit)
+      throws InterruptedException
+    {
+      return false;
+    }
+
+    @Override
+    public void unlock()
+    {}
+  }
+}
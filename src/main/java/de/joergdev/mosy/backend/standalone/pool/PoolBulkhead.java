@@ -0,0 +1,595 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Bulkhead partitions for an {@link ObjectPool}: the objects of the pool are shared by partitions (e.g. traffic
+ * classes or tenants), each partition may use its reserved slots and slots of a shared overflow, at most its limit.
+ *
+ * The overflow is the max size of the pool minus the reserved slots of all partitions. A partition that exhausted its
+ * slots waits until an object of the partition is given back or overflow is free, so a partition with heavy load
+ * cannot starve the other partitions.
+ *
+ * Partitions not configured (e.g. new tenants) are created on first use with the default quota, at most up to the
+ * max count of partitions. Beyond that the requests use their fallback partition, so partition names taken from
+ * requests cannot create an unbounded number of partitions (slot counts, metrics). The reserved slots of partitions
+ * created on first use have to be backed by the current max size of the pool: if they would use up the pool, the
+ * partition is created without reserved slots, if the pool has no overflow left the fallback partition is used.
+ *
+ * A partition without reserved slots depends on the overflow, so the overflow may not be 0 if such partitions exist
+ * or may be created. {@link #getMinPoolSize()} is the lower bound for shrinking the pool.
+ *
+ * Waits for overflow (not for the limit of a partition) are counted, so {@link AdaptivePoolSizing} grows the pool
+ * if the overflow is too small.
+ *
+ * @author Andreas Joerg
+ *
+ * @param <T> Type of pool objects
+ */
+public class PoolBulkhead<T>
+{
+  public static final int UNLIMITED = -1;
+
+  private final ObjectPool<T> pool;
+  private final String poolName;
+  private final MeterRegistry meterRegistry;
+  private final Quota defaultQuota;
+  private final int maxPartitions;
+
+  private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+  /** partition of objects in use, by identity of the pooled object */
+  private final Map<ObjectPool.IdentityKey, Partition> partitionsInUse = new ConcurrentHashMap<>();
+
+  /** Guards the slot counts, instead of synchronized it does not pin virtual threads */
+  private final Lock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  private volatile int reservedTotal;
+  private int overflowInUse;
+  /** threads waiting for overflow, not for the limit of their partition */
+  private volatile int overflowWaiting;
+
+  private final LongAdder overflowWaits = new LongAdder();
+  private final LongAdder overflowWaitNanos = new LongAdder();
+  private final LongAdder overflowTimeouts = new LongAdder();
+
+  /**
+   * @param pool - ObjectPool
+   * @param poolName - name of pool, used as tag of the metrics
+   * @param quotas - quotas by partition name
+   * @param defaultQuota - quota for partitions not configured
+   * @param maxPartitions - max count of partitions (configured and created on first use), {@link #UNLIMITED}
+   * @param meterRegistry - MeterRegistry for the partition metrics
+   * @throws IllegalArgumentException - if the reserved slots exceed the max size of the pool or the pool has no
+   *         overflow but partitions without reserved slots
+   */
+  public PoolBulkhead(ObjectPool<T> pool, String poolName, Map<String, Quota> quotas, Quota defaultQuota,
+                      int maxPartitions, MeterRegistry meterRegistry)
+  {
+    this.pool = pool;
+    this.poolName = poolName;
+    this.meterRegistry = meterRegistry;
+    this.defaultQuota = defaultQuota;
+    this.maxPartitions = maxPartitions;
+
+    quotas.forEach(this::createPartition);
+
+    if (reservedTotal > pool.getMaxSize())
+    {
+      throw new IllegalArgumentException("reserved slots of the partitions (" + reservedTotal
+                                         + ") exceed the max size of the pool (" + pool.getMaxSize() + ")");
+    }
+
+    if (getOverflowSize() == 0)
+    {
+      quotas.forEach((name, quota) ->
+      {
+        if (quota.reserved == 0)
+        {
+          throw new IllegalArgumentException("partition " + name
+                                             + " has no reserved slots and the pool has no overflow (max size "
+                                             + pool.getMaxSize() + ", reserved " + reservedTotal + ")");
+        }
+      });
+
+      if (defaultQuota.reserved == 0 && (maxPartitions == UNLIMITED || maxPartitions > partitions.size()))
+      {
+        throw new IllegalArgumentException("partitions not configured have no reserved slots (default quota) and the"
+                                           + " pool has no overflow (max size " + pool.getMaxSize() + ", reserved "
+                                           + reservedTotal + ")");
+      }
+    }
+  }
+
+  /**
+   * Obtains an object of the pool for the partition, waits for a free slot of the partition if necessary.
+   *
+   * @param partitionName - name of partition
+   * @param fallbackPartitionName - name of partition used if the partition does not exist and cannot be created
+   *        (max count of partitions reached or no slots left in the pool), created if not existing
+   * @param timeout - maximum time in ms to wait for an object, {@link ObjectPool#TIMEOUT_UNLIMITED} to wait infinitely
+   * @return T
+   * @throws PoolTimeoutException - if no slot of the partition is free within the timeout
+   */
+  public T get(String partitionName, String fallbackPartitionName, long timeout)
+  {
+    Partition partition = getPartition(partitionName, true);
+    if (partition == null)
+    {
+      partition = getPartition(fallbackPartitionName, false);
+
+      if (partition == null)
+      {
+        throw new IllegalStateException("partition " + fallbackPartitionName + " cannot be created, no slots left"
+                                        + " in pool (max size " + pool.getMaxSize() + ", reserved " + reservedTotal
+                                        + ")");
+      }
+    }
+
+    long timeStart = System.nanoTime();
+
+    acquire(partition, timeout);
+
+    T obj;
+    try
+    {
+      long timeLeft = timeout < 0
+          ? ObjectPool.TIMEOUT_UNLIMITED
+          : Math.max(0, timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timeStart));
+
+      obj = pool.get(timeLeft, TimeUnit.MILLISECONDS);
+    }
+    catch (RuntimeException ex)
+    {
+      release(partition);
+
+      throw ex;
+    }
+
+    partitionsInUse.put(new ObjectPool.IdentityKey(obj), partition);
+
+    partition.borrowWait.record(System.nanoTime() - timeStart, TimeUnit.NANOSECONDS);
+
+    return obj;
+  }
+
+  /**
+   * Gives back the object to the pool and frees the slot of its partition.
+   *
+   * @param obj - object in pool
+   */
+  public void giveBack(T obj)
+  {
+    Partition partition = obj == null ? null : partitionsInUse.remove(new ObjectPool.IdentityKey(obj));
+
+    pool.giveBack(obj);
+
+    if (partition != null)
+    {
+      release(partition);
+    }
+  }
+
+  public ObjectPool<T> getPool()
+  {
+    return pool;
+  }
+
+  public Map<String, Partition> getPartitions()
+  {
+    return Collections.unmodifiableMap(partitions);
+  }
+
+  /**
+   * @return int - slots reserved for all partitions
+   */
+  public int getReservedTotal()
+  {
+    return reservedTotal;
+  }
+
+  /**
+   * @return int - lower bound for the max size of the pool: reserved slots of all partitions, plus one overflow slot
+   *         if partitions without reserved slots exist or further partitions may be created
+   */
+  public int getMinPoolSize()
+  {
+    lock.lock();
+
+    try
+    {
+      boolean overflowNeeded = maxPartitions == UNLIMITED || partitions.size() < maxPartitions
+                               || partitions.values().stream().anyMatch(p -> p.quota.reserved == 0);
+
+      return reservedTotal + (overflowNeeded ? 1 : 0);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return int - slots shared by all partitions
+   */
+  public int getOverflowSize()
+  {
+    return Math.max(0, pool.getMaxSize() - reservedTotal);
+  }
+
+  public int getOverflowInUse()
+  {
+    return overflowInUse;
+  }
+
+  /**
+   * @return int - threads currently waiting for overflow (not for the limit of their partition)
+   */
+  public int getOverflowWaiting()
+  {
+    return overflowWaiting;
+  }
+
+  /**
+   * @return long - count of borrows that waited for overflow, since start
+   */
+  public long getOverflowWaits()
+  {
+    return overflowWaits.sum();
+  }
+
+  /**
+   * @return long - total time in ns borrowers waited for overflow, since start
+   */
+  public long getOverflowWaitNanos()
+  {
+    return overflowWaitNanos.sum();
+  }
+
+  /**
+   * @return long - count of borrows that timed out waiting for overflow, since start
+   */
+  public long getOverflowTimeouts()
+  {
+    return overflowTimeouts.sum();
+  }
+
+  /**
+   * @param name - name of partition
+   * @param limited - true: not created if the max count of partitions is reached
+   * @return Partition - existing or created with the default quota, null if the max count of partitions is reached
+   *         or the pool has no overflow left
+   */
+  private Partition getPartition(String name, boolean limited)
+  {
+    Partition partition = partitions.get(name);
+    if (partition != null)
+    {
+      return partition;
+    }
+
+    lock.lock();
+
+    try
+    {
+      partition = partitions.get(name);
+      if (partition == null && (!limited || maxPartitions == UNLIMITED || partitions.size() < maxPartitions))
+      {
+        int maxSize = pool.getMaxSize();
+
+        // reserved slots not backed by the pool -> without reserved slots, only if overflow is left
+        if (reservedTotal + defaultQuota.reserved < maxSize)
+        {
+          partition = createPartition(name, defaultQuota);
+        }
+        else if (reservedTotal < maxSize)
+        {
+          partition = createPartition(name, new Quota(0, defaultQuota.limit));
+        }
+      }
+
+      return partition;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private Partition createPartition(String name, Quota quota)
+  {
+    lock.lock();
+
+    try
+    {
+      return partitions.computeIfAbsent(name, n ->
+      {
+        reservedTotal += quota.reserved;
+
+        return new Partition(n, quota);
+      });
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void acquire(Partition partition, long timeout)
+  {
+    long timeStart = System.nanoTime();
+    long nanos = timeout < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeout);
+    // last wait was for overflow
+    boolean waitedForOverflow = false;
+
+    lock.lock();
+
+    try
+    {
+      while (true)
+      {
+        boolean limited = partition.quota.limit != UNLIMITED && partition.inUse >= partition.quota.limit;
+
+        if (!limited)
+        {
+          // reserved slot free
+          if (partition.inUse - partition.overflowInUse < partition.quota.reserved)
+          {
+            partition.inUse++;
+
+            break;
+          }
+
+          if (overflowInUse < getOverflowSize())
+          {
+            partition.inUse++;
+            partition.overflowInUse++;
+            overflowInUse++;
+
+            break;
+          }
+        }
+
+        if (nanos <= 0)
+        {
+          partition.timeouts.increment();
+
+          if (!limited)
+          {
+            overflowTimeouts.increment();
+          }
+
+          throw new PoolTimeoutException("no slot available in partition " + partition.name + " within " + timeout
+                                         + " ms (inUse=" + partition.inUse + ", reserved=" + partition.quota.reserved
+                                         + ", overflow=" + overflowInUse + "/" + getOverflowSize() + ")");
+        }
+
+        partition.waiting++;
+        waitedForOverflow = !limited;
+        if (waitedForOverflow)
+        {
+          overflowWaiting++;
+        }
+
+        try
+        {
+          if (timeout < 0)
+          {
+            released.await();
+          }
+          else
+          {
+            nanos = released.awaitNanos(nanos);
+          }
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+
+          throw new IllegalStateException("interrupted while waiting for slot in partition " + partition.name);
+        }
+        finally
+        {
+          partition.waiting--;
+          if (waitedForOverflow)
+          {
+            overflowWaiting--;
+          }
+        }
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    if (waitedForOverflow)
+    {
+      overflowWaits.increment();
+      overflowWaitNanos.add(System.nanoTime() - timeStart);
+    }
+  }
+
+  /**
+   * Wakes up the threads waiting for a slot, called after the max size of the pool (and so the overflow) was
+   * increased.
+   */
+  public void maxSizeChanged()
+  {
+    lock.lock();
+
+    try
+    {
+      released.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void release(Partition partition)
+  {
+    lock.lock();
+
+    try
+    {
+      partition.inUse--;
+
+      // slots are interchangeable, give back overflow first so reserved slots stay with the partition
+      if (partition.overflowInUse > 0)
+      {
+        partition.overflowInUse--;
+        overflowInUse--;
+      }
+
+      // waiters of any partition may use a free overflow slot
+      released.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /** Quota of a partition */
+  public static class Quota
+  {
+    private final int reserved;
+    private final int limit;
+
+    /**
+     * @param reserved - slots reserved for the partition
+     * @param limit - max slots (reserved and overflow) used by the partition, {@link PoolBulkhead#UNLIMITED}
+     */
+    public Quota(int reserved, int limit)
+    {
+      if (reserved < 0)
+      {
+        throw new IllegalArgumentException("reserved may not be negative");
+      }
+
+      if (limit != UNLIMITED && limit < Math.max(1, reserved))
+      {
+        throw new IllegalArgumentException("limit may not be smaller than reserved or 1");
+      }
+
+      this.reserved = reserved;
+      this.limit = limit;
+    }
+
+    public int getReserved()
+    {
+      return reserved;
+    }
+
+    public int getLimit()
+    {
+      return limit;
+    }
+
+    @Override
+    public String toString()
+    {
+      return reserved + ":" + (limit == UNLIMITED ? "unlimited" : String.valueOf(limit));
+    }
+  }
+
+  /** Partition of the pool, counts are guarded by the lock of the bulkhead */
+  public class Partition
+  {
+    private final String name;
+    private final Quota quota;
+    private int inUse;
+    private int overflowInUse;
+    private int waiting;
+
+    private final Timer borrowWait;
+    private final Counter timeouts;
+
+    private Partition(String name, Quota quota)
+    {
+      this.name = name;
+      this.quota = quota;
+
+      Tags tags = Tags.of(MicrometerPoolMetrics.TAG_POOL, poolName, "partition", name);
+      String prefix = MicrometerPoolMetrics.METRIC_PREFIX + "partition.";
+
+      borrowWait = Timer.builder(prefix + "borrow.wait").description("Time waited for an object of the partition")
+          .tags(tags).publishPercentiles(0.5, 0.95, 0.99).register(meterRegistry);
+      timeouts = Counter.builder(prefix + "timeouts").description("Requests of the partition ended with timeout")
+          .tags(tags).register(meterRegistry);
+
+      Gauge.builder(prefix + "active", this, Partition::getInUse).description("Objects in use by the partition")
+          .tags(tags).register(meterRegistry);
+      Gauge.builder(prefix + "overflow", this, Partition::getOverflowInUse)
+          .description("Overflow slots in use by the partition").tags(tags).register(meterRegistry);
+      Gauge.builder(prefix + "pending", this, Partition::getWaiting)
+          .description("Threads waiting for a slot of the partition").tags(tags).register(meterRegistry);
+      Gauge.builder(prefix + "reserved", this, p -> p.quota.reserved).description("Slots reserved for the partition")
+          .tags(tags).register(meterRegistry);
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public Quota getQuota()
+    {
+      return quota;
+    }
+
+    public int getInUse()
+    {
+      return inUse;
+    }
+
+    public int getOverflowInUse()
+    {
+      return overflowInUse;
+    }
+
+    public int getWaiting()
+    {
+      return waiting;
+    }
+  }
+
+  /**
+   * Parses quotas in format "name:reserved[:limit],...", e.g. "mock:4,records:1:2,admin:1".
+   *
+   * @param quotas - String
+   * @return Map - quotas by partition name
+   */
+  public static Map<String, Quota> parseQuotas(String quotas)
+  {
+    Map<String, Quota> result = new HashMap<>();
+
+    for (String quota : quotas.split(","))
+    {
+      String[] parts = quota.trim().split(":");
+      if (parts.length < 2 || parts.length > 3)
+      {
+        throw new IllegalArgumentException("invalid quota '" + quota + "', expected name:reserved[:limit]");
+      }
+
+      result.put(parts[0].trim(), new Quota(Integer.parseInt(parts[1].trim()),
+          parts.length == 3 ? Integer.parseInt(parts[2].trim()) : UNLIMITED));
+    }
+
+    return result;
+  }
+}
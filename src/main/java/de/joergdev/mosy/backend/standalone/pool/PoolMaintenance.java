@@ -0,0 +1,152 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.log4j.Logger;
+
+/**
+ * Shared maintenance for all {@link ObjectPool}s.
+ * 
+ * The periodic maintenance of all pools (eviction of inactive objects, retirement after max lifetime,
+ * validation of inactive objects, refill to min idle) and the creation of objects in background runs on one
+ * scheduled executor with daemon threads.
+ * The executor is created on first use and has to be shut down on application shutdown, see {@link #shutdown()}.
+ * 
+ * @author Andreas Joerg
+ */
+public class PoolMaintenance
+{
+  private static final Logger LOG = Logger.getLogger(PoolMaintenance.class);
+
+  private static final PoolMaintenance INSTANCE = new PoolMaintenance();
+
+  private static final int THREAD_COUNT = 2;
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+  private final AtomicInteger threadNumber = new AtomicInteger();
+  /** Lock instead of synchronized, does not pin virtual threads */
+  private final Lock lock = new ReentrantLock();
+  private ScheduledThreadPoolExecutor executor;
+
+  private PoolMaintenance()
+  {}
+
+  public static PoolMaintenance getInstance()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Schedules a maintenance task with fixed delay.
+   * Exceptions of the task are logged and do not stop further executions.
+   * 
+   * @param task - Runnable
+   * @param intervalMillis - delay between executions in milliseconds
+   * @return ScheduledFuture - to be cancelled if the task is not needed anymore
+   */
+  public ScheduledFuture<?> schedule(Runnable task, long intervalMillis)
+  {
+    lock.lock();
+
+    try
+    {
+      return getExecutor().scheduleWithFixedDelay(() -> runSafe(task), intervalMillis, intervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Executes a maintenance task once, as soon as possible.
+   * Exceptions of the task are logged.
+   * 
+   * @param task - Runnable
+   */
+  public void execute(Runnable task)
+  {
+    lock.lock();
+
+    try
+    {
+      getExecutor().execute(() -> runSafe(task));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops all maintenance tasks.
+   * Tasks scheduled afterwards run on a new executor.
+   */
+  public void shutdown()
+  {
+    lock.lock();
+
+    try
+    {
+      if (executor == null)
+      {
+        return;
+      }
+
+      executor.shutdownNow();
+
+      try
+      {
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+        {
+          LOG.warn("pool maintenance did not terminate within " + SHUTDOWN_TIMEOUT_MILLIS + " ms");
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+      }
+
+      executor = null;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private ScheduledExecutorService getExecutor()
+  {
+    if (executor == null)
+    {
+      executor = new ScheduledThreadPoolExecutor(THREAD_COUNT, r -> {
+        Thread thread = new Thread(r, "mosy-pool-maintenance-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+
+        return thread;
+      });
+
+      executor.setRemoveOnCancelPolicy(true);
+    }
+
+    return executor;
+  }
+
+  private void runSafe(Runnable task)
+  {
+    try
+    {
+      task.run();
+    }
+    catch (RuntimeException ex)
+    {
+      LOG.error("pool maintenance failed: " + ex.getMessage(), ex);
+    }
+  }
+}
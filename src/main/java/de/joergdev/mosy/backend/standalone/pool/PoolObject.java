@@ -1,57 +1,103 @@
-package de.joergdev.mosy.backend.standalone.pool;
-
-/**
- * Klasse fuer ein Object im Pool.
- * 
- * @author Andreas Joerg
- *
- * @param <T>
- */
-class PoolObject<T>
-{
-	//eigentliches object
-	private T obj;
-	//Flag ob freigegeben
-	private boolean locked;
-	//timeStamp seit wann inaktiv
-	private long timeGaveBack;
-	
-	/**
-	 * constructor
-	 * 
-	 * @param obj
-	 * @param locked
-	 */
-	public PoolObject(T obj, boolean locked)
-	{
-		setObj(obj);
-		setLocked(locked);
-	}
-	
-	public void setLocked(boolean locked) 
-	{
-		this.locked = locked;
-	}
-	public boolean isLocked() 
-	{
-		return locked;
-	}
-	
-	public void setObj(T obj) 
-	{
-		this.obj = obj;
-	}
-	public T getObj() 
-	{
-		return obj;
-	}
-
-	public void setTimeGaveBack(long timeGaveBack)
-	{
-		this.timeGaveBack = timeGaveBack;
-	}
-	public long getTimeGaveBack()
-	{
-		return timeGaveBack;
-	}
-}
+package de.joergdev.mosy.backend.standalone.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Klasse fuer ein Object im Pool.
+ * 
+ * Der Zustand wird per compare-and-set geaendert, so dass kein Lock benoetigt wird.
+ * 
+ * @author Andreas Joerg
+ *
+ * @param <T>
+ */
+class PoolObject<T>
+{
+	static final int STATE_IDLE = 0;
+	static final int STATE_IN_USE = 1;
+	static final int STATE_REMOVED = 2;
+	//wird zurueckgegeben (reset, validierung), danach frei, uebergeben oder entfernt
+	static final int STATE_RETURNING = 3;
+
+	//eigentliches object
+	private final T obj;
+	//Zustand (frei, in Benutzung, entfernt, wird zurueckgegeben)
+	private final AtomicInteger state;
+	//timeStamp seit wann inaktiv
+	private volatile long timeGaveBack;
+	//timeStamp (System.nanoTime) seit wann in Benutzung
+	private volatile long timeBorrowed;
+	//timeStamp der letzten erfolgreichen Validierung
+	private volatile long timeValidated;
+	//timeStamp der Erzeugung
+	private final long timeCreated;
+	
+	/**
+	 * constructor
+	 * 
+	 * @param obj
+	 * @param state
+	 */
+	public PoolObject(T obj, int state)
+	{
+		this.obj = obj;
+		this.state = new AtomicInteger(state);
+		this.timeCreated = System.currentTimeMillis();
+		this.timeGaveBack = timeCreated;
+		this.timeValidated = timeCreated;
+	}
+	
+	public boolean compareAndSetState(int expect, int update)
+	{
+		return state.compareAndSet(expect, update);
+	}
+	public void setState(int state)
+	{
+		this.state.set(state);
+	}
+	public int getState()
+	{
+		return state.get();
+	}
+	public boolean isLocked() 
+	{
+		return state.get() != STATE_IDLE;
+	}
+	
+	public T getObj() 
+	{
+		return obj;
+	}
+
+	public void setTimeGaveBack(long timeGaveBack)
+	{
+		this.timeGaveBack = timeGaveBack;
+	}
+	public long getTimeGaveBack()
+	{
+		return timeGaveBack;
+	}
+
+	public void setTimeBorrowed(long timeBorrowed)
+	{
+		this.timeBorrowed = timeBorrowed;
+	}
+	public long getTimeBorrowed()
+	{
+		return timeBorrowed;
+	}
+
+	public void setTimeValidated(long timeValidated)
+	{
+		this.timeValidated = timeValidated;
+	}
+	public long getTimeValidated()
+	{
+		return timeValidated;
+	}
+
+	public long getTimeCreated()
+	{
+		return timeCreated;
+	}
+}
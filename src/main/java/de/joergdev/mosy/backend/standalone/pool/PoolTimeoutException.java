@@ -0,0 +1,16 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+/**
+ * Thrown if no object could be obtained from the pool within the borrow timeout.
+ * 
+ * @author Andreas Joerg
+ */
+public class PoolTimeoutException extends RuntimeException
+{
+  private static final long serialVersionUID = 1L;
+
+  public PoolTimeoutException(String message)
+  {
+    super(message);
+  }
+}
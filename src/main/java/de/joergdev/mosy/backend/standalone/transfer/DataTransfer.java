@@ -0,0 +1,215 @@
+package de.joergdev.mosy.backend.standalone.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.persistence.EntityManagerFactory;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.apache.log4j.Logger;
+import de.joergdev.mosy.backend.persistence.model.MockData;
+import de.joergdev.mosy.backend.persistence.model.MockDataMockProfile;
+import de.joergdev.mosy.backend.persistence.model.MockDataPathParam;
+import de.joergdev.mosy.backend.persistence.model.MockDataUrlArgument;
+import de.joergdev.mosy.backend.persistence.model.Record;
+import de.joergdev.mosy.backend.persistence.model.RecordPathParam;
+import de.joergdev.mosy.backend.persistence.model.RecordUrlArgument;
+import de.joergdev.mosy.shared.Utils;
+
+/**
+ * Streaming export / import of records and MockData as NDJSON, optionally gzip compressed, see {@link EntityTransfer}.
+ * <ul>
+ * <li>GET transfer/records, transfer/mockdata [?gzip=true]</li>
+ * <li>POST transfer/records, transfer/mockdata [Content-Encoding: gzip]</li>
+ * </ul>
+ * Records reference interface methods and record sessions, MockData interface methods and mock profiles,
+ * these have to exist in the target database with the same ids.
+ * 
+ * The endpoints are enabled by system property {@value #SYSTEM_PROPERTY_TOKEN}, requests need the header
+ * "Authorization: Bearer {token}".
+ * 
+ * @author Andreas Joerg
+ */
+@Path("transfer")
+public class DataTransfer
+{
+  private static final Logger LOG = Logger.getLogger(DataTransfer.class);
+
+  public static final String SYSTEM_PROPERTY_TOKEN = "MOSY_TRANSFER_TOKEN";
+  public static final String SYSTEM_PROPERTY_BATCH_SIZE = "MOSY_TRANSFER_BATCH_SIZE";
+
+  public static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+
+  private static final int DEFAULT_BATCH_SIZE = 500;
+  private static final String ENCODING_GZIP = "gzip";
+  private static final String AUTHORIZATION_PREFIX = "Bearer ";
+
+  private static final List<Class<?>> RECORD_CLASSES = Collections
+      .unmodifiableList(Arrays.asList(Record.class, RecordPathParam.class, RecordUrlArgument.class));
+  private static final List<Class<?>> MOCK_DATA_CLASSES = Collections.unmodifiableList(
+      Arrays.asList(MockData.class, MockDataPathParam.class, MockDataUrlArgument.class, MockDataMockProfile.class));
+
+  private final EntityTransfer entityTransfer;
+  private final byte[] token;
+
+  public DataTransfer(EntityManagerFactory emf)
+  {
+    String sysPropBatchSize = Utils.getSystemProperty(SYSTEM_PROPERTY_BATCH_SIZE);
+    entityTransfer = new EntityTransfer(emf,
+        Utils.isEmpty(sysPropBatchSize) ? DEFAULT_BATCH_SIZE : Utils.asInteger(sysPropBatchSize));
+
+    String sysPropToken = Utils.getSystemProperty(SYSTEM_PROPERTY_TOKEN);
+    token = Utils.isEmpty(sysPropToken) ? null : sysPropToken.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @GET
+  @Path("records")
+  @Produces(MEDIA_TYPE_NDJSON)
+  public Response exportRecords(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+                                @QueryParam("gzip") boolean gzip)
+  {
+    return exportEntities(authorization, RECORD_CLASSES, gzip);
+  }
+
+  @POST
+  @Path("records")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response importRecords(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+                                @HeaderParam(HttpHeaders.CONTENT_ENCODING) String contentEncoding, InputStream in)
+  {
+    return importEntities(authorization, RECORD_CLASSES, contentEncoding, in);
+  }
+
+  @GET
+  @Path("mockdata")
+  @Produces(MEDIA_TYPE_NDJSON)
+  public Response exportMockData(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+                                 @QueryParam("gzip") boolean gzip)
+  {
+    return exportEntities(authorization, MOCK_DATA_CLASSES, gzip);
+  }
+
+  @POST
+  @Path("mockdata")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response importMockData(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization,
+                                 @HeaderParam(HttpHeaders.CONTENT_ENCODING) String contentEncoding, InputStream in)
+  {
+    return importEntities(authorization, MOCK_DATA_CLASSES, contentEncoding, in);
+  }
+
+  private Response exportEntities(String authorization, List<Class<?>> entityClasses, boolean gzip)
+  {
+    checkAuthorization(authorization);
+
+    StreamingOutput output = out ->
+    {
+      OutputStream target = gzip ? new GZIPOutputStream(out, 65536) : out;
+
+      int count = entityTransfer.exportEntities(entityClasses, target);
+
+      if (gzip)
+      {
+        ((GZIPOutputStream) target).finish();
+      }
+
+      LOG.info("Exported " + count + " entities " + entityClasses);
+    };
+
+    Response.ResponseBuilder response = Response.ok(output, MEDIA_TYPE_NDJSON);
+
+    if (gzip)
+    {
+      response.header(HttpHeaders.CONTENT_ENCODING, ENCODING_GZIP);
+    }
+
+    return response.build();
+  }
+
+  private Response importEntities(String authorization, List<Class<?>> entityClasses, String contentEncoding,
+                                  InputStream in)
+  {
+    checkAuthorization(authorization);
+
+    InputStream source;
+    try
+    {
+      source = ENCODING_GZIP.equalsIgnoreCase(contentEncoding) ? new GZIPInputStream(in, 65536) : in;
+    }
+    catch (IOException ex)
+    {
+      return importFailed(Response.Status.BAD_REQUEST, 0, ex);
+    }
+
+    try
+    {
+      int count = entityTransfer.importEntities(entityClasses, source);
+
+      LOG.info("Imported " + count + " entities " + entityClasses);
+
+      return Response.ok(Collections.singletonMap("imported", count)).build();
+    }
+    catch (EntityTransfer.ImportFailedException ex)
+    {
+      // invalid stream -> client error, otherwise (e.g. database) server error
+      boolean invalidInput = ex.getCause() instanceof IOException || ex.getCause() instanceof IllegalArgumentException;
+
+      return importFailed(invalidInput ? Response.Status.BAD_REQUEST : Response.Status.INTERNAL_SERVER_ERROR,
+          ex.getImported(), ex);
+    }
+  }
+
+  /**
+   * @return Response - with error and count of entities imported before the failure (committed batches)
+   */
+  private static Response importFailed(Response.Status status, int imported, Exception ex)
+  {
+    if (status == Response.Status.INTERNAL_SERVER_ERROR)
+    {
+      LOG.error("Import failed after " + imported + " entities: " + ex.getMessage(), ex);
+    }
+    else
+    {
+      LOG.warn("Import failed after " + imported + " entities: " + ex.getMessage());
+    }
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("imported", imported);
+    result.put("error", ex.getMessage());
+
+    return Response.status(status).entity(result).build();
+  }
+
+  private void checkAuthorization(String authorization)
+  {
+    if (token == null)
+    {
+      throw new WebApplicationException(Response.Status.NOT_FOUND);
+    }
+
+    if (authorization == null || !authorization.startsWith(AUTHORIZATION_PREFIX)
+        || !MessageDigest.isEqual(token,
+            authorization.substring(AUTHORIZATION_PREFIX.length()).getBytes(StandardCharsets.UTF_8)))
+    {
+      throw new WebApplicationException(Response.Status.UNAUTHORIZED);
+    }
+  }
+}
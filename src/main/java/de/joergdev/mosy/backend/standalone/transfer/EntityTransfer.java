@@ -0,0 +1,407 @@
+package de.joergdev.mosy.backend.standalone.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.joergdev.mosy.backend.standalone.persistence.DbUtils;
+
+/**
+ * Export / import of entities as NDJSON (one JSON object per line).
+ * 
+ * Each line holds type (entity name), id, the basic attributes and the ids of the referenced entities:
+ * <code>{"type":"MockData","id":1,"attributes":{...},"references":{"interfaceMethod":3}}</code>
+ * 
+ * Export reads in batches ordered by id (next batch after the last id), each batch with its own EntityManager that is
+ * closed before the batch is written, so neither memory nor a connection is held for the whole stream. The export is
+ * no consistent snapshot, entities changed during the export are exported in the state of their batch.
+ * 
+ * Import persists new entities (new ids) and commits per batch. References to entities of a type imported before in
+ * the same stream (e.g. MockData of its path params) are mapped to the new ids, the mapping of a type is kept only
+ * until the types referencing it are passed in the stream. Other references have to exist in the database.
+ * Attributes are resolved via the JPA metamodel.
+ * 
+ * @author Andreas Joerg
+ */
+class EntityTransfer
+{
+  private static final String HINT_READ_ONLY = "org.hibernate.readOnly";
+
+  private static final String FIELD_TYPE = "type";
+  private static final String FIELD_ID = "id";
+  private static final String FIELD_ATTRIBUTES = "attributes";
+  private static final String FIELD_REFERENCES = "references";
+
+  private final EntityManagerFactory emf;
+  private final int batchSize;
+  private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules()
+      .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  EntityTransfer(EntityManagerFactory emf, int batchSize)
+  {
+    this.emf = emf;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Writes all entities of the classes, in order of the classes and ids.
+   * 
+   * @param entityClasses - referenced entities first
+   * @param out - OutputStream, not closed
+   * @return int - count of exported entities
+   */
+  int exportEntities(List<Class<?>> entityClasses, OutputStream out)
+    throws IOException
+  {
+    int count = 0;
+
+    try (JsonGenerator generator = mapper.getFactory().createGenerator(out))
+    {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+      for (Class<?> entityClass : entityClasses)
+      {
+        count += exportEntities(entityClass, generator);
+      }
+    }
+
+    return count;
+  }
+
+  private <T> int exportEntities(Class<T> entityClass, JsonGenerator generator)
+    throws IOException
+  {
+    EntityType<T> entityType = emf.getMetamodel().entity(entityClass);
+
+    int count = 0;
+    Object lastId = null;
+
+    while (true)
+    {
+      List<T> batch;
+
+      EntityManager em = emf.createEntityManager();
+
+      try
+      {
+        batch = em.createQuery(createBatchQuery(em, entityType, lastId)).setMaxResults(batchSize)
+            .setHint(HINT_READ_ONLY, true).getResultList();
+      }
+      finally
+      {
+        // connection is given back before writing, detached entities still have their basic values and reference ids
+        em.close();
+      }
+
+      for (T entity : batch)
+      {
+        writeEntity(entityType, entity, generator);
+      }
+
+      generator.flush();
+
+      count += batch.size();
+
+      if (batch.size() < batchSize)
+      {
+        return count;
+      }
+
+      lastId = emf.getPersistenceUnitUtil().getIdentifier(batch.get(batch.size() - 1));
+    }
+  }
+
+  /**
+   * @return CriteriaQuery - entities with id greater than lastId (all if null), ordered by id
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private <T> CriteriaQuery<T> createBatchQuery(EntityManager em, EntityType<T> entityType, Object lastId)
+  {
+    CriteriaBuilder cb = em.getCriteriaBuilder();
+    CriteriaQuery<T> query = cb.createQuery(entityType.getJavaType());
+    Root<T> root = query.from(entityType);
+    Path<Comparable> id = root.get(getIdAttribute(entityType).getName());
+
+    query.select(root).orderBy(cb.asc(id));
+
+    if (lastId != null)
+    {
+      query.where(cb.greaterThan(id, (Comparable) lastId));
+    }
+
+    return query;
+  }
+
+  private void writeEntity(EntityType<?> entityType, Object entity, JsonGenerator generator)
+    throws IOException
+  {
+    PersistenceUnitUtil puUtil = emf.getPersistenceUnitUtil();
+
+    generator.writeStartObject();
+    generator.writeStringField(FIELD_TYPE, entityType.getName());
+    generator.writeObjectField(FIELD_ID, puUtil.getIdentifier(entity));
+
+    generator.writeObjectFieldStart(FIELD_ATTRIBUTES);
+    for (SingularAttribute<?, ?> attribute : entityType.getSingularAttributes())
+    {
+      if (isBasic(attribute))
+      {
+        generator.writeObjectField(attribute.getName(), DbUtils.getAttributeValue(entity, attribute.getJavaMember()));
+      }
+    }
+    generator.writeEndObject();
+
+    generator.writeObjectFieldStart(FIELD_REFERENCES);
+    for (SingularAttribute<?, ?> attribute : entityType.getSingularAttributes())
+    {
+      if (attribute.isAssociation())
+      {
+        Object referenced = DbUtils.getAttributeValue(entity, attribute.getJavaMember());
+
+        generator.writeObjectField(attribute.getName(), referenced == null ? null : puUtil.getIdentifier(referenced));
+      }
+    }
+    generator.writeEndObject();
+
+    generator.writeEndObject();
+    generator.writeRaw('\n');
+  }
+
+  /**
+   * Reads entities and persists them as new entities.
+   * 
+   * @param entityClasses - allowed entity classes, referenced entities first
+   * @param in - InputStream, not closed
+   * @return int - count of imported entities
+   * @throws ImportFailedException - with the count of entities committed before the failure
+   */
+  int importEntities(List<Class<?>> entityClasses, InputStream in)
+  {
+    Map<String, EntityType<?>> entityTypes = new HashMap<>();
+    for (Class<?> entityClass : entityClasses)
+    {
+      EntityType<?> entityType = emf.getMetamodel().entity(entityClass);
+      entityTypes.put(entityType.getName(), entityType);
+    }
+
+    // key: referenced entity class, value: index of the last class referencing it
+    Map<Class<?>, Integer> lastReferencingIndex = new HashMap<>();
+    for (int i = 0; i < entityClasses.size(); i++)
+    {
+      for (SingularAttribute<?, ?> attribute : emf.getMetamodel().entity(entityClasses.get(i)).getSingularAttributes())
+      {
+        if (attribute.isAssociation() && entityClasses.contains(attribute.getJavaType()))
+        {
+          lastReferencingIndex.merge(attribute.getJavaType(), i, Math::max);
+        }
+      }
+    }
+
+    // key: entity class, value: old id -> new id, only for classes referenced by classes to come
+    Map<Class<?>, Map<Object, Object>> newIds = new HashMap<>();
+    Set<Class<?>> passedClasses = new HashSet<>();
+
+    int count = 0;
+    int committed = 0;
+
+    EntityManager em = emf.createEntityManager();
+
+    try (MappingIterator<JsonNode> lines = mapper.readerFor(JsonNode.class).readValues(in))
+    {
+      EntityTransaction tx = em.getTransaction();
+      tx.begin();
+
+      try
+      {
+        int classIndex = 0;
+
+        while (lines.hasNextValue())
+        {
+          JsonNode line = lines.nextValue();
+
+          EntityType<?> entityType = entityTypes.get(line.path(FIELD_TYPE).asText());
+          if (entityType == null)
+          {
+            throw new IllegalArgumentException("type not allowed: " + line.path(FIELD_TYPE).asText());
+          }
+
+          Class<?> entityClass = entityType.getJavaType();
+
+          int index = entityClasses.indexOf(entityClass);
+          if (index > classIndex)
+          {
+            classIndex = index;
+
+            // mappings of classes whose referencing classes are passed are not needed anymore
+            lastReferencingIndex.forEach((referencedClass, lastIndex) ->
+            {
+              if (lastIndex < index && newIds.remove(referencedClass) != null)
+              {
+                passedClasses.add(referencedClass);
+              }
+            });
+          }
+
+          Object entity = readEntity(em, entityType, line, newIds, passedClasses);
+          em.persist(entity);
+
+          if (lastReferencingIndex.containsKey(entityClass))
+          {
+            newIds.computeIfAbsent(entityClass, k -> new HashMap<>()).put(
+                mapper.treeToValue(line.get(FIELD_ID), entityType.getIdType().getJavaType()),
+                emf.getPersistenceUnitUtil().getIdentifier(entity));
+          }
+
+          if (++count % batchSize == 0)
+          {
+            tx.commit();
+            committed = count;
+            em.clear();
+            tx.begin();
+          }
+        }
+
+        tx.commit();
+        committed = count;
+      }
+      finally
+      {
+        if (tx.isActive())
+        {
+          tx.rollback();
+        }
+      }
+    }
+    catch (IOException | RuntimeException ex)
+    {
+      throw new ImportFailedException(committed, ex);
+    }
+    finally
+    {
+      em.close();
+    }
+
+    return count;
+  }
+
+  private Object readEntity(EntityManager em, EntityType<?> entityType, JsonNode line,
+                            Map<Class<?>, Map<Object, Object>> newIds, Set<Class<?>> passedClasses)
+    throws IOException
+  {
+    Object entity = newInstance(entityType.getJavaType());
+
+    Iterator<Map.Entry<String, JsonNode>> attributes = line.path(FIELD_ATTRIBUTES).fields();
+    while (attributes.hasNext())
+    {
+      Map.Entry<String, JsonNode> attributeNode = attributes.next();
+      SingularAttribute<?, ?> attribute = entityType.getSingularAttribute(attributeNode.getKey());
+
+      if (isBasic(attribute))
+      {
+        Object value = mapper.treeToValue(attributeNode.getValue(), attribute.getJavaType());
+
+        DbUtils.setAttributeValue(entity, attribute.getJavaMember(), value);
+      }
+    }
+
+    Iterator<Map.Entry<String, JsonNode>> references = line.path(FIELD_REFERENCES).fields();
+    while (references.hasNext())
+    {
+      Map.Entry<String, JsonNode> referenceNode = references.next();
+      SingularAttribute<?, ?> attribute = entityType.getSingularAttribute(referenceNode.getKey());
+
+      if (!attribute.isAssociation() || referenceNode.getValue().isNull())
+      {
+        continue;
+      }
+
+      Class<?> referencedClass = attribute.getJavaType();
+      if (passedClasses.contains(referencedClass))
+      {
+        throw new IllegalArgumentException(entityType.getName() + " after the entities referencing "
+                                           + referencedClass.getSimpleName() + ", stream not in export order");
+      }
+
+      Object id = mapper.treeToValue(referenceNode.getValue(),
+          emf.getMetamodel().entity(referencedClass).getIdType().getJavaType());
+
+      Map<Object, Object> classNewIds = newIds.get(referencedClass);
+      Object newId = classNewIds == null ? id : classNewIds.getOrDefault(id, id);
+
+      DbUtils.setAttributeValue(entity, attribute.getJavaMember(), em.getReference(referencedClass, newId));
+    }
+
+    return entity;
+  }
+
+  private static boolean isBasic(SingularAttribute<?, ?> attribute)
+  {
+    return !attribute.isId() && !attribute.isVersion()
+           && attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.BASIC;
+  }
+
+  private static SingularAttribute<?, ?> getIdAttribute(EntityType<?> entityType)
+  {
+    return entityType.getId(entityType.getIdType().getJavaType());
+  }
+
+  private static Object newInstance(Class<?> entityClass)
+  {
+    try
+    {
+      Constructor<?> constructor = entityClass.getDeclaredConstructor();
+      constructor.setAccessible(true);
+
+      return constructor.newInstance();
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      throw new IllegalStateException("cannot create " + entityClass.getName(), ex);
+    }
+  }
+
+  /** Import failed, entities of the batches committed before stay imported */
+  static class ImportFailedException extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final int imported;
+
+    private ImportFailedException(int imported, Exception cause)
+    {
+      super(cause.getMessage(), cause);
+
+      this.imported = imported;
+    }
+
+    /**
+     * @return int - count of entities committed before the failure
+     */
+    int getImported()
+    {
+      return imported;
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package de.joergdev.mosy.backend.standalone.transfer;
+
+import javax.persistence.EntityManagerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Spring configuration for export / import of data.
+ * 
+ * @author Andreas Joerg
+ */
+@Configuration
+public class TransferConfig
+{
+  /**
+   * Registered in JerseyConfig.
+   */
+  @Bean
+  public DataTransfer dataTransfer(EntityManagerFactory entityManagerFactory)
+  {
+    return new DataTransfer(entityManagerFactory);
+  }
+}
@@ -0,0 +1,165 @@
+package de.joergdev.mosy.backend.standalone.cache;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.HashMap;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import de.joergdev.mosy.backend.persistence.model.MockData;
+import de.joergdev.mosy.backend.persistence.model.MockProfile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests of the {@link ResponseCache}: responses computed before a clear are discarded, only calls resolved from a
+ * single MockData row are cacheable.
+ *
+ * @author Andreas Joerg
+ */
+class ResponseCacheTest
+{
+  private ResponseCache cache;
+  private EventListenerRegistry listenerRegistry;
+
+  @BeforeEach
+  void setUp()
+  {
+    listenerRegistry = mock(EventListenerRegistry.class);
+
+    ServiceRegistryImplementor serviceRegistry = mock(ServiceRegistryImplementor.class);
+    when(serviceRegistry.getService(EventListenerRegistry.class)).thenReturn(listenerRegistry);
+
+    SessionFactoryImplementor sessionFactory = mock(SessionFactoryImplementor.class);
+    when(sessionFactory.getServiceRegistry()).thenReturn(serviceRegistry);
+
+    EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    when(emf.unwrap(SessionFactoryImplementor.class)).thenReturn(sessionFactory);
+
+    cache = new ResponseCache(emf, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void putAfterClearDiscarded()
+  {
+    long generation = cache.getGeneration();
+
+    cache.clear();
+    cache.put(key("/a"), entry(), generation);
+
+    assertNull(cache.get(key("/a")));
+
+    cache.put(key("/a"), entry(), cache.getGeneration());
+
+    assertNotNull(cache.get(key("/a")));
+  }
+
+  @Test
+  void modelChangedDiscardsRunningCalls()
+  {
+    long generation = cache.getGeneration();
+
+    cache.modelChanged(de.joergdev.mosy.backend.api.impl.MockServices.class);
+    cache.put(key("/a"), entry(), generation);
+    assertNotNull(cache.get(key("/a")));
+
+    cache.modelChanged(de.joergdev.mosy.backend.api.impl.MockData.class);
+    cache.put(key("/b"), entry(), generation);
+    assertNull(cache.get(key("/b")));
+  }
+
+  @Test
+  void cacheableIfSingleMockDataLoaded()
+  {
+    cache.beginCall();
+    PostLoadEventListener listener = getLoadListener();
+
+    load(listener, new MockProfile(), 1);
+    load(listener, new MockData(), 1);
+    load(listener, new MockData(), 1);
+
+    assertTrue(cache.endCall(System.nanoTime()));
+  }
+
+  @Test
+  void notCacheableWithoutMockData()
+  {
+    cache.beginCall();
+    load(getLoadListener(), new MockProfile(), 1);
+
+    assertFalse(cache.endCall(System.nanoTime()));
+  }
+
+  @Test
+  void notCacheableWithMultipleMockData()
+  {
+    cache.beginCall();
+    PostLoadEventListener listener = getLoadListener();
+
+    load(listener, new MockData(), 1);
+    load(listener, new MockData(), 2);
+
+    assertFalse(cache.endCall(System.nanoTime()));
+  }
+
+  @Test
+  void notCacheableIfDelayed()
+  {
+    cache.beginCall();
+    load(getLoadListener(), new MockData(), 1);
+
+    assertFalse(cache.endCall(System.nanoTime() - 1_000_000_000L));
+  }
+
+  @Test
+  void notTrackedAfterEnd()
+  {
+    cache.beginCall();
+    PostLoadEventListener listener = getLoadListener();
+    cache.endCall(System.nanoTime());
+
+    load(listener, new MockData(), 1);
+
+    assertFalse(cache.endCall(System.nanoTime()));
+  }
+
+  private PostLoadEventListener getLoadListener()
+  {
+    ArgumentCaptor<PostLoadEventListener> listener = ArgumentCaptor.forClass(PostLoadEventListener.class);
+    verify(listenerRegistry).appendListeners(eq(EventType.POST_LOAD), listener.capture());
+
+    return listener.getValue();
+  }
+
+  private static void load(PostLoadEventListener listener, Object entity, Integer id)
+  {
+    PostLoadEvent event = new PostLoadEvent(mock(EventSource.class));
+    event.setEntity(entity);
+    event.setId(id);
+
+    listener.onPostLoad(event);
+  }
+
+  private static ResponseCache.Key key(String uri)
+  {
+    return new ResponseCache.Key("GET", uri, new HashMap<>(), new byte[0]);
+  }
+
+  private static ResponseCache.Entry entry()
+  {
+    return new ResponseCache.Entry(200, new HashMap<>(), new byte[] {1});
+  }
+}
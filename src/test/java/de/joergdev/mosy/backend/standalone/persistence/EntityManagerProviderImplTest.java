@@ -0,0 +1,304 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests of the EntityManager bound to the thread / request by {@link EntityManagerProviderImpl}: nested callers and
+ * transactions.
+ *
+ * @author Andreas Joerg
+ */
+class EntityManagerProviderImplTest
+{
+  private final AtomicBoolean createFails = new AtomicBoolean();
+  private EntityManagerProviderImpl provider;
+
+  @BeforeEach
+  void setUp()
+  {
+    EntityManagerFactory emf = mock(EntityManagerFactory.class);
+    when(emf.createEntityManager()).thenAnswer(invocation -> createEntityManager());
+
+    provider = new EntityManagerProviderImpl(emf, new SimpleMeterRegistry());
+  }
+
+  @AfterEach
+  void tearDown()
+  {
+    provider.close();
+  }
+
+  /** A nested caller shares the EntityManager and joins the transaction of the outer caller. */
+  @Test
+  void nestedCallerJoinsTransaction()
+  {
+    provider.beginRequestScope();
+
+    EntityManager outer = provider.getEntityManager();
+    outer.getTransaction().begin();
+
+    EntityManager nested = provider.getEntityManager();
+    assertNotSame(outer, nested);
+    assertSame(unwrap(outer), unwrap(nested));
+
+    nested.getTransaction().begin();
+    nested.getTransaction().commit();
+    provider.releaseEntityManager(nested);
+
+    // transaction of the outer caller not committed by the nested caller, entities not cleared
+    assertTrue(outer.getTransaction().isActive());
+    verify(unwrap(outer), never()).clear();
+
+    outer.getTransaction().commit();
+    assertFalse(outer.getTransaction().isActive());
+    provider.releaseEntityManager(outer);
+
+    // kept until end of request, reset when given back to the pool
+    verify(unwrap(outer), never()).clear();
+
+    provider.endRequestScope();
+
+    verify(unwrap(outer)).clear();
+  }
+
+  /** Rollback of a nested caller marks the transaction of the outer caller rollback-only. */
+  @Test
+  void nestedRollbackMarksRollbackOnly()
+  {
+    provider.beginRequestScope();
+
+    EntityManager outer = provider.getEntityManager();
+    outer.getTransaction().begin();
+
+    EntityManager nested = provider.getEntityManager();
+    nested.getTransaction().begin();
+    nested.getTransaction().rollback();
+    provider.releaseEntityManager(nested);
+
+    assertTrue(outer.getTransaction().isActive());
+    assertTrue(outer.getTransaction().getRollbackOnly());
+
+    outer.getTransaction().rollback();
+    provider.releaseEntityManager(outer);
+
+    provider.endRequestScope();
+  }
+
+  /** A nested caller beginning a transaction without an active one owns it. */
+  @Test
+  void nestedCallerOwnsOwnTransaction()
+  {
+    provider.beginRequestScope();
+
+    EntityManager outer = provider.getEntityManager();
+    EntityManager nested = provider.getEntityManager();
+
+    nested.getTransaction().begin();
+    assertTrue(outer.getTransaction().isActive());
+
+    nested.getTransaction().commit();
+    assertFalse(outer.getTransaction().isActive());
+
+    provider.releaseEntityManager(nested);
+    provider.releaseEntityManager(outer);
+
+    provider.endRequestScope();
+  }
+
+  /** Consecutive callers in a request reuse the bound EntityManager, each with an empty persistence context. */
+  @Test
+  void consecutiveCallersReuseCleared()
+  {
+    provider.beginRequestScope();
+
+    EntityManager first = provider.getEntityManager();
+    first.getTransaction().begin();
+    first.getTransaction().commit();
+    provider.releaseEntityManager(first);
+
+    verify(unwrap(first), never()).clear();
+
+    EntityManager second = provider.getEntityManager();
+    assertSame(unwrap(first), unwrap(second));
+    verify(unwrap(first)).clear();
+
+    provider.releaseEntityManager(second);
+
+    // released twice -> counted once
+    provider.releaseEntityManager(second);
+
+    EntityManager third = provider.getEntityManager();
+    assertSame(unwrap(first), unwrap(third));
+    verify(unwrap(first), times(2)).clear();
+
+    provider.releaseEntityManager(third);
+    provider.endRequestScope();
+  }
+
+  /** A caller that left its transaction active does not pass it to the next caller. */
+  @Test
+  void activeTransactionRolledBackOnRelease()
+  {
+    provider.beginRequestScope();
+
+    EntityManager first = provider.getEntityManager();
+    first.getTransaction().begin();
+    provider.releaseEntityManager(first);
+
+    assertFalse(unwrap(first).getTransaction().isActive());
+
+    EntityManager second = provider.getEntityManager();
+    assertSame(unwrap(first), unwrap(second));
+    assertFalse(second.getTransaction().isActive());
+
+    provider.releaseEntityManager(second);
+    provider.endRequestScope();
+  }
+
+  /** Outside of a request scope the EntityManager is given back when released by the last caller. */
+  @Test
+  void outsideRequestScopeGivenBackOnRelease()
+  {
+    EntityManager outer = provider.getEntityManager();
+    EntityManager nested = provider.getEntityManager();
+    assertSame(unwrap(outer), unwrap(nested));
+
+    provider.releaseEntityManager(nested);
+    verify(unwrap(outer), never()).clear();
+
+    provider.releaseEntityManager(outer);
+    verify(unwrap(outer)).clear();
+  }
+
+  /** A failed borrow outside of a request scope does not leave a binding behind. */
+  @Test
+  void failedBorrowNotBound()
+  {
+    createFails.set(true);
+    assertThrows(RuntimeException.class, () -> provider.getEntityManager());
+    createFails.set(false);
+
+    // binding of the request scope, not of the failed borrow -> kept until end of request
+    provider.beginRequestScope();
+
+    EntityManager em = provider.getEntityManager();
+    provider.releaseEntityManager(em);
+    verify(unwrap(em), never()).clear();
+
+    provider.endRequestScope();
+    verify(unwrap(em)).clear();
+  }
+
+  private static EntityManager unwrap(EntityManager em)
+  {
+    return SharedEntityManager.of(em).getEntityManager();
+  }
+
+  private EntityManager createEntityManager()
+  {
+    if (createFails.get())
+    {
+      throw new IllegalStateException("database not available");
+    }
+
+    EntityManager em = mock(EntityManager.class);
+    EntityTransaction tx = new TestTransaction();
+
+    when(em.isOpen()).thenReturn(true);
+    when(em.getTransaction()).thenReturn(tx);
+
+    // validation by query or JDBC connection
+    Query validationQuery = mock(Query.class);
+    when(validationQuery.getSingleResult()).thenReturn(1);
+    when(em.createNativeQuery(anyString())).thenReturn(validationQuery);
+
+    Session session = mock(Session.class);
+    when(session.<Boolean> doReturningWork(any())).thenReturn(true);
+    when(em.unwrap(Session.class)).thenReturn(session);
+
+    return em;
+  }
+
+  private static class TestTransaction implements EntityTransaction
+  {
+    private boolean active;
+    private boolean rollbackOnly;
+
+    @Override
+    public void begin()
+    {
+      if (active)
+      {
+        throw new IllegalStateException("transaction already active");
+      }
+
+      active = true;
+      rollbackOnly = false;
+    }
+
+    @Override
+    public void commit()
+    {
+      checkActive();
+
+      active = false;
+    }
+
+    @Override
+    public void rollback()
+    {
+      checkActive();
+
+      active = false;
+    }
+
+    @Override
+    public void setRollbackOnly()
+    {
+      checkActive();
+
+      rollbackOnly = true;
+    }
+
+    @Override
+    public boolean getRollbackOnly()
+    {
+      return rollbackOnly;
+    }
+
+    @Override
+    public boolean isActive()
+    {
+      return active;
+    }
+
+    private void checkActive()
+    {
+      if (!active)
+      {
+        throw new IllegalStateException("transaction not active");
+      }
+    }
+  }
+}
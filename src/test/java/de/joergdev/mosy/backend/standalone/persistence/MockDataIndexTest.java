@@ -0,0 +1,107 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.ActionQueue;
+import org.hibernate.event.spi.EventSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests of the invalidation of the {@link MockDataIndex}: results loaded before a change are not indexed, the index
+ * is not used while a transaction changing indexed entities is not completed.
+ *
+ * @author Andreas Joerg
+ */
+class MockDataIndexTest
+{
+  private MockDataIndex index;
+
+  @BeforeEach
+  void setUp()
+  {
+    index = new MockDataIndex(mock(EntityManagerFactory.class), new SimpleMeterRegistry());
+  }
+
+  @Test
+  void putAfterInvalidateDiscarded()
+  {
+    long generation = index.getGeneration();
+
+    index.invalidate();
+    index.put(key("a"), entry(), generation);
+
+    assertNull(index.get(key("a")));
+
+    index.put(key("a"), entry(), index.getGeneration());
+
+    assertNotNull(index.get(key("a")));
+  }
+
+  @Test
+  void suspendedUntilTransactionCompleted()
+  {
+    index.put(key("a"), entry(), index.getGeneration());
+
+    ActionQueue actionQueue = mock(ActionQueue.class);
+    EventSource session = mock(EventSource.class);
+    when(session.getActionQueue()).thenReturn(actionQueue);
+
+    // two changes in one transaction -> one completion process
+    index.changed(session);
+    index.changed(session);
+
+    ArgumentCaptor<AfterTransactionCompletionProcess> completion = ArgumentCaptor
+        .forClass(AfterTransactionCompletionProcess.class);
+    verify(actionQueue, times(1)).registerProcess(completion.capture());
+
+    // cleared and not populated until completion
+    assertNull(index.get(key("a")));
+
+    long generation = index.getGeneration();
+    index.put(key("a"), entry(), generation);
+    assertNull(index.get(key("a")));
+
+    // completed -> results loaded before the commit are discarded
+    completion.getValue().doAfterTransactionCompletion(true, null);
+
+    index.put(key("a"), entry(), generation);
+    assertNull(index.get(key("a")));
+
+    index.put(key("a"), entry(), index.getGeneration());
+    assertNotNull(index.get(key("a")));
+  }
+
+  @Test
+  void modelChanged()
+  {
+    index.put(key("a"), entry(), index.getGeneration());
+
+    index.modelChanged(MockServices.class);
+    assertNotNull(index.get(key("a")));
+
+    index.modelChanged(de.joergdev.mosy.backend.api.impl.MockData.class);
+    assertNull(index.get(key("a")));
+  }
+
+  private static MockDataIndex.Key key(String query)
+  {
+    return new MockDataIndex.Key(query, null, new HashMap<>(), 0, Integer.MAX_VALUE, new HashMap<>());
+  }
+
+  private static MockDataIndex.Entry entry()
+  {
+    return new MockDataIndex.Entry(new ArrayList<>());
+  }
+}
@@ -0,0 +1,100 @@
+package de.joergdev.mosy.backend.standalone.persistence;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.Collections;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.UriInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import de.joergdev.mosy.backend.api.impl.Interfaces;
+import de.joergdev.mosy.backend.api.impl.MockData;
+import de.joergdev.mosy.backend.api.impl.MockServices;
+import de.joergdev.mosy.backend.api.impl.Tenants;
+
+/**
+ * Tests of the {@link ReadOnlyRequestFilter}: only GET / HEAD requests of the API classes known to only read use the
+ * read-only pool.
+ *
+ * @author Andreas Joerg
+ */
+class ReadOnlyRequestFilterTest
+{
+  private EntityManagerProviderImpl entityManagerProvider;
+  private ReadOnlyRequestFilter filter;
+
+  @BeforeEach
+  void setUp()
+  {
+    entityManagerProvider = mock(EntityManagerProviderImpl.class);
+    when(entityManagerProvider.isReadOnlyPoolEnabled()).thenReturn(true);
+
+    filter = new ReadOnlyRequestFilter(entityManagerProvider);
+  }
+
+  @Test
+  void readOfLookupReadOnly()
+  {
+    filter.filter(request(HttpMethod.GET, new MockData()));
+    filter.filter(request(HttpMethod.HEAD, new Interfaces()));
+
+    verify(entityManagerProvider, times(2)).setReadOnly(true);
+  }
+
+  @Test
+  void writeOfLookupNotReadOnly()
+  {
+    filter.filter(request(HttpMethod.POST, new MockData()));
+    filter.filter(request(HttpMethod.DELETE, new MockData()));
+
+    verify(entityManagerProvider, never()).setReadOnly(anyBoolean());
+  }
+
+  @Test
+  void readOfOtherResourceNotReadOnly()
+  {
+    filter.filter(request(HttpMethod.GET, new Tenants()));
+    filter.filter(request(HttpMethod.GET, new de.joergdev.mosy.backend.api.impl.System()));
+
+    verify(entityManagerProvider, never()).setReadOnly(anyBoolean());
+  }
+
+  @Test
+  void mockCallReadOnlyOnlyIfConfigured()
+  {
+    filter.filter(request(HttpMethod.GET, new MockServices()));
+    verify(entityManagerProvider, never()).setReadOnly(anyBoolean());
+
+    when(entityManagerProvider.isReadOnlyMockCalls()).thenReturn(true);
+
+    filter.filter(request(HttpMethod.POST, new MockServices()));
+    verify(entityManagerProvider).setReadOnly(true);
+  }
+
+  @Test
+  void poolDisabled()
+  {
+    when(entityManagerProvider.isReadOnlyPoolEnabled()).thenReturn(false);
+
+    filter.filter(request(HttpMethod.GET, new MockData()));
+
+    verify(entityManagerProvider, never()).setReadOnly(anyBoolean());
+  }
+
+  private static ContainerRequestContext request(String method, Object resource)
+  {
+    UriInfo uriInfo = mock(UriInfo.class);
+    when(uriInfo.getMatchedResources()).thenReturn(Collections.singletonList(resource));
+
+    ContainerRequestContext requestContext = mock(ContainerRequestContext.class);
+    when(requestContext.getMethod()).thenReturn(method);
+    when(requestContext.getUriInfo()).thenReturn(uriInfo);
+
+    return requestContext;
+  }
+}
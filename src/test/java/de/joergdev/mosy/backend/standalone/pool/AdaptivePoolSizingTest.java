@@ -0,0 +1,163 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests of {@link AdaptivePoolSizing} with a {@link PoolBulkhead}: borrowers wait in the bulkhead, not in the pool,
+ * the floor follows the partitions.
+ *
+ * @author Andreas Joerg
+ */
+class AdaptivePoolSizingTest
+{
+  private static final long WAIT_SECONDS = 10;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private ObjectPool<Integer> pool;
+  private AdaptivePoolSizing sizing;
+
+  @AfterEach
+  void tearDown()
+  {
+    executor.shutdownNow();
+
+    if (sizing != null)
+    {
+      sizing.close();
+    }
+
+    if (pool != null)
+    {
+      pool.close();
+    }
+  }
+
+  /** After shrinking to the reserved slots (no overflow) a partition waiting for overflow lets the pool grow. */
+  @Test
+  void growsForOverflowWaitsOfBulkhead()
+    throws Exception
+  {
+    PoolBulkhead<Integer> bulkhead = createBulkheadAndShrink("a:1,b:1");
+
+    assertEquals(0, bulkhead.getOverflowSize());
+
+    assertNotNull(bulkhead.get("a", "a", ObjectPool.TIMEOUT_UNLIMITED));
+
+    Future<Integer> waiter = executor.submit(() -> bulkhead.get("a", "a", ObjectPool.TIMEOUT_UNLIMITED));
+    awaitValue(bulkhead::getOverflowWaiting, 1);
+
+    sizing.adjust();
+
+    assertTrue(pool.getMaxSize() > 2, "pool not grown: " + pool.getMaxSize());
+    assertNotNull(waiter.get(WAIT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  /** A partition waiting for its own limit does not let the pool grow. */
+  @Test
+  void noGrowthForLimitOfPartition()
+    throws Exception
+  {
+    PoolBulkhead<Integer> bulkhead = createBulkheadAndShrink("a:1:1,b:1");
+
+    assertNotNull(bulkhead.get("a", "a", ObjectPool.TIMEOUT_UNLIMITED));
+
+    executor.submit(() -> bulkhead.get("a", "a", ObjectPool.TIMEOUT_UNLIMITED));
+    awaitValue(() -> bulkhead.getPartitions().get("a").getWaiting(), 1);
+
+    sizing.adjust();
+
+    assertEquals(2, pool.getMaxSize());
+    assertEquals(0, bulkhead.getOverflowWaiting());
+  }
+
+  /** The pool does not shrink below the reserved slots of partitions created after the start (and one overflow). */
+  @Test
+  void floorFollowsPartitionsCreatedLater()
+  {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    pool = new ObjectPool<>(true, new TestPoolMethods(8, 0, n -> n));
+
+    PoolBulkhead<Integer> bulkhead = new PoolBulkhead<>(pool, "test", PoolBulkhead.parseQuotas("a:1"),
+        new PoolBulkhead.Quota(1, PoolBulkhead.UNLIMITED), PoolBulkhead.UNLIMITED, meterRegistry);
+
+    sizing = new AdaptivePoolSizing(pool, "test", bulkhead.getReservedTotal(), 8, TimeUnit.HOURS.toMillis(1), 2,
+        meterRegistry);
+    sizing.setBulkhead(bulkhead);
+    sizing.start();
+
+    for (String tenant : new String[] {"t1", "t2", "t3"})
+    {
+      bulkhead.giveBack(bulkhead.get(tenant, "a", ObjectPool.TIMEOUT_UNLIMITED));
+    }
+
+    assertEquals(4, bulkhead.getReservedTotal());
+
+    for (int i = 0; i < 10; i++)
+    {
+      sizing.adjust();
+    }
+
+    assertEquals(5, pool.getMaxSize());
+    assertEquals(5, sizing.getFloor());
+  }
+
+  /**
+   * Creates pool (max size 8), bulkhead and adaptive sizing (floor = reserved slots), shrinks the idle pool to
+   * the floor and fills it.
+   */
+  private PoolBulkhead<Integer> createBulkheadAndShrink(String quotas)
+  {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    pool = new ObjectPool<>(true, new TestPoolMethods(8, 0, n -> n));
+
+    // no partitions created on first use, so no overflow needed
+    Map<String, PoolBulkhead.Quota> quotaMap = PoolBulkhead.parseQuotas(quotas);
+    PoolBulkhead<Integer> bulkhead = new PoolBulkhead<>(pool, "test", quotaMap,
+        new PoolBulkhead.Quota(0, PoolBulkhead.UNLIMITED), quotaMap.size(), meterRegistry);
+
+    // decisions by calling adjust()
+    sizing = new AdaptivePoolSizing(pool, "test", bulkhead.getReservedTotal(), 8, TimeUnit.HOURS.toMillis(1), 2,
+        meterRegistry);
+    sizing.setBulkhead(bulkhead);
+    sizing.start();
+
+    for (int i = 0; i < 10; i++)
+    {
+      sizing.adjust();
+    }
+
+    assertEquals(2, pool.getMaxSize());
+
+    // objects created ahead, borrows do not wait for their creation in background
+    pool.prefill(2);
+
+    return bulkhead;
+  }
+
+  private static void awaitValue(IntSupplier value, int expected)
+    throws InterruptedException
+  {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+
+    while (value.getAsInt() != expected)
+    {
+      assertTrue(System.nanoTime() < deadline, "expected " + expected + " but was " + value.getAsInt());
+
+      Thread.sleep(5);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import de.joergdev.mosy.shared.Utils;
+
+/**
+ * Concurrency tests of {@link ObjectPool}: failed background creation with waiting threads, FIFO handover,
+ * borrow timeout and concurrent give backs.
+ *
+ * @author Andreas Joerg
+ */
+class ObjectPoolTest
+{
+  private static final long WAIT_SECONDS = 10;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private ObjectPool<Integer> pool;
+
+  @AfterEach
+  void tearDown()
+  {
+    executor.shutdownNow();
+
+    if (pool != null)
+    {
+      pool.close();
+    }
+  }
+
+  /**
+   * A waiter does not request a creation while a creation is pending in background, if that creation fails the
+   * waiter has to be woken up and request a new creation (borrow timeout unlimited).
+   *
+   * Repeated, as the waiter may be woken up only shortly before the pending creation is finished.
+   */
+  @Test
+  void failedBackgroundCreationWakesUpWaiter()
+    throws Exception
+  {
+    for (int i = 0; i < 200; i++)
+    {
+      CountDownLatch backgroundCreationStarted = new CountDownLatch(1);
+      CountDownLatch failBackgroundCreation = new CountDownLatch(1);
+
+      // 1: first borrow, 2: background refill for min idle (fails), 3: creation requested by the waiter
+      ObjectPool<Integer> pool = new ObjectPool<>(true, new TestPoolMethods(2, 1, n ->
+      {
+        if (n == 2)
+        {
+          backgroundCreationStarted.countDown();
+          await(failBackgroundCreation);
+
+          throw new IllegalStateException("creation failed");
+        }
+
+        return n;
+      }));
+      this.pool = pool;
+
+      assertEquals(Integer.valueOf(1), pool.get());
+      assertTrue(backgroundCreationStarted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+      Future<Integer> waiter = executor.submit(() -> pool.get());
+      awaitPending(1);
+
+      failBackgroundCreation.countDown();
+
+      assertEquals(Integer.valueOf(3), waiter.get(WAIT_SECONDS, TimeUnit.SECONDS));
+      assertEquals(0, pool.getPendingCount());
+
+      pool.close();
+    }
+  }
+
+  /** Given back objects are handed over to the waiting threads in the order they started waiting. */
+  @Test
+  void handOverInFifoOrder()
+    throws Exception
+  {
+    pool = new ObjectPool<>(true, new TestPoolMethods(1, 0, n -> n));
+
+    Integer obj = pool.get();
+
+    List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+    List<Future<?>> waiters = new ArrayList<>();
+
+    for (int i = 1; i <= 5; i++)
+    {
+      int waiterNo = i;
+      waiters.add(executor.submit(() ->
+      {
+        Integer borrowed = pool.get();
+        order.add(waiterNo);
+        pool.giveBack(borrowed);
+      }));
+
+      awaitPending(i);
+    }
+
+    pool.giveBack(obj);
+
+    for (Future<?> waiter : waiters)
+    {
+      waiter.get(WAIT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5), order);
+    assertEquals(1, pool.getPoolSize());
+  }
+
+  /** Borrowing from an exhausted pool fails after the timeout and leaves the queue of waiters. */
+  @Test
+  void borrowTimeout()
+  {
+    pool = new ObjectPool<>(true, new TestPoolMethods(1, 0, n -> n));
+
+    Integer obj = pool.get();
+
+    long timeStart = System.nanoTime();
+    assertThrows(PoolTimeoutException.class, () -> pool.get(100, TimeUnit.MILLISECONDS));
+    assertTrue(System.nanoTime() - timeStart >= TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(0, pool.getPendingCount());
+
+    pool.giveBack(obj);
+    assertNotNull(pool.get(100, TimeUnit.MILLISECONDS));
+  }
+
+  /** Concurrent give backs of the same object release it once, so it is not handed out to two borrowers. */
+  @Test
+  void concurrentDoubleGiveBack()
+    throws Exception
+  {
+    // slow reset, so both give backs are in progress at the same time
+    pool = new ObjectPool<>(true, new TestPoolMethods(2, 0, n -> n)
+    {
+      @Override
+      public boolean reset(Integer obj)
+      {
+        Utils.delay(1);
+
+        return true;
+      }
+    });
+
+    for (int i = 0; i < 100; i++)
+    {
+      Integer obj = pool.get();
+
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> giveBacks = new ArrayList<>();
+
+      for (int j = 0; j < 2; j++)
+      {
+        giveBacks.add(executor.submit(() ->
+        {
+          await(start);
+          pool.giveBack(obj);
+        }));
+      }
+
+      start.countDown();
+
+      for (Future<?> giveBack : giveBacks)
+      {
+        giveBack.get(WAIT_SECONDS, TimeUnit.SECONDS);
+      }
+
+      assertEquals(pool.getPoolSize(), pool.getUnlockedCount());
+
+      Integer first = pool.get();
+      Integer second = pool.get();
+      assertNotEquals(first, second);
+
+      pool.giveBack(first);
+      pool.giveBack(second);
+    }
+  }
+
+  private void awaitPending(int count)
+    throws InterruptedException
+  {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+
+    while (pool.getPendingCount() < count)
+    {
+      assertTrue(System.nanoTime() < deadline, "threads not waiting: " + pool.getPendingCount() + "/" + count);
+
+      Thread.sleep(5);
+    }
+  }
+
+  private static void await(CountDownLatch latch)
+  {
+    try
+    {
+      latch.await(WAIT_SECONDS, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests of {@link PoolBulkhead}: max count of partitions, partitions backed by the pool and validation of the quotas.
+ *
+ * @author Andreas Joerg
+ */
+class PoolBulkheadTest
+{
+  private ObjectPool<Integer> pool;
+
+  @AfterEach
+  void tearDown()
+  {
+    if (pool != null)
+    {
+      pool.close();
+    }
+  }
+
+  /** Beyond the max count of partitions the fallback partition is used, no further partitions are created. */
+  @Test
+  void fallbackPartitionIfMaxPartitionsReached()
+  {
+    PoolBulkhead<Integer> bulkhead = createBulkhead(4, "mock:1", new PoolBulkhead.Quota(1, 2), 2);
+
+    Integer obj1 = bulkhead.get("tenant-1", "mock", ObjectPool.TIMEOUT_UNLIMITED);
+    Integer obj2 = bulkhead.get("tenant-2", "mock", ObjectPool.TIMEOUT_UNLIMITED);
+
+    Map<String, PoolBulkhead<Integer>.Partition> partitions = bulkhead.getPartitions();
+
+    assertEquals(2, partitions.size());
+    assertTrue(partitions.containsKey("tenant-1"));
+    assertFalse(partitions.containsKey("tenant-2"));
+    assertEquals(1, partitions.get("mock").getInUse());
+    assertEquals(2, bulkhead.getReservedTotal());
+
+    bulkhead.giveBack(obj1);
+    bulkhead.giveBack(obj2);
+
+    assertEquals(0, partitions.get("mock").getInUse());
+    assertEquals(0, partitions.get("tenant-1").getInUse());
+  }
+
+  /** Partitions without reserved slots would never get an object if the pool has no overflow. */
+  @Test
+  void rejectPartitionsWithoutSlots()
+  {
+    // configured partition without reserved slots
+    assertThrows(IllegalArgumentException.class,
+        () -> createBulkhead(2, "mock:2,admin:0", new PoolBulkhead.Quota(1, PoolBulkhead.UNLIMITED), 2));
+
+    // partitions created on first use without reserved slots
+    assertThrows(IllegalArgumentException.class,
+        () -> createBulkhead(2, "mock:2", new PoolBulkhead.Quota(0, PoolBulkhead.UNLIMITED), PoolBulkhead.UNLIMITED));
+
+    // no partitions created on first use
+    assertEquals(0, createBulkhead(2, "mock:2", new PoolBulkhead.Quota(0, PoolBulkhead.UNLIMITED), 1)
+        .getOverflowSize());
+  }
+
+  /**
+   * Reserved slots of partitions created on first use are backed by the pool: without reserved slots if they would
+   * use up the pool, not created if the pool has no overflow left.
+   */
+  @Test
+  void partitionsCreatedWithinPool()
+  {
+    PoolBulkhead<Integer> bulkhead = createBulkhead(3, "mock:1", new PoolBulkhead.Quota(1, 2), PoolBulkhead.UNLIMITED);
+
+    for (String tenant : new String[] {"tenant-1", "tenant-2", "tenant-3"})
+    {
+      bulkhead.giveBack(bulkhead.get(tenant, "mock", ObjectPool.TIMEOUT_UNLIMITED));
+    }
+
+    Map<String, PoolBulkhead<Integer>.Partition> partitions = bulkhead.getPartitions();
+
+    assertEquals(1, partitions.get("tenant-1").getQuota().getReserved());
+    assertEquals(0, partitions.get("tenant-2").getQuota().getReserved());
+    assertEquals(0, partitions.get("tenant-3").getQuota().getReserved());
+    assertEquals(2, partitions.get("tenant-3").getQuota().getLimit());
+    assertEquals(2, bulkhead.getReservedTotal());
+    assertEquals(1, bulkhead.getOverflowSize());
+    assertEquals(3, bulkhead.getMinPoolSize());
+
+    // pool without overflow -> fallback partition
+    pool.close();
+    bulkhead = createBulkhead(2, "mock:2", new PoolBulkhead.Quota(1, PoolBulkhead.UNLIMITED), PoolBulkhead.UNLIMITED);
+    bulkhead.giveBack(bulkhead.get("tenant-1", "mock", ObjectPool.TIMEOUT_UNLIMITED));
+
+    assertFalse(bulkhead.getPartitions().containsKey("tenant-1"));
+    assertEquals(2, bulkhead.getReservedTotal());
+  }
+
+  private PoolBulkhead<Integer> createBulkhead(int maxSize, String quotas, PoolBulkhead.Quota defaultQuota,
+                                               int maxPartitions)
+  {
+    pool = new ObjectPool<>(true, new TestPoolMethods(maxSize, 0, n -> n));
+
+    return new PoolBulkhead<>(pool, "test", PoolBulkhead.parseQuotas(quotas), defaultQuota, maxPartitions,
+        new SimpleMeterRegistry());
+  }
+}
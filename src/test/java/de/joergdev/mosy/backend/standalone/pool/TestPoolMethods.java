@@ -0,0 +1,81 @@
+package de.joergdev.mosy.backend.standalone.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Pool methods for tests, objects are Integers (number of the creation), see {@link #getNewObj()}.
+ *
+ * @author Andreas Joerg
+ */
+class TestPoolMethods implements IPoolMethods<Integer>
+{
+  private final int maxSize;
+  private final int minIdle;
+  private final IntFunction<Integer> factory;
+  private final AtomicInteger creations = new AtomicInteger();
+
+  /**
+   * @param maxSize - max size of pool
+   * @param minIdle - min idle objects
+   * @param factory - creates the object by number of the creation (starting with 1)
+   */
+  TestPoolMethods(int maxSize, int minIdle, IntFunction<Integer> factory)
+  {
+    this.maxSize = maxSize;
+    this.minIdle = minIdle;
+    this.factory = factory;
+  }
+
+  @Override
+  public Integer getNewObj()
+  {
+    return factory.apply(creations.incrementAndGet());
+  }
+
+  @Override
+  public void cleanup(Integer obj)
+  {}
+
+  @Override
+  public long getCheckInterval()
+  {
+    return 60000;
+  }
+
+  @Override
+  public long getTTL()
+  {
+    return ObjectPool.TTL_UNLIMITED;
+  }
+
+  @Override
+  public int getMinIdle()
+  {
+    return minIdle;
+  }
+
+  @Override
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  @Override
+  public boolean validate(Integer obj)
+  {
+    return true;
+  }
+
+  @Override
+  public boolean validateOnGet()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean validateOnGiveBack()
+  {
+    return false;
+  }
+}